@@ -46,6 +46,7 @@ import org.giiwa.core.bean.helper.RDSHelper;
 import org.giiwa.core.conf.Global;
 import org.giiwa.core.conf.Local;
 import org.giiwa.core.json.JSON;
+import org.giiwa.core.task.Group;
 import org.giiwa.core.task.Task;
 import org.giiwa.framework.bean.AuthToken;
 import org.giiwa.framework.bean.Menu;
@@ -56,6 +57,8 @@ import org.giiwa.framework.bean.User;
 import org.giiwa.framework.web.IListener;
 import org.giiwa.framework.web.Model;
 import org.giiwa.framework.web.Module;
+import org.giiwa.mq.Commission;
+import org.giiwa.mq.Locks;
 import org.giiwa.mq.MQ;
 import org.giiwa.mq.RPC;
 import org.giiwa.mq.demo.Echo;
@@ -199,6 +202,7 @@ public class DefaultListener implements IListener {
       NtpTask.owner.schedule(X.AMINUTE);
     }
     new CleanupTask(conf).schedule(X.AMINUTE);
+    new PurgeTask().schedule(X.AMINUTE);
     // new AppdogTask().schedule(X.AMINUTE);
     RecycleTask.owner.schedule(X.AMINUTE);
 
@@ -219,7 +223,17 @@ public class DefaultListener implements IListener {
 
         @Override
         public void onExecute() {
-          MQ.init();
+          if (MQ.init()) {
+            // the membership of the singleton and sharded tasks
+            Task.setCluster(Commission.get("task"));
+
+            // notify the waiters of the lock
+            try {
+              Locks.init();
+            } catch (Exception e1) {
+              log.error(e1.getMessage(), e1);
+            }
+          }
 
           if (Global.getInt("mq.logger", 0) == 1) {
             MQ.logger(true);
@@ -678,6 +692,11 @@ public class DefaultListener implements IListener {
       return "cleanup.task";
     }
 
+    @Override
+    public String getGroup() {
+      return Group.BACKGROUND;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -719,15 +738,10 @@ public class DefaultListener implements IListener {
         // AccessLog.cleanup();
 
         /**
-         * cleanup repo
+         * cleanup repo, the repo is in local disk of each node
          */
         Repo.cleanup();
 
-        /**
-         * cleanup authtoken
-         */
-        AuthToken.cleanup();
-
       } catch (Exception e) {
         // eat the exception
       }
@@ -791,4 +805,47 @@ public class DefaultListener implements IListener {
     static String[] folders = { "/temp/_cache", "/temp/_raw" };
   }
 
+  /**
+   * purge the expired data in database, it's singleton in cluster, only the
+   * leader does it
+   * 
+   * @author joe
+   * 
+   */
+  private static class PurgeTask extends Task {
+
+    @Override
+    public String getName() {
+      return "purge.task";
+    }
+
+    @Override
+    public String getGroup() {
+      return Group.BACKGROUND;
+    }
+
+    @Override
+    public Mode getMode() {
+      return Mode.singleton;
+    }
+
+    @Override
+    public void onExecute() {
+      try {
+        /**
+         * cleanup authtoken
+         */
+        AuthToken.cleanup();
+
+      } catch (Exception e) {
+        log.error(e.getMessage(), e);
+      }
+    }
+
+    @Override
+    public void onFinish() {
+      this.schedule(X.AHOUR);
+    }
+  }
+
 }
@@ -27,6 +27,7 @@ import org.giiwa.core.conf.Config;
 import org.giiwa.core.conf.Global;
 import org.giiwa.core.json.JSON;
 import org.giiwa.core.task.Monitor;
+import org.giiwa.core.task.Group;
 import org.giiwa.core.task.Task;
 import org.giiwa.framework.bean.OpLog;
 import org.giiwa.framework.bean.Temp;
@@ -193,6 +194,11 @@ public class backup extends Model {
       return "backup.task";
     }
 
+    @Override
+    public String getGroup() {
+      return Group.BACKGROUND;
+    }
+
     /*
      * (non-Javadoc)
      * 
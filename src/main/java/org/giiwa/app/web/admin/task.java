@@ -14,10 +14,14 @@
 */
 package org.giiwa.app.web.admin;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.giiwa.core.bean.X;
 import org.giiwa.core.json.JSON;
+import org.giiwa.core.task.Group;
+import org.giiwa.core.task.Metrics;
 import org.giiwa.core.task.Task;
 import org.giiwa.framework.web.*;
 
@@ -50,6 +54,50 @@ public class task extends Model {
     this.show("/admin/task.index.html");
   }
 
+  /**
+   * the execution metrics of the tasks and the groups.
+   */
+  @Path(path = "stat", login = true, access = "access.config.admin")
+  public void stat() {
+    this.set("rejected", Task.rejected());
+    this.set("list", Metrics.getAll());
+    this.set("groups", Group.getAll());
+
+    this.query.path("/admin/task/stat");
+    this.show("/admin/task.stat.html");
+  }
+
+  /**
+   * web api: /admin/task/metrics, the metrics in json, or the metrics of the
+   * task if the "name" given.
+   */
+  @Path(path = "metrics", login = true, access = "access.config.admin")
+  public void metrics() {
+    String name = this.getString("name");
+
+    JSON jo = JSON.create();
+    if (!X.isEmpty(name)) {
+      Metrics.Stat s = Metrics.get(name);
+      if (s == null) {
+        jo.put(X.STATE, 201);
+        jo.put(X.ERROR, lang.get("task.notfound"));
+      } else {
+        jo.put(X.STATE, 200);
+        jo.put("data", s.toJSON());
+      }
+    } else {
+      List<JSON> l1 = new ArrayList<JSON>();
+      for (Metrics.Stat s : Metrics.getAll()) {
+        l1.add(s.toJSON());
+      }
+      jo.put(X.STATE, 200);
+      jo.put("list", l1);
+      jo.put("rejected", Task.rejected());
+    }
+
+    this.response(jo);
+  }
+
   @Path(path = "dump", login = true, access = "access.config.admin")
   public void dump() {
     String name = this.getString("name");
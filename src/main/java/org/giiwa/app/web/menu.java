@@ -15,11 +15,9 @@
 package org.giiwa.app.web;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 
-import org.giiwa.core.bean.Beans;
 import org.giiwa.core.bean.X;
 import org.giiwa.core.json.JSON;
 import org.giiwa.framework.bean.*;
@@ -55,37 +53,12 @@ public class menu extends Model {
     long id = this.getLong("root");
     String name = this.getString("name");
 
-    Beans<Menu> bs = null;
-    Menu m = null;
-    if (!X.isEmpty(name)) {
-      /**
-       * load the menu by id and name
-       */
-      m = Menu.load(id, name);
-
-      if (m != null) {
-
-        /**
-         * load the submenu of the menu
-         */
-        bs = m.submenu();
-      }
-    } else {
-      /**
-       * load the submenu by id
-       */
-      bs = Menu.submenu(id);
-
-    }
-    List<Menu> list = bs == null ? null : bs.getList();
-
     /**
-     * filter out the item which no access
+     * load the menus from the tree in memory, filtered by the access
      */
-    Collection<Menu> ll = Menu.filterAccess(list, me);
+    List<Menu> ll = Menu.load(me, id, name);
 
-    log.debug("load menu: id=" + id + ", size=" + (list == null ? 0 : list.size()) + ", filtered="
-        + (ll == null ? 0 : ll.size()));
+    log.debug("load menu: id=" + id + ", name=" + name + ", size=" + (ll == null ? 0 : ll.size()));
 
     /**
      * convert the list to json array
@@ -97,7 +70,7 @@ public class menu extends Model {
 
       while (it.hasNext()) {
         JSON jo = new JSON();
-        m = it.next();
+        Menu m = it.next();
 
         /**
          * set the text width language
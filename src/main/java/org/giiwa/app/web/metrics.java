@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.app.web;
+
+import org.giiwa.core.bean.X;
+import org.giiwa.core.conf.Config;
+import org.giiwa.core.task.Metrics;
+import org.giiwa.framework.web.Model;
+
+/**
+ * web api: <a href='/metrics' target='_blank'>/metrics</a>, the task metrics
+ * in the Prometheus text format, it's disabled by default, enabled by
+ * "web.metrics=on" in giiwa.properties
+ *
+ * @author joe
+ *
+ */
+public class metrics extends Model {
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.giiwa.framework.web.Model#onGet()
+   */
+  public void onGet() {
+    if (!X.isSame("on", Config.getConf().getString("web.metrics", "off"))) {
+      this.notfound();
+      return;
+    }
+
+    this.setContentType("text/plain; version=0.0.4; charset=utf-8");
+    this.print(Metrics.prometheus());
+  }
+
+}
@@ -18,7 +18,6 @@ import java.io.*;
 
 import javax.servlet.http.HttpServletResponse;
 
-import org.giiwa.core.base.GImage;
 import org.giiwa.core.base.IOUtil;
 import org.giiwa.core.bean.X;
 import org.giiwa.core.json.JSON;
@@ -89,31 +88,9 @@ public class repo extends Model {
                 String[] ss = size.split("x");
 
                 if (ss.length == 2) {
-                  boolean failed = false;
-                  File f = Temp.get(id, size);
-                  if (!f.exists()) {
-                    f.getParentFile().mkdirs();
-
-                    File src = Temp.get(id, null);
-                    if (!src.exists()) {
-                      src.getParentFile().mkdirs();
-                    }
-                    OutputStream out = new FileOutputStream(src);
-                    IOUtil.copy(e.getInputStream(), out, false);
-                    out.close();
-
-                    if (GImage.scale3(src.getAbsolutePath(), f.getAbsolutePath(), X.toInt(ss[0]), X.toInt(ss[1])) < 0) {
-                      failed = true;
-                      e.reset();
-                    }
-                  }
-
-                  if (f.exists() && !failed) {
-                    InputStream in = new FileInputStream(f);
-                    OutputStream out = this.getOutputStream();
-
-                    IOUtil.copy(in, out, false);
-                    in.close();
+                  File f = Thumbnail.get(e.getId(), Thumbnail.COVER, X.toInt(ss[0]), X.toInt(ss[1]));
+                  if (f != null) {
+                    _thumbnail(f);
                     return;
                   }
                 }
@@ -247,44 +224,15 @@ public class repo extends Model {
               String[] ss = size.split("x");
 
               if (ss.length == 2) {
-                File f = Temp.get(id, "s_" + size);
-                boolean failed = false;
-
-                if (!f.exists()) {
-                  f.getParentFile().mkdirs();
-
-                  File src = Temp.get(id, null);
-                  if (!src.exists()) {
-                    src.getParentFile().mkdirs();
-                  } else {
-                    src.delete();
-                  }
-                  OutputStream out = new FileOutputStream(src);
-                  IOUtil.copy(e.getInputStream(), out, false);
-                  out.close();
-
-                  /**
-                   * using scale3 to cut the middle of the image
-                   */
-                  if (GImage.scale3(src.getAbsolutePath(), f.getAbsolutePath(), X.toInt(ss[0]), X.toInt(ss[1])) < 0) {
-                    failed = true;
-                    log.warn("scale3 image failed");
-                    e.reset();
-                  }
-                } else {
-                  log.debug("load the image from the temp cache, file=" + f.getCanonicalPath());
-                }
-
-                if (f.exists() && !failed) {
-                  log.debug("load the scaled image from " + f.getCanonicalPath());
-
-                  InputStream in = new FileInputStream(f);
-                  OutputStream out = this.getOutputStream();
-
-                  IOUtil.copy(in, out, false);
-                  in.close();
+                /**
+                 * cut the middle of the image
+                 */
+                File f = Thumbnail.get(e.getId(), Thumbnail.COVER, X.toInt(ss[0]), X.toInt(ss[1]));
+                if (f != null) {
+                  _thumbnail(f);
                   return;
                 }
+                log.warn("scale image failed, id=" + id + ", size=" + size);
               }
             }
 
@@ -298,43 +246,15 @@ public class repo extends Model {
               String[] ss = size.split("x");
 
               if (ss.length == 2) {
-                boolean failed = false;
-                File f = Temp.get(id, "s1_" + size);
-                if (!f.exists()) {
-                  f.getParentFile().mkdirs();
-
-                  File src = Temp.get(id, null);
-                  if (!src.exists()) {
-                    src.getParentFile().mkdirs();
-                  } else {
-                    src.delete();
-                  }
-                  OutputStream out = new FileOutputStream(src);
-                  IOUtil.copy(e.getInputStream(), out, false);
-                  out.close();
-
-                  /**
-                   * using scale to smooth the original image
-                   */
-                  if (GImage.scale(src.getAbsolutePath(), f.getAbsolutePath(), X.toInt(ss[0]), X.toInt(ss[1])) < 0) {
-                    log.warn("scale3 image failed");
-                    failed = true;
-                    e.reset();
-                  }
-                } else {
-                  log.debug("load the image from the temp cache, file=" + f.getCanonicalPath());
-                }
-
-                if (f.exists() && !failed) {
-                  log.debug("load scaled image from " + f.getCanonicalPath());
-
-                  InputStream in = new FileInputStream(f);
-                  OutputStream out = this.getOutputStream();
-
-                  IOUtil.copy(in, out, false);
-                  in.close();
+                /**
+                 * scale to fit the original image in the size
+                 */
+                File f = Thumbnail.get(e.getId(), Thumbnail.FIT, X.toInt(ss[0]), X.toInt(ss[1]));
+                if (f != null) {
+                  _thumbnail(f);
                   return;
                 }
+                log.warn("scale image failed, id=" + id + ", size1=" + size);
               }
             }
 
@@ -418,4 +338,16 @@ public class repo extends Model {
 
   }
 
+  private void _thumbnail(File f) throws IOException {
+    this.setContentType("image/png");
+    this.setHeader("Content-Length", Long.toString(f.length()));
+
+    InputStream in = new FileInputStream(f);
+    try {
+      IOUtil.copy(in, this.getOutputStream(), false);
+    } finally {
+      in.close();
+    }
+  }
+
 }
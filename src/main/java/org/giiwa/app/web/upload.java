@@ -14,6 +14,10 @@
 */
 package org.giiwa.app.web;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.fileupload.FileItem;
@@ -26,7 +30,9 @@ import org.giiwa.framework.web.*;
 /**
  * web api：/upload <br>
  * used to upload file and return the file id in file repository, it support
- * "resume“ file upload, the "Content-Range: bytes 0-1024/2048"
+ * "resume“ file upload, the "Content-Range: bytes 0-1024/2048" <br>
+ * if "Chunk-Size" presented, the chunks can be uploaded in parallel and out of
+ * order, and "/upload/status" returns the missed chunks
  * 
  * @author joe
  * 
@@ -63,6 +69,48 @@ public class upload extends Model {
 
   }
 
+  /**
+   * get the received chunks of the uploading file, the client can upload the
+   * missed chunks only when resume. <br>
+   * parameters: name, tag, total, chunk, lastModified
+   */
+  @Path(path = "status", login = true)
+  public void status() {
+    JSON jo = new JSON();
+
+    String tag = this.getString("tag");
+    String name = this.getString("name");
+    long total = this.getLong("total");
+    int chunk = this.getInt("chunk");
+    String lastModified = this.getString("lastModified");
+    if (X.isEmpty(lastModified)) {
+      lastModified = this.getString("lastModifiedDate");
+    }
+
+    if (total > 0 && chunk > 0) {
+      String id = UID.id(login.getId(), tag, name, total, lastModified);
+
+      BitSet bits = Repo.chunks(this.getString("folder"), id, total, chunk);
+      int count = (int) ((total + chunk - 1) / chunk);
+
+      List<Integer> missed = new ArrayList<Integer>();
+      for (int i = 0; i < count; i++) {
+        if (bits == null || !bits.get(i)) {
+          missed.add(i);
+        }
+      }
+
+      jo.put("repo", id);
+      jo.put("missed", missed);
+      jo.put(X.ERROR, 0);
+    } else {
+      jo.put(X.ERROR, HttpServletResponse.SC_BAD_REQUEST);
+      jo.put(X.MESSAGE, "parameters error");
+    }
+
+    this.response(jo);
+  }
+
   private boolean store(long me, FileItem file, JSON jo) {
     String tag = this.getString("tag");
 
@@ -99,14 +147,39 @@ public class upload extends Model {
 
       String id = UID.id(me, tag, file.getName(), total, lastModified);
 
+      /**
+       * the chunk size, if presented, the chunks can be uploaded in parallel
+       */
+      int chunk = X.toInt(this.getHeader("Chunk-Size"));
+      if (chunk <= 0) {
+        chunk = this.getInt("chunk");
+      }
+
       log.debug("storing, id=" + id + ", name=" + file.getName() + ", tag=" + tag + ", total=" + total + ", last="
-          + lastModified);
+          + lastModified + ", chunk=" + chunk);
 
       String share = this.getString("share");
       String folder = this.getString("folder");
 
-      long pos = Repo.store(folder, id, file.getName(), tag, position, total, file.getInputStream(), -1,
-          !"no".equals(share), me);
+      long pos = -1;
+      if (chunk > 0 && total > 0) {
+        if (position < 0 || position >= total || file.getSize() > Math.min(chunk, total - position)) {
+          // reject the oversize chunk before writing anything
+          if (jo == null) {
+            this.set(X.ERROR, HttpServletResponse.SC_BAD_REQUEST);
+            this.put(X.MESSAGE, "bad chunk, size=" + file.getSize() + ", chunk=" + chunk);
+          } else {
+            jo.put(X.ERROR, HttpServletResponse.SC_BAD_REQUEST);
+            jo.put(X.MESSAGE, "bad chunk, size=" + file.getSize() + ", chunk=" + chunk);
+          }
+          return false;
+        }
+        pos = Repo.store(folder, id, file.getName(), tag, position, total, chunk, file.getInputStream(), -1,
+            !"no".equals(share), me);
+      } else {
+        pos = Repo.store(folder, id, file.getName(), tag, position, total, file.getInputStream(), -1,
+            !"no".equals(share), me);
+      }
       if (pos >= 0) {
         if (jo == null) {
           this.put("url", "/repo/" + id + "/" + file.getName());
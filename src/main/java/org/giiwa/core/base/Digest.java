@@ -151,6 +151,31 @@ public class Digest {
     return result;
   }
 
+  /**
+   * Hmac-SHA256 of the string.
+   *
+   * @param str
+   *          the str
+   * @param key
+   *          the secret key
+   * @return the hex string, or null if failed
+   */
+  public static String hmac(String str, String key) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key.getBytes("UTF-8"), "HmacSHA256"));
+      byte[] bb = mac.doFinal(str.getBytes("UTF-8"));
+
+      StringBuilder sb = new StringBuilder(bb.length * 2);
+      for (byte b : bb) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     String s = "123";
     String code = "12312312";
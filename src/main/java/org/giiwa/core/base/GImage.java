@@ -23,6 +23,9 @@ import java.util.Iterator;
 import java.util.List;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.apache.commons.logging.*;
 import org.apache.http.HttpResponse;
@@ -396,6 +399,184 @@ public class GImage {
         return -1;
     }
 
+    /**
+     * read the image from the inputstream with subsampling, the decoded image
+     * is still at least twice of the (w, h) if the source is larger, that avoid
+     * decoding the full resolution when only a thumbnail is required.
+     *
+     * @param in
+     *          the inputstream of the source image
+     * @param w
+     *          the width of destination image
+     * @param h
+     *          the height of destination image
+     * @return the BufferedImage, or null if not a image
+     * @throws IOException
+     *           Signals that an I/O exception has occurred.
+     */
+    public static BufferedImage read(InputStream in, int w, int h) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(in);
+        if (iis == null)
+            return null;
+
+        try {
+            Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+            if (!it.hasNext())
+                return null;
+
+            ImageReader reader = it.next();
+            try {
+                reader.setInput(iis, true, true);
+
+                int w1 = reader.getWidth(0);
+                int h1 = reader.getHeight(0);
+
+                int sub = 1;
+                if (w > 0 && h > 0) {
+                    sub = Math.max(1, Math.min(w1 / (w * 2), h1 / (h * 2)));
+                } else if (w > 0) {
+                    sub = Math.max(1, w1 / (w * 2));
+                } else if (h > 0) {
+                    sub = Math.max(1, h1 / (h * 2));
+                }
+
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (sub > 1) {
+                    param.setSourceSubsampling(sub, sub, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * resize the image progressively, halve the image step by step with
+     * bilinear interpolation until the last step, it's much faster than
+     * getScaledInstance(SCALE_SMOOTH) and the quality is close.
+     *
+     * @param img
+     *          the source image
+     * @param w
+     *          the width of destination image
+     * @param h
+     *          the height of destination image
+     * @return the BufferedImage
+     */
+    public static BufferedImage resize(BufferedImage img, int w, int h) {
+        BufferedImage r = img;
+        int w1 = img.getWidth();
+        int h1 = img.getHeight();
+
+        do {
+            if (w1 > w) {
+                w1 = Math.max(w, w1 / 2);
+            } else {
+                w1 = w;
+            }
+            if (h1 > h) {
+                h1 = Math.max(h, h1 / 2);
+            } else {
+                h1 = h;
+            }
+
+            BufferedImage tmp = new BufferedImage(w1, h1, BufferedImage.TYPE_4BYTE_ABGR);
+            Graphics2D g = tmp.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(r, 0, 0, w1, h1, null);
+            g.dispose();
+            r = tmp;
+        } while (w1 != w || h1 != h);
+
+        return r;
+    }
+
+    /**
+     * scale the image to cover the (w, h), and cut the middle, same as scale3.
+     *
+     * @param img
+     *          the source image
+     * @param w
+     *          the width of destination image
+     * @param h
+     *          the height of destination image
+     * @return the BufferedImage, or null if the source is smaller than (w, h)
+     */
+    public static BufferedImage cover(BufferedImage img, int w, int h) {
+        int h1 = img.getHeight();
+        int w1 = img.getWidth();
+
+        if (w <= 0 || h <= 0 || w > w1 || h > h1)
+            return null;
+
+        int w0 = w;
+        int h0 = h;
+
+        float fh = ((float) h1) / h;
+        float fw = ((float) w1) / w;
+
+        if (fh < fw) {
+            w0 = (int) (w1 / fh);
+        } else {
+            h0 = (int) (h1 / fw);
+        }
+
+        BufferedImage tmp = resize(img, w0, h0);
+
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics g = out.getGraphics();
+        g.drawImage(tmp, (w - w0) / 2, (h - h0) / 2, null);
+        g.dispose();
+        return out;
+    }
+
+    /**
+     * scale the image to fit in the (w, h), the rest is transparent, same as
+     * scale.
+     *
+     * @param img
+     *          the source image
+     * @param w
+     *          the width of destination image
+     * @param h
+     *          the height of destination image
+     * @return the BufferedImage
+     */
+    public static BufferedImage fit(BufferedImage img, int w, int h) {
+        int h1 = img.getHeight();
+        int w1 = img.getWidth();
+        if (h <= 0)
+            h = h1;
+        if (w <= 0)
+            w = w1;
+
+        float fh = ((float) h1) / h;
+        float fw = ((float) w1) / w;
+        int oh = 0;
+        int ow = 0;
+        int w2 = w;
+        int h2 = h;
+
+        if (fh > fw) {
+            w2 = Math.max(1, (int) (w1 / fh));
+            ow = (w - w2) / 2;
+        } else {
+            h2 = Math.max(1, (int) (h1 / fw));
+            oh = (h - h2) / 2;
+        }
+
+        BufferedImage tmp = resize(img, w2, h2);
+
+        BufferedImage out = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics g = out.getGraphics();
+        g.drawImage(tmp, ow, oh, null);
+        g.dispose();
+        return out;
+    }
+
     /**
      * Scale the source image file to destination image file.
      *
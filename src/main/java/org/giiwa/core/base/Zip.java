@@ -21,6 +21,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.Inflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -68,6 +69,28 @@ public class Zip {
     return out.toByteArray();
   }
 
+  /**
+   * compress the bytes in gzip format, which can be sent as
+   * "Content-Encoding: gzip" directly.
+   *
+   * @param b
+   *          the b
+   * @return the byte[]
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static byte[] gzip(byte[] b) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(b.length / 2 + 64);
+    GZIPOutputStream zip = new GZIPOutputStream(out);
+    try {
+      zip.write(b);
+      zip.finish();
+    } finally {
+      zip.close();
+    }
+    return out.toByteArray();
+  }
+
   /**
    * Unzip.
    * 
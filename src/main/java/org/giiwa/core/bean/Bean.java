@@ -23,6 +23,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -182,8 +183,17 @@ public abstract class Bean implements Serializable, Map<String, Object> {
   }
 
   private Map<String, Field> _getFields() {
+    return getFields(this.getClass());
+  }
 
-    Class<? extends Bean> c1 = this.getClass();
+  /**
+   * get the fields annotated by @Column of the bean class, cached.
+   *
+   * @param c1
+   *          the bean class
+   * @return the map of the column name and the field
+   */
+  public static Map<String, Field> getFields(Class<? extends Bean> c1) {
     Map<String, Field> m = _fields.get(c1);
     if (m == null) {
       m = new HashMap<String, java.lang.reflect.Field>();
@@ -192,6 +202,7 @@ public abstract class Bean implements Serializable, Map<String, Object> {
       for (Field f : ff) {
         Column f1 = f.getAnnotation(Column.class);
         if (f1 != null) {
+          f.setAccessible(true);
           m.put(f1.name().toLowerCase(), f);
         }
       }
@@ -201,7 +212,16 @@ public abstract class Bean implements Serializable, Map<String, Object> {
     return m;
   }
 
-  private static Map<Class<? extends Bean>, Map<String, Field>> _fields = new HashMap<Class<? extends Bean>, Map<String, Field>>();
+  /**
+   * get the bean classes which fields has been cached.
+   *
+   * @return the set of classes
+   */
+  public static Set<Class<? extends Bean>> getBeans() {
+    return _fields.keySet();
+  }
+
+  private static Map<Class<? extends Bean>, Map<String, Field>> _fields = new ConcurrentHashMap<Class<? extends Bean>, Map<String, Field>>();
 
   /**
    * get the value by name from bean <br>
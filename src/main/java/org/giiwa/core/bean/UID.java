@@ -21,6 +21,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,6 +30,7 @@ import org.giiwa.core.base.*;
 import org.giiwa.core.bean.Helper.V;
 import org.giiwa.core.bean.Helper.W;
 import org.giiwa.core.cache.Cache;
+import org.giiwa.core.conf.Config;
 import org.giiwa.core.conf.Global;
 import org.giiwa.framework.web.Model;
 
@@ -42,56 +45,167 @@ public final class UID {
 
   private static Log log = LogFactory.getLog(UID.class);
 
+  private static ConcurrentHashMap<String, Segment> segments = new ConcurrentHashMap<String, Segment>();
+
   /**
    * increase and get the unique sequence number by key, <br>
-   * the number=[cluster.code] + seq
+   * the number=[cluster.code] + seq, the seq is allocated by block (hi/lo) in
+   * database, a block of "uid.block" ids is reserved by one update, and handed
+   * out in memory without lock, so the ids are unique but not continuous across
+   * the nodes or restarts, <br>
+   * if "uid.mode=snowflake" in giiwa.properties, the id is created by
+   * snowflake() without database.
    *
    * @param key
    *          the key
-   * @return long of the unique sequence
+   * @return long of the unique sequence, or -1 if failed
    */
-  public synchronized static long next(String key) {
+  public static long next(String key) {
 
-    long prefix = Global.getLong("cluster.code", 0) * 10000000000000L;
+    if (X.isSame("snowflake", Config.getConf().getString("uid.mode", null))) {
+      return snowflake();
+    }
 
-    try {
+    Segment s = segments.get(key);
+    if (s == null) {
+      s = new Segment(key);
+      Segment s1 = segments.putIfAbsent(key, s);
+      if (s1 != null) {
+        s = s1;
+      }
+    }
+
+    return s.next();
+  }
+
+  /**
+   * the reserved ids of the key, the block is replaced when used out
+   *
+   * @author joe
+   *
+   */
+  private static class Segment {
 
-      /**
-       * remove cache
-       */
-      Cache.remove("global/" + key);
+    final String           key;
+    private volatile Block block = new Block(0, 0, -1);
 
-      Global f = Helper.load(key, Global.class);
+    Segment(String key) {
+      this.key = key;
+    }
 
-      long v = 1;
-      if (f == null) {
-        String linkid = UID.random();
+    long next() {
+      while (true) {
+        Block b = block;
+        long v = b.next.getAndIncrement();
+        if (v <= b.max) {
+          return b.prefix + v;
+        }
 
-        Helper.insert(V.create(X.ID, key).set("l", v).set("linkid", linkid), Global.class);
-        f = Helper.load(key, Global.class);
-        if (f == null) {
-          log.error("occur error when create unique id, name=" + key);
-          return -1;
-        } else if (!X.isSame(f.getString("linkid"), linkid)) {
-          return next(key);
+        synchronized (this) {
+          if (block == b) {
+            Block b1 = _alloc();
+            if (b1 == null) {
+              return -1;
+            }
+            block = b1;
+          }
         }
+      }
+    }
+
+    /**
+     * reserve a block in database by compare-and-set the "l" of the key
+     */
+    private Block _alloc() {
+      long prefix = Global.getLong("cluster.code", 0) * 10000000000000L;
+      int n = Math.max(1, Config.getConf().getInt("uid.block", 100));
+
+      try {
+        for (int i = 0; i < 100; i++) {
+          /**
+           * remove cache
+           */
+          Cache.remove("global/" + key);
 
-      } else {
-        v = f.getLong("l");
-        // log.debug("v=" + v + ", f=" + f);
+          Global f = Helper.load(key, Global.class);
+          if (f == null) {
+            String linkid = UID.random();
 
-        if (Helper.update(W.create(X.ID, key).and("l", v), V.create("l", v + 1L), Global.class) <= 0) {
-          return next(key);
+            Helper.insert(V.create(X.ID, key).set("l", (long) n).set("linkid", linkid), Global.class);
+            f = Helper.load(key, Global.class);
+            if (f == null) {
+              log.error("occur error when create unique id, name=" + key);
+              return null;
+            } else if (X.isSame(f.getString("linkid"), linkid)) {
+              return new Block(prefix, 1, n);
+            }
+            // inserted by other node
+            continue;
+          }
+
+          long v = f.getLong("l");
+          if (Helper.update(W.create(X.ID, key).and("l", v), V.create("l", v + n), Global.class) > 0) {
+            return new Block(prefix, v + 1, v + n);
+          }
         }
-        v += 1;
+        log.error("too much contention when create unique id, name=" + key);
+      } catch (Exception e) {
+        log.error(e.getMessage(), e);
       }
+      return null;
+    }
+  }
 
-      return prefix + v;
-    } catch (Exception e) {
-      log.error(e.getMessage(), e);
+  private static class Block {
+    final long       prefix;
+    final AtomicLong next;
+    final long       max;
+
+    Block(long prefix, long from, long max) {
+      this.prefix = prefix;
+      this.next = new AtomicLong(from);
+      this.max = max;
     }
+  }
 
-    return -1;
+  /**
+   * the epoch of the snowflake, 2015-01-01
+   */
+  private static final long       EPOCH     = 1420070400000L;
+  private static final AtomicLong flake     = new AtomicLong(0);
+  private static volatile long    worker    = -1;
+  private static volatile long    workerExpired;
+
+  /**
+   * create the unique id by time, without database, <br>
+   * id = [41 bits milliseconds since 2015] [10 bits cluster.code] [12 bits
+   * sequence in the millisecond], it's about 4 millions ids per second per
+   * node, the cluster.code must be unique and less than 1024 in the cluster.
+   *
+   * @return the id
+   */
+  public static long snowflake() {
+    long now = System.currentTimeMillis();
+    if (worker < 0 || workerExpired < now) {
+      worker = Global.getLong("cluster.code", 0) & 0x3FF;
+      workerExpired = now + X.AMINUTE;
+    }
+
+    while (true) {
+      long last = flake.get();
+      long t = Math.max(now - EPOCH, last >>> 12);
+      long seq = (t == (last >>> 12)) ? (last & 0xFFF) + 1 : 0;
+      if (seq > 0xFFF) {
+        // used out in this millisecond, borrow the next
+        t++;
+        seq = 0;
+      }
+
+      long v = (t << 12) | seq;
+      if (flake.compareAndSet(last, v)) {
+        return (t << 22) | (worker << 12) | seq;
+      }
+    }
   }
 
   /**
@@ -103,7 +217,7 @@ public final class UID {
    *          the length
    * @return the string
    */
-  public synchronized static String next(String key, int len) {
+  public static String next(String key, int len) {
     StringBuilder p = new StringBuilder("00000000000");
     while (p.length() < len) {
       p.append("0000000000");
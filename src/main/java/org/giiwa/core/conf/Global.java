@@ -16,12 +16,11 @@ package org.giiwa.core.conf;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.giiwa.core.bean.*;
 import org.giiwa.core.bean.Helper.V;
 import org.giiwa.core.bean.Helper.W;
-import org.giiwa.core.task.Task;
-import org.giiwa.framework.web.Model;
 
 /**
  * The Class Global is extended of Config, it can be "overrided" by module or
@@ -213,7 +212,7 @@ public final class Global extends Bean {
   }
 
   /**
-   * Lock a global lock
+   * Lock a global lock, it's held by the node until released, see Lock
    *
    * @param name
    *          the name of lock
@@ -221,65 +220,17 @@ public final class Global extends Bean {
    *          the timeout
    * @return true, if successful
    */
-  public static synchronized boolean lock(String name, long timeout) {
-
-    name = "lock." + name;
-    heartbeat.schedule(10);
-
-    if (locked.containsKey(name)) {
+  public static boolean lock(String name, long timeout) {
+    Lock l = locked.get(name);
+    if (l != null && l.isHeld()) {
       return true;
     }
 
-    if (timeout <= 0) {
-      return false;
-    }
-
-    try {
-      long now = System.currentTimeMillis();
-
-      String node = Model.node();
-
-      Global f = Helper.load(name, Global.class);
-
-      if (f == null) {
-        String linkid = UID.random();
-
-        Helper.insert(V.create(X.ID, name).set("s", node).set("linkid", linkid), Global.class);
-        f = Helper.load(name, Global.class);
-        if (f == null) {
-          log.error("occur error when create unique id, name=" + name);
-          return false;
-        } else if (!X.isSame(f.getString("linkid"), linkid)) {
-          synchronized (name) {
-            name.wait(1000);
-          }
-          return lock(name, timeout - System.currentTimeMillis() + now);
-        }
-
-        locked.put(name, Thread.currentThread());
-
-        return true;
-      } else {
-        String s = f.getString("s");
-        // 10 seconds
-        if (X.isEmpty(s) || System.currentTimeMillis() - f.getUpdated() > 10000) {
-          if (Helper.update(W.create(X.ID, name).and("s", s), V.create("s", node), Global.class) > 0) {
-            locked.put(name, Thread.currentThread());
-
-            return true;
-          } else {
-            synchronized (name) {
-              name.wait(1000);
-            }
-            return lock(name, timeout - System.currentTimeMillis() + now);
-          }
-        }
-      }
-
-    } catch (Exception e) {
-      log.error(e.getMessage(), e);
+    l = Lock.create(name);
+    if (l.tryLock(timeout)) {
+      locked.put(name, l);
+      return true;
     }
-
     return false;
   }
 
@@ -290,46 +241,15 @@ public final class Global extends Bean {
    *          the name of lock
    * @return true, if successful
    */
-  public static synchronized boolean release(String name) {
-    name = "lock." + name;
-    try {
-      String node = Model.node();
-      return Helper.update(W.create(X.ID, name).and("s", node), V.create("s", X.EMPTY), Global.class) > 0;
-
-    } finally {
-      locked.remove(name);
-    }
-  }
-
-  private static Task heartbeat = new LockHeartbeat();
-
-  private static class LockHeartbeat extends Task {
-
-    @Override
-    public void onExecute() {
-      if (locked.size() > 0) {
-        String[] names = locked.keySet().toArray(new String[locked.size()]);
-        String node = Model.node();
-
-        for (String name : names) {
-          if (Helper.update(W.create(X.ID, name).and("s", node), V.create(X.UPDATED, System.currentTimeMillis()),
-              Global.class) <= 0) {
-            // the lock has been acquired by other
-            Thread t = locked.get(name);
-            t.interrupt();
-            locked.remove(name);
-          }
-        }
-      }
-    }
-
-    @Override
-    public void onFinish() {
-      this.schedule(3000);
+  public static boolean release(String name) {
+    Lock l = locked.remove(name);
+    if (l != null && l.isHeld()) {
+      l.unlock();
+      return true;
     }
-
+    return false;
   }
 
-  private static Map<String, Thread> locked = new HashMap<String, Thread>();
+  private static Map<String, Lock> locked = new ConcurrentHashMap<String, Lock>();
 
 }
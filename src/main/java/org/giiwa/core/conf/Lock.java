@@ -0,0 +1,403 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.conf;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.bean.Helper;
+import org.giiwa.core.bean.Helper.V;
+import org.giiwa.core.bean.Helper.W;
+import org.giiwa.core.bean.UID;
+import org.giiwa.core.bean.X;
+import org.giiwa.core.task.Group;
+import org.giiwa.core.task.Task;
+import org.giiwa.framework.web.Model;
+
+/**
+ * The {@code Lock} Class is the distributed lock with lease, the lease is
+ * renewed by the background task while the lock is held, and expired if the
+ * node is gone, each acquisition gets a increasing fencing token, the
+ * protected resource can reject the stale owner by the token, <br>
+ * the waiters are notified by the Notifier (MQ topic) when the lock is
+ * released, and re-check by the lease if no notifier, <br>
+ * the default backend is the compare-and-set on "gi_config", the
+ * configuration in giiwa.properties:
+ *
+ * <pre>
+ * lock.lease=10000, the lease in milliseconds
+ * </pre>
+ *
+ * usage:
+ *
+ * <pre>
+ * Lock l = Lock.create("report");
+ * if (l.tryLock(10000)) {
+ *   try {
+ *     ... l.getToken()
+ *   } finally {
+ *     l.unlock();
+ *   }
+ * }
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+public class Lock {
+
+  private static Log                               log      = LogFactory.getLog(Lock.class);
+
+  private static Backend                           backend  = new DBBackend();
+  private static Notifier                          notifier;
+
+  private static Set<Lock>                         held     = ConcurrentHashMap.newKeySet();
+  private static ConcurrentHashMap<String, Waiter> waiters  = new ConcurrentHashMap<String, Waiter>();
+  private static Task                              renewer  = new Renewer();
+  private static AtomicBoolean                     renewing = new AtomicBoolean(false);
+
+  private final String                             name;
+  private final String                             owner;
+  private volatile long                            token    = -1;
+
+  /**
+   * the backend which stores the lock.
+   *
+   * @author joe
+   *
+   */
+  public interface Backend {
+
+    /**
+     * acquire the lock if it's free or the lease expired.
+     *
+     * @param name
+     *          the name of the lock
+     * @param owner
+     *          the owner
+     * @param lease
+     *          the lease in milliseconds
+     * @return the fencing token, or -1 if the lock is held by other
+     */
+    long acquire(String name, String owner, long lease);
+
+    /**
+     * renew the lease.
+     *
+     * @param name
+     *          the name of the lock
+     * @param owner
+     *          the owner
+     * @param token
+     *          the fencing token
+     * @param lease
+     *          the lease in milliseconds
+     * @return false if the lock has been lost
+     */
+    boolean renew(String name, String owner, long token, long lease);
+
+    /**
+     * release the lock.
+     *
+     * @param name
+     *          the name of the lock
+     * @param owner
+     *          the owner
+     * @param token
+     *          the fencing token
+     */
+    void release(String name, String owner, long token);
+
+  }
+
+  /**
+   * the notifier which tells the waiters in all nodes that the lock released,
+   * the receiver should call Lock.wakeup(name).
+   *
+   * @author joe
+   *
+   */
+  public interface Notifier {
+
+    void released(String name);
+
+  }
+
+  /**
+   * create a lock by the name, it's not acquired.
+   *
+   * @param name
+   *          the name of the lock
+   * @return the Lock
+   */
+  public static Lock create(String name) {
+    return new Lock(name);
+  }
+
+  private Lock(String name) {
+    this.name = name;
+    this.owner = Model.node() + "/" + UID.uuid();
+  }
+
+  public static void setBackend(Backend b) {
+    backend = b;
+  }
+
+  public static void setNotifier(Notifier n) {
+    notifier = n;
+  }
+
+  /**
+   * try to acquire the lock in the timeout.
+   *
+   * @param timeout
+   *          the timeout in milliseconds, 0 to try once
+   * @return true if acquired
+   */
+  public boolean tryLock(long timeout) {
+    if (isHeld()) {
+      return true;
+    }
+
+    long lease = Config.getConf().getLong("lock.lease", 10000);
+    long deadline = System.currentTimeMillis() + timeout;
+
+    Waiter w = _waiter(name);
+    try {
+      while (true) {
+        long seen = w.signals;
+
+        long t = backend.acquire(name, owner, lease);
+        if (t > 0) {
+          token = t;
+          held.add(this);
+          if (renewing.compareAndSet(false, true)) {
+            renewer.schedule(lease / 3);
+          }
+          return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now >= deadline) {
+          return false;
+        }
+
+        /**
+         * wait for the notification, or re-check when the lease may expire if
+         * the holder gone
+         */
+        long wait = Math.min(deadline - now, notifier == null ? 1000 : lease);
+        synchronized (w) {
+          if (w.signals == seen) {
+            w.wait(wait);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch (Exception e) {
+      log.error(name, e);
+      return false;
+    }
+  }
+
+  /**
+   * release the lock, and notify the waiters.
+   */
+  public void unlock() {
+    if (!held.remove(this)) {
+      return;
+    }
+
+    long t = token;
+    token = -1;
+    try {
+      backend.release(name, owner, t);
+    } catch (Exception e) {
+      log.error(name, e);
+    }
+
+    wakeup(name);
+    Notifier n = notifier;
+    if (n != null) {
+      try {
+        n.released(name);
+      } catch (Exception e) {
+        log.error(name, e);
+      }
+    }
+  }
+
+  /**
+   * is the lock held by this, it's false if the lease lost.
+   *
+   * @return boolean
+   */
+  public boolean isHeld() {
+    return token > 0;
+  }
+
+  /**
+   * get the fencing token, it's increased on each acquisition of the lock.
+   *
+   * @return the token, or -1 if not held
+   */
+  public long getToken() {
+    return token;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * wake up the waiters of the lock in this node.
+   *
+   * @param name
+   *          the name of the lock
+   */
+  public static void wakeup(String name) {
+    Waiter w = waiters.get(name);
+    if (w != null) {
+      synchronized (w) {
+        w.signals++;
+        w.notifyAll();
+      }
+    }
+  }
+
+  private static Waiter _waiter(String name) {
+    Waiter w = waiters.get(name);
+    if (w == null) {
+      w = new Waiter();
+      Waiter w1 = waiters.putIfAbsent(name, w);
+      if (w1 != null) {
+        w = w1;
+      }
+    }
+    return w;
+  }
+
+  private static class Waiter {
+    volatile long signals;
+  }
+
+  /**
+   * renew the lease of the held locks.
+   */
+  private static class Renewer extends Task {
+
+    @Override
+    public String getGroup() {
+      return Group.HEARTBEAT;
+    }
+
+    @Override
+    public String getName() {
+      return "lock.renewer";
+    }
+
+    @Override
+    public void onExecute() {
+      long lease = Config.getConf().getLong("lock.lease", 10000);
+      for (Lock l : held) {
+        long t = l.token;
+        if (t > 0 && !backend.renew(l.name, l.owner, t, lease)) {
+          // the lease expired and acquired by other
+          log.warn("lost the lock, name=" + l.name + ", token=" + t);
+          l.token = -1;
+          held.remove(l);
+        }
+      }
+    }
+
+    @Override
+    public void onFinish() {
+      renewing.set(false);
+      if (!held.isEmpty() && renewing.compareAndSet(false, true)) {
+        this.schedule(Config.getConf().getLong("lock.lease", 10000) / 3);
+      }
+    }
+
+  }
+
+  /**
+   * the lock in "gi_config", s=owner, l=fencing token, i=lease, updated=the
+   * last renewal.
+   *
+   * @author joe
+   *
+   */
+  private static class DBBackend implements Backend {
+
+    @Override
+    public long acquire(String name, String owner, long lease) {
+      name = "lock." + name;
+
+      for (int i = 0; i < 3; i++) {
+        Global f = Helper.load(name, Global.class);
+
+        if (f == null) {
+          String linkid = UID.random();
+
+          try {
+            Helper.insert(
+                V.create(X.ID, name).set("s", owner).set("l", 1L).set("i", (int) lease).set("linkid", linkid),
+                Global.class);
+          } catch (Exception e) {
+            // inserted by other
+          }
+          f = Helper.load(name, Global.class);
+          if (f != null && X.isSame(f.getString("linkid"), linkid)) {
+            return 1;
+          }
+          continue;
+        }
+
+        String s = f.getString("s");
+        long l = f.getLong("l");
+        long l1 = f.getInt("i") > 0 ? f.getInt("i") : lease;
+        if (!X.isEmpty(s) && System.currentTimeMillis() - f.getUpdated() <= l1) {
+          return -1;
+        }
+
+        if (Helper.update(W.create(X.ID, name).and("l", l).and("s", s),
+            V.create("s", owner).set("l", l + 1).set("i", (int) lease), Global.class) > 0) {
+          return l + 1;
+        }
+      }
+
+      return -1;
+    }
+
+    @Override
+    public boolean renew(String name, String owner, long token, long lease) {
+      return Helper.update(W.create(X.ID, "lock." + name).and("s", owner).and("l", token),
+          V.create("s", owner).set("i", (int) lease), Global.class) > 0;
+    }
+
+    @Override
+    public void release(String name, String owner, long token) {
+      Helper.update(W.create(X.ID, "lock." + name).and("s", owner).and("l", token), V.create("s", X.EMPTY),
+          Global.class);
+    }
+
+  }
+
+}
@@ -18,6 +18,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.HashMap;
@@ -47,6 +48,11 @@ public final class JSON extends HashMap<String, Object> {
 
   private static Log        log              = LogFactory.getLog(JSON.class);
 
+  /**
+   * the Gson is thread-safe
+   */
+  private static final Gson GSON             = new Gson();
+
   /**
    * parse the json object to JSON
    * 
@@ -248,8 +254,17 @@ public final class JSON extends HashMap<String, Object> {
    * create a json string
    */
   public String toString() {
-    Gson g = new Gson();
-    return g.toJson(this);
+    return GSON.toJson(this);
+  }
+
+  /**
+   * write the json string to the writer, without the whole string in memory.
+   *
+   * @param out
+   *          the writer
+   */
+  public void toJson(Writer out) {
+    GSON.toJson(this, out);
   }
 
   private static void _refine(Map<String, Object> jo) {
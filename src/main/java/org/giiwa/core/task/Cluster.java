@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.task;
+
+
+import java.util.List;
+
+/**
+ * The {@code Cluster} Interface is the membership of the cluster, which is
+ * used by the singleton and sharded tasks, see Task.getMode(). <br>
+ * it's set by Task.setCluster(), if not set, the node is the only member and
+ * the leader.
+ *
+ * @author joe
+ *
+ */
+public interface Cluster {
+
+  /**
+   * is the current node the leader.
+   *
+   * @return true if the leader
+   */
+  boolean isLeader();
+
+  /**
+   * get the live members, sorted by the node name, the nodes MUST have same
+   * view to split the work.
+   *
+   * @return the list of node name
+   */
+  List<String> getMembers();
+
+  /**
+   * get the name of the current node.
+   *
+   * @return the node name
+   */
+  String node();
+
+}
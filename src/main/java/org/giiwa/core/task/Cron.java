@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.task;
+
+import java.util.BitSet;
+import java.util.Calendar;
+
+import org.giiwa.core.bean.X;
+
+/**
+ * The {@code Cron} Class is the parsed cron expression, used to schedule the
+ * recurring task, the expression can be:
+ *
+ * <pre>
+ * minute hour day-of-month month day-of-week, e.g. "0/15 * * * *"
+ * second minute hour day-of-month month day-of-week, e.g. "30 0 2 * * MON-FRI"
+ * &#64;yearly, &#64;monthly, &#64;weekly, &#64;daily, &#64;hourly
+ * </pre>
+ *
+ * each field can be "*", "?", "n", "a-b", "a-b/n", "*&#47;n" or the list of
+ * them by ",", the month and the day-of-week can be the name, JAN-DEC, SUN-SAT,
+ * the day-of-week 0 and 7 are Sunday, when both the day-of-month and the
+ * day-of-week are restricted, either matches.
+ *
+ * @author joe
+ *
+ */
+public class Cron {
+
+  private static final String[] MONTHS   = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT",
+      "NOV", "DEC" };
+  private static final String[] WEEKDAYS = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+  private String                expr;
+
+  private BitSet                seconds;
+  private BitSet                minutes;
+  private BitSet                hours;
+  private BitSet                days;
+  private BitSet                months;
+  private BitSet                weekdays;
+
+  private boolean               anyday;
+  private boolean               anyweekday;
+
+  /**
+   * parse the cron expression.
+   *
+   * @param expr
+   *          the expression
+   * @return the Cron
+   * @throws IllegalArgumentException
+   *           if the expression is bad
+   */
+  public static Cron parse(String expr) {
+    if (X.isEmpty(expr)) {
+      throw new IllegalArgumentException("empty cron expression");
+    }
+
+    String s = expr.trim();
+    if (s.startsWith("@")) {
+      if (X.isSame("@yearly", s) || X.isSame("@annually", s)) {
+        s = "0 0 1 1 *";
+      } else if (X.isSame("@monthly", s)) {
+        s = "0 0 1 * *";
+      } else if (X.isSame("@weekly", s)) {
+        s = "0 0 * * 0";
+      } else if (X.isSame("@daily", s) || X.isSame("@midnight", s)) {
+        s = "0 0 * * *";
+      } else if (X.isSame("@hourly", s)) {
+        s = "0 * * * *";
+      } else {
+        throw new IllegalArgumentException("bad cron expression: " + expr);
+      }
+    }
+
+    String[] ss = s.split("\\s+");
+    if (ss.length != 5 && ss.length != 6) {
+      throw new IllegalArgumentException("bad cron expression: " + expr);
+    }
+
+    Cron c = new Cron();
+    c.expr = expr;
+
+    int i = 0;
+    c.seconds = ss.length == 6 ? _parse(ss[i++], 0, 59, null) : _parse("0", 0, 59, null);
+    c.minutes = _parse(ss[i++], 0, 59, null);
+    c.hours = _parse(ss[i++], 0, 23, null);
+
+    c.anyday = _any(ss[i]);
+    c.days = _parse(ss[i++], 1, 31, null);
+
+    c.months = _parse(ss[i++], 1, 12, MONTHS);
+
+    c.anyweekday = _any(ss[i]);
+    c.weekdays = _parse(ss[i++], 0, 7, WEEKDAYS);
+    if (c.weekdays.get(7)) {
+      c.weekdays.set(0);
+    }
+
+    return c;
+  }
+
+  /**
+   * get the next time which matches the expression after the time.
+   *
+   * @param after
+   *          the time in milliseconds
+   * @return the next time, or -1 if not found in 5 years
+   */
+  public long next(long after) {
+    Calendar c = Calendar.getInstance();
+    c.setTimeInMillis(after);
+    c.set(Calendar.MILLISECOND, 0);
+    c.add(Calendar.SECOND, 1);
+
+    int year = c.get(Calendar.YEAR) + 5;
+    while (c.get(Calendar.YEAR) <= year) {
+      if (!months.get(c.get(Calendar.MONTH) + 1)) {
+        c.add(Calendar.MONTH, 1);
+        c.set(Calendar.DAY_OF_MONTH, 1);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+      } else if (!_day(c)) {
+        c.add(Calendar.DAY_OF_MONTH, 1);
+        c.set(Calendar.HOUR_OF_DAY, 0);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+      } else if (!hours.get(c.get(Calendar.HOUR_OF_DAY))) {
+        c.add(Calendar.HOUR_OF_DAY, 1);
+        c.set(Calendar.MINUTE, 0);
+        c.set(Calendar.SECOND, 0);
+      } else if (!minutes.get(c.get(Calendar.MINUTE))) {
+        c.add(Calendar.MINUTE, 1);
+        c.set(Calendar.SECOND, 0);
+      } else if (!seconds.get(c.get(Calendar.SECOND))) {
+        c.add(Calendar.SECOND, 1);
+      } else {
+        return c.getTimeInMillis();
+      }
+    }
+    return -1;
+  }
+
+  private boolean _day(Calendar c) {
+    boolean d = days.get(c.get(Calendar.DAY_OF_MONTH));
+    boolean w = weekdays.get(c.get(Calendar.DAY_OF_WEEK) - 1);
+    if (anyday && anyweekday) {
+      return true;
+    } else if (anyday) {
+      return w;
+    } else if (anyweekday) {
+      return d;
+    }
+    return d || w;
+  }
+
+  private static boolean _any(String s) {
+    return "*".equals(s) || "?".equals(s);
+  }
+
+  private static BitSet _parse(String s, int min, int max, String[] names) {
+    BitSet b = new BitSet(max + 1);
+    for (String s1 : s.split(",")) {
+      int step = 1;
+      int i = s1.indexOf("/");
+      boolean stepped = i > 0;
+      if (stepped) {
+        step = _int(s1.substring(i + 1), 1, Integer.MAX_VALUE, null, s);
+        s1 = s1.substring(0, i);
+      }
+
+      int from, to;
+      if (_any(s1)) {
+        from = min;
+        to = max;
+      } else {
+        i = s1.indexOf("-");
+        if (i > 0) {
+          from = _int(s1.substring(0, i), min, max, names, s);
+          to = _int(s1.substring(i + 1), min, max, names, s);
+        } else {
+          from = _int(s1, min, max, names, s);
+          // "n/step" means from n to the max
+          to = stepped ? max : from;
+        }
+      }
+
+      if (from > to) {
+        throw new IllegalArgumentException("bad cron field: " + s);
+      }
+      for (int k = from; k <= to; k += step) {
+        b.set(k);
+      }
+    }
+    return b;
+  }
+
+  private static int _int(String s, int min, int max, String[] names, String field) {
+    if (names != null) {
+      for (int i = 0; i < names.length; i++) {
+        if (names[i].equalsIgnoreCase(s)) {
+          // month is 1-based, weekday is 0-based
+          return names.length == 12 ? i + 1 : i;
+        }
+      }
+    }
+
+    int n = X.toInt(s, Integer.MIN_VALUE);
+    if (n < min || n > max) {
+      throw new IllegalArgumentException("bad cron field: " + field);
+    }
+    return n;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return expr;
+  }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code Group} Class is the group of tasks, which shares the weight of the
+ * pool, the max concurrency and the bounded queue, the group is selected by
+ * Task.getGroup(). <br>
+ * the groups are served by weighted fair queueing, a group with weight 4 gets 4
+ * times the dispatches of a group with weight 1 when both are waiting,
+ * configuration in giiwa.properties "task.group.[name]=weight,max,queue", e.g.
+ *
+ * <pre>
+ * task.group.heartbeat=8,4,1000
+ * task.group.background=1,2,1000
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+public class Group {
+
+  /**
+   * the default group
+   */
+  public static final String                      DEFAULT    = "default";
+
+  /**
+   * the group of latency-sensitive periodic tasks, heartbeats, locks, etc
+   */
+  public static final String                      HEARTBEAT  = "heartbeat";
+
+  /**
+   * the group of background jobs, cleanup, indexing, backup, etc
+   */
+  public static final String                      BACKGROUND = "background";
+
+  private static ConcurrentHashMap<String, Group> groups     = new ConcurrentHashMap<String, Group>();
+
+  String                                          name;
+  int                                             weight;
+  int                                             max;
+  int                                             capacity;
+
+  final Queue<Task.Dispatch>                      queue      = new ConcurrentLinkedQueue<Task.Dispatch>();
+  final AtomicInteger                             size       = new AtomicInteger(0);
+  final AtomicInteger                             running    = new AtomicInteger(0);
+  final AtomicLong                                rejected   = new AtomicLong(0);
+  final AtomicLong                                dispatched = new AtomicLong(0);
+
+  /**
+   * the virtual finish time of the last dispatched, only accessed by the drain
+   * of Task
+   */
+  double                                          finish     = 0;
+
+  /**
+   * create or update the group.
+   *
+   * @param name
+   *          the name
+   * @param weight
+   *          the weight, &gt;=1
+   * @param max
+   *          the max concurrent running tasks, &lt;=0 is unlimited
+   * @param capacity
+   *          the max queued tasks, &lt;=0 is Task.MAX_TASK_SIZE
+   * @return the group
+   */
+  public static Group create(String name, int weight, int max, int capacity) {
+    Group g = groups.get(name);
+    if (g == null) {
+      g = new Group();
+      g.name = name;
+      Group g1 = groups.putIfAbsent(name, g);
+      if (g1 != null) {
+        g = g1;
+      }
+    }
+    g.weight = Math.max(1, weight);
+    g.max = max <= 0 ? Integer.MAX_VALUE : max;
+    g.capacity = capacity <= 0 ? Task.MAX_TASK_SIZE : capacity;
+    return g;
+  }
+
+  /**
+   * get the group by name, the unknown group is created with the default
+   * setting.
+   *
+   * @param name
+   *          the name
+   * @return the group
+   */
+  public static Group get(String name) {
+    if (name == null) {
+      name = DEFAULT;
+    }
+    Group g = groups.get(name);
+    if (g == null) {
+      g = create(name, 1, 0, 0);
+    }
+    return g;
+  }
+
+  /**
+   * get all the groups, sorted by name.
+   *
+   * @return the list
+   */
+  public static List<Group> getAll() {
+    List<Group> l1 = new ArrayList<Group>(groups.values());
+    Collections.sort(l1, new Comparator<Group>() {
+
+      @Override
+      public int compare(Group o1, Group o2) {
+        return o1.name.compareTo(o2.name);
+      }
+
+    });
+    return l1;
+  }
+
+  static Iterable<Group> all() {
+    return groups.values();
+  }
+
+  /**
+   * queue the dispatch.
+   *
+   * @return false if the queue is full
+   */
+  boolean offer(Task.Dispatch r) {
+    if (size.incrementAndGet() > capacity) {
+      size.decrementAndGet();
+      rejected.incrementAndGet();
+      return false;
+    }
+    queue.add(r);
+    return true;
+  }
+
+  Task.Dispatch peek() {
+    return running.get() < max ? queue.peek() : null;
+  }
+
+  Task.Dispatch poll() {
+    Task.Dispatch r = queue.poll();
+    if (r != null) {
+      size.decrementAndGet();
+      running.incrementAndGet();
+      dispatched.incrementAndGet();
+    }
+    return r;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  public int getMax() {
+    return max;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getQueued() {
+    return size.get();
+  }
+
+  public int getRunning() {
+    return running.get();
+  }
+
+  public long getRejected() {
+    return rejected.get();
+  }
+
+  public long getDispatched() {
+    return dispatched.get();
+  }
+
+}
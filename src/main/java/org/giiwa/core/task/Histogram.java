@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.task;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The {@code Histogram} Class is a lock-free log-linear histogram (HDR style),
+ * each power of 2 is split into 8 linear buckets, so the recorded value is
+ * kept with 12.5% precision in fixed 4KB memory, the record is a few atomic
+ * increments.
+ *
+ * @author joe
+ *
+ */
+public class Histogram {
+
+  private static final int     SUB     = 8;
+  private static final int     LINEAR  = 16;
+  private static final int     BUCKETS = LINEAR + 60 * SUB;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong     count   = new AtomicLong(0);
+  private final AtomicLong     sum     = new AtomicLong(0);
+  private final AtomicLong     max     = new AtomicLong(0);
+
+  /**
+   * record the value.
+   *
+   * @param v
+   *          the value, the negative is recorded as 0
+   */
+  public void record(long v) {
+    if (v < 0) {
+      v = 0;
+    }
+    counts.incrementAndGet(index(v));
+    count.incrementAndGet();
+    sum.addAndGet(v);
+
+    long m = max.get();
+    while (v > m && !max.compareAndSet(m, v)) {
+      m = max.get();
+    }
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : sum.get() / n;
+  }
+
+  /**
+   * get the value at the percentile.
+   *
+   * @param p
+   *          the percentile, 0-100
+   * @return the upper bound of the bucket which the percentile falls in
+   */
+  public long percentile(double p) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+
+    long target = Math.max(1, (long) Math.ceil(p / 100 * n));
+    long c = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      c += counts.get(i);
+      if (c >= target) {
+        return Math.min(value(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int index(long v) {
+    if (v < LINEAR) {
+      return (int) v;
+    }
+    int e = 63 - Long.numberOfLeadingZeros(v);
+    int i = LINEAR + (e - 4) * SUB + (int) ((v >>> (e - 3)) & (SUB - 1));
+    return Math.min(i, BUCKETS - 1);
+  }
+
+  static long value(int i) {
+    if (i < LINEAR) {
+      return i;
+    }
+    int e = (i - LINEAR) / SUB + 4;
+    int s = (i - LINEAR) % SUB;
+    return ((SUB + s + 1L) << (e - 3)) - 1;
+  }
+
+}
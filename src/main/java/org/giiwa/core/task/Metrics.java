@@ -0,0 +1,293 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.giiwa.core.bean.X;
+import org.giiwa.core.json.JSON;
+
+/**
+ * The {@code Metrics} Class is the execution metrics of the tasks, keyed by the
+ * task name without the sequence number ("thumbnail.index.12" =
+ * "thumbnail.index"), includes the histograms of the queue-wait and the
+ * execution time in microseconds, the throughput, the failures and the
+ * overruns (the execution is longer than the scheduled period).
+ *
+ * @author joe
+ *
+ */
+public class Metrics {
+
+  private static ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<String, Stat>();
+
+  /**
+   * record a execution of the task.
+   *
+   * @param name
+   *          the name of the task
+   * @param wait
+   *          the queue-wait in milliseconds
+   * @param exec
+   *          the execution time in microseconds
+   * @param period
+   *          the scheduled period in milliseconds, -1 if not periodic
+   * @param ok
+   *          false if failed
+   */
+  static void record(String name, long wait, long exec, long period, boolean ok) {
+    String key = key(name);
+    Stat s = stats.get(key);
+    if (s == null) {
+      s = new Stat(key);
+      Stat s1 = stats.putIfAbsent(key, s);
+      if (s1 != null) {
+        s = s1;
+      }
+    }
+
+    s.wait.record(wait * 1000);
+    s.exec.record(exec);
+    if (!ok) {
+      s.failures.incrementAndGet();
+    }
+    if (period > 0 && exec > period * 1000) {
+      s.overruns.incrementAndGet();
+    }
+    s.tick(System.currentTimeMillis());
+  }
+
+  /**
+   * get the metrics of the task.
+   *
+   * @param name
+   *          the name of the task
+   * @return the Stat, or null if never executed
+   */
+  public static Stat get(String name) {
+    return stats.get(key(name));
+  }
+
+  /**
+   * get all the metrics, sorted by the total execution time, the task which
+   * takes most of the pool is the first.
+   *
+   * @return the list
+   */
+  public static List<Stat> getAll() {
+    List<Stat> l1 = new ArrayList<Stat>(stats.values());
+    Collections.sort(l1, new Comparator<Stat>() {
+
+      @Override
+      public int compare(Stat o1, Stat o2) {
+        long t1 = o1.exec.getSum();
+        long t2 = o2.exec.getSum();
+        return t1 > t2 ? -1 : (t1 == t2 ? 0 : 1);
+      }
+
+    });
+    return l1;
+  }
+
+  /**
+   * reset all the metrics.
+   */
+  public static void reset() {
+    stats.clear();
+  }
+
+  /**
+   * export the metrics in the Prometheus text format.
+   *
+   * @return the text
+   */
+  public static String prometheus() {
+    StringBuilder sb = new StringBuilder();
+
+    sb.append("# TYPE giiwa_task_pending gauge\n");
+    sb.append("giiwa_task_pending ").append(Task.tasksInQueue()).append("\n");
+    sb.append("# TYPE giiwa_task_running gauge\n");
+    sb.append("giiwa_task_running ").append(Task.tasksInRunning()).append("\n");
+
+    List<Stat> l1 = getAll();
+    _summary(sb, "giiwa_task_wait_seconds", l1, true);
+    _summary(sb, "giiwa_task_exec_seconds", l1, false);
+
+    sb.append("# TYPE giiwa_task_failures_total counter\n");
+    for (Stat s : l1) {
+      sb.append("giiwa_task_failures_total{task=\"").append(s.name).append("\"} ").append(s.getFailures())
+          .append("\n");
+    }
+    sb.append("# TYPE giiwa_task_overruns_total counter\n");
+    for (Stat s : l1) {
+      sb.append("giiwa_task_overruns_total{task=\"").append(s.name).append("\"} ").append(s.getOverruns())
+          .append("\n");
+    }
+
+    List<Group> l2 = Group.getAll();
+    sb.append("# TYPE giiwa_task_group_queued gauge\n");
+    for (Group g : l2) {
+      sb.append("giiwa_task_group_queued{group=\"").append(g.getName()).append("\"} ").append(g.getQueued())
+          .append("\n");
+    }
+    sb.append("# TYPE giiwa_task_group_running gauge\n");
+    for (Group g : l2) {
+      sb.append("giiwa_task_group_running{group=\"").append(g.getName()).append("\"} ").append(g.getRunning())
+          .append("\n");
+    }
+    sb.append("# TYPE giiwa_task_group_rejected_total counter\n");
+    for (Group g : l2) {
+      sb.append("giiwa_task_group_rejected_total{group=\"").append(g.getName()).append("\"} ")
+          .append(g.getRejected()).append("\n");
+    }
+
+    return sb.toString();
+  }
+
+  private static void _summary(StringBuilder sb, String metric, List<Stat> l1, boolean wait) {
+    sb.append("# TYPE ").append(metric).append(" summary\n");
+    for (Stat s : l1) {
+      Histogram h = wait ? s.wait : s.exec;
+      for (double q : new double[] { 50, 90, 99 }) {
+        sb.append(metric).append("{task=\"").append(s.name).append("\",quantile=\"").append(q / 100).append("\"} ")
+            .append(h.percentile(q) / 1000000d).append("\n");
+      }
+      sb.append(metric).append("_sum{task=\"").append(s.name).append("\"} ").append(h.getSum() / 1000000d)
+          .append("\n");
+      sb.append(metric).append("_count{task=\"").append(s.name).append("\"} ").append(h.getCount()).append("\n");
+    }
+  }
+
+  /**
+   * the name without the sequence suffix.
+   */
+  static String key(String name) {
+    if (name == null) {
+      return X.EMPTY;
+    }
+    int i = name.length();
+    while (i > 0 && Character.isDigit(name.charAt(i - 1))) {
+      i--;
+    }
+    if (i < name.length() && i > 1 && name.charAt(i - 1) == '.') {
+      return name.substring(0, i - 1);
+    }
+    return name;
+  }
+
+  /**
+   * the metrics of a task
+   *
+   * @author joe
+   *
+   */
+  public static class Stat {
+
+    final String     name;
+    final Histogram  wait     = new Histogram();
+    final Histogram  exec     = new Histogram();
+    final AtomicLong failures = new AtomicLong(0);
+    final AtomicLong overruns = new AtomicLong(0);
+    final long       since    = System.currentTimeMillis();
+
+    /**
+     * the executions in current minute and last minute
+     */
+    private long     minute;
+    private long     current;
+    private long     last;
+
+    Stat(String name) {
+      this.name = name;
+    }
+
+    synchronized void tick(long now) {
+      long m = now / X.AMINUTE;
+      if (m != minute) {
+        last = m == minute + 1 ? current : 0;
+        current = 0;
+        minute = m;
+      }
+      current++;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Histogram getWait() {
+      return wait;
+    }
+
+    public Histogram getExec() {
+      return exec;
+    }
+
+    public long getCount() {
+      return exec.getCount();
+    }
+
+    public long getFailures() {
+      return failures.get();
+    }
+
+    public long getOverruns() {
+      return overruns.get();
+    }
+
+    /**
+     * the executions in the last minute.
+     *
+     * @return the number
+     */
+    public synchronized long getThroughput() {
+      long m = System.currentTimeMillis() / X.AMINUTE;
+      if (m == minute) {
+        return last;
+      }
+      return m == minute + 1 ? current : 0;
+    }
+
+    public JSON toJSON() {
+      JSON j = JSON.create();
+      j.put("name", name);
+      j.put("count", getCount());
+      j.put("throughput", getThroughput());
+      j.put("failures", getFailures());
+      j.put("overruns", getOverruns());
+      j.put("since", since);
+      j.put("wait", _json(wait));
+      j.put("exec", _json(exec));
+      return j;
+    }
+
+    private static JSON _json(Histogram h) {
+      JSON j = JSON.create();
+      j.put("mean", h.getMean());
+      j.put("p50", h.percentile(50));
+      j.put("p90", h.percentile(90));
+      j.put("p99", h.percentile(99));
+      j.put("max", h.getMax());
+      j.put("sum", h.getSum());
+      return j;
+    }
+  }
+
+}
@@ -18,9 +18,6 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.*;
 import org.giiwa.core.bean.*;
@@ -40,7 +37,24 @@ import org.giiwa.core.bean.*;
  * <br>
  * all the task that scheduled by workertask, will be queued and executed by a
  * thread pool, the thread number was configured in giiwa.properties
- * "thread.number";
+ * "thread.number"; <br>
+ * the immediate task is executed by a work-stealing pool in async mode, the
+ * delayed task is kept in a timing wheel, and handed to the pool when expired,
+ * the pending and running tasks are kept in concurrent maps keyed by name, so
+ * schedule does not take any global lock. <br>
+ * the blocking task can run on virtual threads or a elastic pool, configured in
+ * giiwa.properties "task.io=off|virtual|elastic|auto", "task.io.max=256", the
+ * task which is CPU-bound should override blocking() to return false. <br>
+ * the task belongs to a group (see getGroup), the groups are served by weighted
+ * fair queueing, and each group has max concurrency and bounded queue, the
+ * task is rejected if the group queue is full or there are MAX_TASK_SIZE
+ * pending tasks. <br>
+ * the task can be scheduled by cron expression (see Cron), it's scheduled again
+ * after finished, with random jitter to avoid all the nodes of the cluster run
+ * it at the same moment. <br>
+ * in cluster, the task can be singleton, runs on the leader only, or sharded,
+ * runs on each node and processes its part of the work by isMine(key), see
+ * getMode(), the membership is set by setCluster().
  * 
  * @author joe
  *
@@ -59,25 +73,64 @@ public abstract class Task implements Runnable {
   public static int                          MAX_TASK_SIZE = 10000;
 
   /** The executor. */
-  private static ScheduledThreadPoolExecutor executor;
+  private static ForkJoinPool                executor;
 
-  private static Lock                        lock          = new ReentrantLock();
-  // private static Condition door = lock.newCondition();
+  /** The timer of the delayed tasks. */
+  private static Wheel                       wheel;
+
+  private static volatile Cluster            cluster;
+
+  /**
+   * The executor of the blocking tasks, virtual threads or elastic pool, null
+   * if all tasks run on the executor
+   */
+  private static ExecutorService             io;
+
+  /**
+   * the max running tasks of the executor and the io executor
+   */
+  private static int[]                       limits        = new int[] { Integer.MAX_VALUE, Integer.MAX_VALUE };
+
+  /**
+   * the running tasks of the executor and the io executor
+   */
+  private static AtomicInteger[]             inflight      = new AtomicInteger[] { new AtomicInteger(0),
+      new AtomicInteger(0) };
+
+  /**
+   * the drain of the group queues, only one thread drains at same time
+   */
+  private static AtomicInteger               wip           = new AtomicInteger(0);
+
+  /**
+   * the virtual time of the weighted fair queueing
+   */
+  private static double                      vtime         = 0;
+
+  /**
+   * the rejected tasks since MAX_TASK_SIZE reached
+   */
+  private static AtomicLong                  rejected      = new AtomicLong(0);
 
   /** The pending queue. */
-  private static HashSet<Task>               pendingQueue  = new HashSet<Task>();
+  private static Map<String, Task>           pendingQueue  = new ConcurrentHashMap<String, Task>();
 
   /** The running queue. */
-  private static HashSet<Task>               runningQueue  = new HashSet<Task>();
+  private static Map<String, Task>           runningQueue  = new ConcurrentHashMap<String, Task>();
 
   /** The stop. */
-  private boolean                            stop          = false;
+  private volatile boolean                   stop          = false;
 
   /** The sf. */
-  private ScheduledFuture<?>                 sf;
+  private volatile Wheel.Timer               sf;
+
+  /**
+   * the latest dispatch of the task, the previous dispatches are dropped
+   */
+  private volatile Runnable                  ticket;
 
   /** The who. */
-  private Thread                             who;
+  private volatile Thread                    who;
 
   /** The fast. */
   protected boolean                          fast;
@@ -91,12 +144,27 @@ public abstract class Task implements Runnable {
   private long                               cost          = -1;
   private int                                runtimes      = 0;
 
+  /**
+   * the delay of the last schedule, the execution longer than it is overrun
+   */
+  private volatile long                      period        = -1;
+
+  /**
+   * the cron and the max jitter in milliseconds, if scheduled by cron
+   */
+  private volatile Cron                      cron;
+  private long                               jitter;
+
   public enum State {
     running, pending
   };
 
+  public enum Mode {
+    local, singleton, sharded
+  };
+
   public State getState() {
-    if (runningQueue.contains(this)) {
+    if (runningQueue.get(getName()) == this) {
       return State.running;
     } else {
       return State.pending;
@@ -112,7 +180,8 @@ public abstract class Task implements Runnable {
   }
 
   public long getRemain() {
-    return sf == null ? -1 : sf.getDelay(TimeUnit.MILLISECONDS);
+    Wheel.Timer t = sf;
+    return t == null ? -1 : t.getDelay();
   }
 
   public long getCost() {
@@ -205,13 +274,15 @@ public abstract class Task implements Runnable {
     if (log.isInfoEnabled())
       log.info(getName() + " is stoped");
 
-    try {
-      lock.lock();
-      pendingQueue.remove(this);
-      runningQueue.remove(this);
-    } finally {
-      lock.unlock();
+    Wheel.Timer t = sf;
+    if (t != null) {
+      t.cancel();
     }
+    ticket = null;
+
+    String name = getName();
+    pendingQueue.remove(name, this);
+    runningQueue.remove(name, this);
 
   };
 
@@ -224,6 +295,84 @@ public abstract class Task implements Runnable {
     return Thread.NORM_PRIORITY;
   }
 
+  /**
+   * the task blocks on I/O, database, network, etc, default is true, it runs on
+   * the io executor if "task.io" is enabled, the CPU-bound task should return
+   * false to stay on the platform pool.
+   *
+   * @return true, if blocking
+   */
+  public boolean blocking() {
+    return true;
+  }
+
+  /**
+   * the group of the task, default is Group.DEFAULT, the latency-sensitive task
+   * should be in Group.HEARTBEAT, and the background job in Group.BACKGROUND.
+   *
+   * @return the name of the group
+   */
+  public String getGroup() {
+    return Group.DEFAULT;
+  }
+
+  /**
+   * the mode of the task in cluster, default is Mode.local. <br>
+   * Mode.local: runs on each node; <br>
+   * Mode.singleton: runs on the leader only, the other nodes skip onExecute;
+   * <br>
+   * Mode.sharded: runs on each node, onExecute processes only the work of
+   * isMine(key).
+   *
+   * @return the Mode
+   */
+  public Mode getMode() {
+    return Mode.local;
+  }
+
+  /**
+   * set the membership of the cluster.
+   *
+   * @param c
+   *          the Cluster, null is single node
+   */
+  public static void setCluster(Cluster c) {
+    cluster = c;
+  }
+
+  /**
+   * is the key belongs to the current node, the keys are split by hash across
+   * the live members, it's always true if not in cluster.
+   *
+   * @param key
+   *          the key of the work, e.g. the id
+   * @return true if the current node should process it
+   */
+  public static boolean isMine(Object key) {
+    Cluster c = cluster;
+    if (c == null) {
+      return true;
+    }
+
+    List<String> l1 = c.getMembers();
+    if (l1 == null || l1.size() <= 1) {
+      return true;
+    }
+
+    int i = l1.indexOf(c.node());
+    if (i < 0) {
+      // not joined yet
+      return false;
+    }
+    int h = key == null ? 0 : key.hashCode();
+    return ((h ^ (h >>> 16)) & 0x7fffffff) % l1.size() == i;
+  }
+
+  private boolean _elected() {
+    Cluster c = cluster;
+    return c == null || getMode() != Mode.singleton || c.isLeader();
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -231,12 +380,11 @@ public abstract class Task implements Runnable {
    */
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    synchronized (t) {
-      if (who != null) {
-        sb.append(who.getName()).append("(").append(getName()).append(")").append(":").append(who.getState());
-      } else
-        sb.append("null").append("(").append(getName()).append(")");
-    }
+    Thread who = this.who;
+    if (who != null) {
+      sb.append(who.getName()).append("(").append(getName()).append(")").append(":").append(who.getState());
+    } else
+      sb.append("null").append("(").append(getName()).append(")");
     return sb.toString();
   }
 
@@ -247,50 +395,32 @@ public abstract class Task implements Runnable {
    */
   final public void run() {
     int old = Thread.NORM_PRIORITY;
+    String name = getName();
     try {
 
-      try {
-        lock.lock();
-
-        pendingQueue.remove(this);
+      pendingQueue.remove(name, this);
 
-        if (runningQueue.contains(this)) {
-          // there is a copy is running
-          log.warn("run duplicated task:" + getName());
-          return;
-        }
-
-        sf = null;
-
-        runningQueue.add(this);
-        // log.debug(getName() + " is running");
-      } finally {
-        lock.unlock();
+      Task t1 = runningQueue.putIfAbsent(name, this);
+      if (t1 != null) {
+        // there is a copy is running
+        log.warn("run duplicated task:" + name);
+        return;
       }
 
+      sf = null;
+      // log.debug(getName() + " is running");
+
       try {
         if (stop) {
           onStop(fast);
           return;
         }
 
-        String name = getName();
-        synchronized (t) {
-          who = Thread.currentThread();
-          if (who != null) {
-            who.setName(name);
-
-            // if (log.isDebugEnabled()) {
-            // log.debug(this.getClass() + " is running ..., delayed: " +
-            // t.past() + "ms, tasks:" + tasksInQueue()
-            // + ", active:" + Task.activeThread() + ", idle:" +
-            // Task.idleThread());
-            // }
-
-            old = who.getPriority();
-            who.setPriority(priority());
-          }
-        }
+        who = Thread.currentThread();
+        who.setName(name);
+
+        old = who.getPriority();
+        who.setPriority(priority());
       } catch (Throwable e) {
         log.error(e.getMessage(), e);
       }
@@ -298,35 +428,43 @@ public abstract class Task implements Runnable {
       /**
        * ensure onExecute be executed
        */
+      long start = System.nanoTime();
+      boolean ok = false;
+      boolean elected = _elected();
       try {
         delay = t.past();
-        runtimes++;
-        onExecute();
+        if (elected) {
+          runtimes++;
+          onExecute();
+        } else if (log.isDebugEnabled()) {
+          log.debug("not the leader, skip the singleton task: " + name);
+        }
         cost = t.past() - delay;
+        ok = true;
       } finally {
 
-        try {
-          lock.lock();
-          runningQueue.remove(this);
+        if (elected) {
+          Metrics.record(name, delay, (System.nanoTime() - start) / 1000, period, ok);
+        }
+
+        runningQueue.remove(name, this);
+
+        onFinish();
 
-          onFinish();
-        } finally {
-          lock.unlock();
+        if (cron != null && !stop && !pendingQueue.containsKey(name)) {
+          _next();
         }
       }
 
-      synchronized (t) {
-        if (who != null) {
-          who.setPriority(old);
-        }
+      Thread th = who;
+      if (th != null) {
+        th.setPriority(old);
       }
 
     } catch (Throwable e) {
       log.error(this, e);
     } finally {
-      synchronized (t) {
-        who = null;
-      }
+      who = null;
     }
 
   }
@@ -338,21 +476,233 @@ public abstract class Task implements Runnable {
    *          the thread num
    */
   public static void init(int threadNum) {
-    executor = new ScheduledThreadPoolExecutor(threadNum, new ThreadFactory() {
+    init(threadNum, "off", 0);
+  }
+
+  /**
+   * initialize the workertask with the io executor.
+   *
+   * @param threadNum
+   *          the thread num of the platform pool
+   * @param mode
+   *          the mode of the io executor, "off", "virtual", "elastic" or "auto"
+   *          (virtual if the JVM supports, otherwise elastic)
+   * @param iomax
+   *          the max thread number of the elastic pool
+   */
+  public static void init(int threadNum, String mode, int iomax) {
+    final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+
+    ForkJoinPool old = executor;
+
+    /**
+     * async mode, the local queue is FIFO, the tasks are never joined
+     */
+    executor = new ForkJoinPool(threadNum, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
 
       AtomicInteger i = new AtomicInteger(1);
 
       @Override
-      public Thread newThread(Runnable r) {
-        Thread th = new Thread(r);
-        th.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+      public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread th = new ForkJoinWorkerThread(pool) {
+        };
+        th.setContextClassLoader(loader);
         th.setName("task-" + i.incrementAndGet());
         return th;
       }
 
+    }, null, true);
+
+    if (old != null) {
+      // the running tasks finish in the old pool
+      old.shutdown();
+    }
+
+    if (io != null) {
+      io.shutdown();
+      io = null;
+    }
+    if (X.isSame("virtual", mode) || X.isSame("auto", mode)) {
+      io = _virtual();
+      if (io == null && X.isSame("virtual", mode)) {
+        log.warn("virtual thread is not supported, using elastic pool");
+      }
+    }
+    if (io == null && !X.isSame("off", mode) && !X.isEmpty(mode)) {
+      io = _elastic(loader, Math.max(threadNum, iomax));
+    }
+
+    limits[0] = threadNum;
+    limits[1] = Math.max(threadNum, iomax);
+
+    /**
+     * the default groups, can be overrided by Group.create
+     */
+    int n = Math.max(1, threadNum / 4);
+    Group.create(Group.DEFAULT, 4, 0, MAX_TASK_SIZE);
+    Group.create(Group.HEARTBEAT, 16, n, 1000);
+    Group.create(Group.BACKGROUND, 1, n, 1000);
+
+    if (wheel != null) {
+      wheel.stop();
+    }
+    wheel = new Wheel(10, 1024, new Executor() {
+
+      @Override
+      public void execute(Runnable r) {
+        _execute((Dispatch) r);
+      }
+
     });
   }
 
+  /**
+   * create the executor of virtual threads, by reflection, it's only
+   * available in JDK 21+.
+   */
+  private static ExecutorService _virtual() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (Throwable e) {
+      return null;
+    }
+  }
+
+  /**
+   * create the elastic pool, the threads are created on demand, and exit when
+   * idle.
+   */
+  private static ExecutorService _elastic(final ClassLoader loader, int max) {
+    ThreadPoolExecutor e = new ThreadPoolExecutor(max, max, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+          AtomicInteger i = new AtomicInteger(1);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread th = new Thread(r);
+            th.setContextClassLoader(loader);
+            th.setName("task-io-" + i.incrementAndGet());
+            return th;
+          }
+
+        });
+    e.allowCoreThreadTimeOut(true);
+    return e;
+  }
+
+  /**
+   * queue the dispatch in the group, and drain the groups.
+   */
+  private static void _execute(Dispatch r) {
+    Group g = Group.get(r.task.getGroup());
+    if (!g.offer(r)) {
+      log.warn("too many tasks in group [" + g.name + "], queued=" + g.getQueued() + ", ignore the task="
+          + r.task.getName());
+      r.task.ticket = null;
+      pendingQueue.remove(r.task.getName(), r.task);
+      return;
+    }
+
+    _drain();
+  }
+
+  /**
+   * move the queued dispatches to the executors, the group which has the
+   * smallest virtual finish time goes first, it's invoked when queued and when
+   * a task finished.
+   */
+  private static void _drain() {
+    if (wip.getAndIncrement() != 0) {
+      // another thread is draining, it will drain again
+      return;
+    }
+
+    int missed = 1;
+    do {
+      while (true) {
+        Group g1 = null;
+        double f1 = Double.MAX_VALUE;
+        for (Group g : Group.all()) {
+          Dispatch r = g.peek();
+          if (r != null && inflight[_lane(r)].get() < limits[_lane(r)]) {
+            double f = Math.max(g.finish, vtime) + 1.0 / g.weight;
+            if (f < f1) {
+              f1 = f;
+              g1 = g;
+            }
+          }
+        }
+
+        if (g1 == null) {
+          break;
+        }
+
+        final Dispatch r = g1.poll();
+        if (r == null) {
+          continue;
+        }
+
+        vtime = Math.max(g1.finish, vtime);
+        g1.finish = f1;
+
+        final Group g = g1;
+        final int lane = _lane(r);
+        inflight[lane].incrementAndGet();
+
+        Runnable r1 = new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              r.run();
+            } finally {
+              g.running.decrementAndGet();
+              inflight[lane].decrementAndGet();
+              _drain();
+            }
+          }
+
+        };
+
+        try {
+          if (lane == 1) {
+            io.execute(r1);
+          } else {
+            executor.execute(r1);
+          }
+        } catch (Throwable e) {
+          log.error(e.getMessage(), e);
+          g.running.decrementAndGet();
+          inflight[lane].decrementAndGet();
+
+          // rejected, the task can be scheduled again
+          r.task.ticket = null;
+          pendingQueue.remove(r.task.getName(), r.task);
+        }
+      }
+
+      missed = wip.addAndGet(-missed);
+    } while (missed != 0);
+  }
+
+  private static int _lane(Dispatch r) {
+    return io != null && r.task.blocking() ? 1 : 0;
+  }
+
+  /**
+   * the rejected tasks since too many pending tasks.
+   *
+   * @return the number
+   */
+  public static long rejected() {
+    long n = rejected.get();
+    for (Group g : Group.all()) {
+      n += g.getRejected();
+    }
+    return n;
+  }
+
   /**
    * Stop all tasks.
    *
@@ -362,18 +712,17 @@ public abstract class Task implements Runnable {
   final public void stop(boolean fast) {
     stop = true;
     this.fast = fast;
-    synchronized (t) {
-      if (who != null) {
-        if (interruptable()) {
-          // interrupt the thread which may wait a resource or timer;
-          who.interrupt();
+    Thread who = this.who;
+    if (who != null) {
+      if (interruptable()) {
+        // interrupt the thread which may wait a resource or timer;
+        who.interrupt();
 
-          // schedule the run a time to clear the resource
-          onStop(fast);
-        }
-      } else {
+        // schedule the run a time to clear the resource
         onStop(fast);
       }
+    } else {
+      onStop(fast);
     }
   }
 
@@ -384,6 +733,7 @@ public abstract class Task implements Runnable {
    * <pre>
    * 1, hh:mm
    * 2, *:00 each hour
+   * 3, cron expression, e.g. "0 2 * * *", "@hourly", see Cron
    * </pre>
    * 
    * .
@@ -394,7 +744,9 @@ public abstract class Task implements Runnable {
    */
   final public Task schedule(String time) {
     try {
-      if (time.startsWith("*")) {
+      if (time.startsWith("@") || time.trim().indexOf(" ") > 0) {
+        return this.schedule(time, 0);
+      } else if (time.startsWith("*")) {
         String[] ss = time.split(":");
         Calendar c = Calendar.getInstance();
         c.setTimeInMillis(System.currentTimeMillis());
@@ -425,6 +777,47 @@ public abstract class Task implements Runnable {
     return this;
   }
 
+  /**
+   * schedule the task by cron expression, it will be scheduled again after
+   * finished, until stopped or scheduled by other way.
+   *
+   * @param cron
+   *          the cron expression, see Cron
+   * @param jitter
+   *          the max random delay in milliseconds, spread the task of the nodes
+   * @return the Task
+   */
+  final public Task schedule(String cron, long jitter) {
+    try {
+      this.cron = Cron.parse(cron);
+      this.jitter = jitter;
+      _next();
+    } catch (Throwable e) {
+      log.error(this, e);
+    }
+    return this;
+  }
+
+  private void _next() {
+    Cron c = cron;
+    if (c == null) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    long next = c.next(now);
+    if (next < 0) {
+      log.warn("no more time for the cron [" + c + "], task=" + getName());
+      return;
+    }
+
+    long d = next - now;
+    if (jitter > 0) {
+      d += ThreadLocalRandom.current().nextLong(jitter);
+    }
+    _schedule(d);
+  }
+
   /**
    * Schedule the worker task.
    *
@@ -433,6 +826,11 @@ public abstract class Task implements Runnable {
    * @return the worker task
    */
   final public Task schedule(long msec) {
+    cron = null;
+    return _schedule(msec);
+  }
+
+  private Task _schedule(long msec) {
     try {
       if (stop) {
         onStop(fast);
@@ -440,42 +838,47 @@ public abstract class Task implements Runnable {
         if (executor == null)
           return this;
 
-        try {
-          lock.lock();
-          // scheduled
-          if (runningQueue.contains(this)) {
-            if (log.isDebugEnabled())
-              log.warn("the task is running, ignored: " + getName());
+        String name = getName();
 
-            return this;
-          }
+        // scheduled
+        if (runningQueue.containsKey(name)) {
+          if (log.isDebugEnabled())
+            log.warn("the task is running, ignored: " + name);
 
-          if (pendingQueue.contains(this)) {
-            // schedule this task, possible this task is in running
-            // queue, if so, while drop one when start this one in
-            // thread
-            if (sf != null) {
-              sf.cancel(false);
-            }
-            // Exception e = new Exception("e");
-            log.warn("reschedule the task:" + getName());
-          }
+          return this;
+        }
 
-          // if (pendingQueue.size() > MAX_TASK_SIZE) {
-          // log.error("too many tasks, pending=" + pendingQueue.size() + ",
-          // ignore the task=" + this.getName());
-          // }
-          if (msec <= 0) {
-            t.set(System.currentTimeMillis());
-            executor.execute(this);
-          } else {
-            t.set(System.currentTimeMillis() + msec);
-            sf = executor.schedule(this, msec, TimeUnit.MILLISECONDS);
+        if (pendingQueue.size() >= MAX_TASK_SIZE && !pendingQueue.containsKey(name)) {
+          rejected.incrementAndGet();
+          log.error("too many tasks, pending=" + pendingQueue.size() + ", ignore the task=" + name);
+          return this;
+        }
+
+        Dispatch r = new Dispatch(this);
+        ticket = r;
+
+        Task old = pendingQueue.put(name, this);
+        if (old != null) {
+          // drop the previous schedule, the dispatched one will be ignored
+          // when it's not the latest
+          if (old != this) {
+            old.ticket = null;
           }
-          pendingQueue.add(this);
+          Wheel.Timer t1 = old.sf;
+          if (t1 != null) {
+            t1.cancel();
+          }
+          log.warn("reschedule the task:" + name);
+        }
 
-        } finally {
-          lock.unlock();
+        period = msec > 0 ? msec : -1;
+        if (msec <= 0) {
+          t.set(System.currentTimeMillis());
+          sf = null;
+          _execute(r);
+        } else {
+          t.set(System.currentTimeMillis() + msec);
+          sf = wheel.schedule(r, msec);
         }
       }
     } catch (Throwable e) {
@@ -498,33 +901,24 @@ public abstract class Task implements Runnable {
      */
     try {
 
-      try {
-        lock.lock();
-        for (Task t : pendingQueue.toArray(new Task[pendingQueue.size()])) {
-          t.stop(fast);
-        }
+      for (Task t : pendingQueue.values()) {
+        t.stop(fast);
+      }
 
-        for (Task t : runningQueue.toArray(new Task[runningQueue.size()])) {
-          t.stop(fast);
-        }
-      } finally {
-        lock.unlock();
+      for (Task t : runningQueue.values()) {
+        t.stop(fast);
       }
 
-      Condition waiter = lock.newCondition();
-      while (runningQueue.size() > 0) {
-        try {
-          lock.lock();
-          log.info("stoping, size=" + runningQueue.size() + ", running task=" + runningQueue);
+      while (!runningQueue.isEmpty()) {
+        log.info("stoping, size=" + runningQueue.size() + ", running task=" + runningQueue.values());
 
-          for (Task t : runningQueue.toArray(new Task[runningQueue.size()])) {
-            t.stop(fast);
-          }
+        for (Task t : runningQueue.values()) {
+          t.stop(fast);
+        }
 
-          waiter.wait(1000);
+        try {
+          Thread.sleep(1000);
         } catch (InterruptedException e) {
-        } finally {
-          lock.unlock();
         }
       }
 
@@ -540,7 +934,7 @@ public abstract class Task implements Runnable {
    * @return the int
    */
   public static int activeThread() {
-    return executor.getActiveCount();
+    return executor.getActiveThreadCount();
   }
 
   /**
@@ -549,7 +943,7 @@ public abstract class Task implements Runnable {
    * @return the int
    */
   public static int idleThread() {
-    return executor.getPoolSize() - executor.getActiveCount();
+    return executor.getPoolSize() - executor.getActiveThreadCount();
   }
 
   /**
@@ -627,13 +1021,8 @@ public abstract class Task implements Runnable {
   public static List<Task> getAll() {
     HashSet<Task> l1 = new HashSet<Task>();
 
-    try {
-      lock.lock();
-      l1.addAll(pendingQueue);
-      l1.addAll(runningQueue);
-    } finally {
-      lock.unlock();
-    }
+    l1.addAll(pendingQueue.values());
+    l1.addAll(runningQueue.values());
 
     List<Task> l2 = new ArrayList<Task>(l1);
     Collections.sort(l2, new Comparator<Task>() {
@@ -654,25 +1043,15 @@ public abstract class Task implements Runnable {
    * @return Task
    */
   public static Task get(String name) {
-    Task[] tt = runningQueue.toArray(new Task[runningQueue.size()]);
-    if (tt != null) {
-      for (Task t : tt) {
-        if (X.isSame(name, t.getName())) {
-          return t;
-        }
-      }
+    if (name == null) {
+      return null;
     }
 
-    tt = pendingQueue.toArray(new Task[runningQueue.size()]);
-    if (tt != null) {
-      for (Task t : tt) {
-        if (X.isSame(name, t.getName())) {
-          return t;
-        }
-      }
+    Task t = runningQueue.get(name);
+    if (t == null) {
+      t = pendingQueue.get(name);
     }
-
-    return null;
+    return t;
   }
 
   /**
@@ -684,4 +1063,27 @@ public abstract class Task implements Runnable {
     return who;
   }
 
+  /**
+   * the dispatch of the task, only the latest dispatch of the task will run
+   *
+   * @author joe
+   *
+   */
+  static class Dispatch implements Runnable {
+
+    final Task task;
+
+    Dispatch(Task task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      if (task.ticket == this) {
+        task.run();
+      }
+    }
+
+  }
+
 }
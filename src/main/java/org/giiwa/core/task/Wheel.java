@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.task;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The {@code Wheel} Class is the hierarchical timing wheel of the delayed
+ * tasks, the schedule and cancel are O(1) and lock-free, the expired task is
+ * handed to the executor, the wheel thread never runs the task itself. <br>
+ * there are 4 levels, each level has the same slots, a slot of the upper level
+ * covers a whole round of the lower level, the timer is placed in the level
+ * which covers the delay, and cascaded to the lower level when the upper slot
+ * comes, so a timer is moved at most 3 times whatever the delay is.
+ *
+ * @author joe
+ *
+ */
+class Wheel implements Runnable {
+
+  static Log                 log      = LogFactory.getLog(Wheel.class);
+
+  private static final int   LEVELS   = 4;
+
+  private final long         tick;
+  private final int          bits;
+  private final int          mask;
+  private final List<Timer>[][] wheels;
+  private final Executor     executor;
+
+  /**
+   * the new timers, moved into the slots by the wheel thread in each tick
+   */
+  private final Queue<Timer> incoming = new ConcurrentLinkedQueue<Timer>();
+
+  private final long         start    = System.currentTimeMillis();
+  private long               ticks    = 0;
+
+  private volatile boolean   stopped  = false;
+
+  /**
+   * Instantiates a new wheel, and start the wheel thread.
+   *
+   * @param tick
+   *          the milliseconds of a tick
+   * @param size
+   *          the number of the slots of each level, will be round up to power
+   *          of 2
+   * @param executor
+   *          the executor which runs the expired task
+   */
+  @SuppressWarnings("unchecked")
+  Wheel(long tick, int size, Executor executor) {
+    int n = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+    this.tick = tick;
+    this.bits = Integer.numberOfTrailingZeros(n);
+    this.mask = n - 1;
+    this.wheels = new List[LEVELS][n];
+    for (int l = 0; l < LEVELS; l++) {
+      for (int i = 0; i < n; i++) {
+        wheels[l][i] = new ArrayList<Timer>();
+      }
+    }
+    this.executor = executor;
+
+    Thread th = new Thread(this);
+    th.setName("task-wheel");
+    th.setDaemon(true);
+    th.start();
+  }
+
+  /**
+   * schedule the runnable after the delay.
+   *
+   * @param r
+   *          the runnable
+   * @param delay
+   *          the delay in milliseconds
+   * @return the Timer
+   */
+  Timer schedule(Runnable r, long delay) {
+    Timer t = new Timer(r, System.currentTimeMillis() + delay);
+    incoming.add(t);
+    return t;
+  }
+
+  void stop() {
+    stopped = true;
+  }
+
+  @Override
+  public void run() {
+    while (!stopped) {
+      long next = start + (ticks + 1) * tick;
+      long now = System.currentTimeMillis();
+      if (next > now) {
+        try {
+          Thread.sleep(next - now);
+        } catch (InterruptedException e) {
+          // ignore
+        }
+        continue;
+      }
+
+      try {
+        _cascade();
+        _transfer();
+        _expire(wheels[0][(int) (ticks & mask)]);
+      } catch (Throwable e) {
+        log.error(e.getMessage(), e);
+      }
+      ticks++;
+    }
+  }
+
+  private void _transfer() {
+    // bound the work in a tick
+    for (int i = 0; i < 100000; i++) {
+      Timer t = incoming.poll();
+      if (t == null) {
+        return;
+      }
+      if (t.state.get() == Timer.WAITING) {
+        _place(t);
+      }
+    }
+  }
+
+  /**
+   * place the timer in the level which covers the delay.
+   */
+  private void _place(Timer t) {
+    long n = (t.deadline - start) / tick;
+    if (n < ticks) {
+      // expired already, run in current tick
+      n = ticks;
+    }
+
+    long d = n - ticks;
+    for (int l = 0; l < LEVELS; l++) {
+      if (d < (1L << (bits * (l + 1)))) {
+        wheels[l][(int) ((n >>> (bits * l)) & mask)].add(t);
+        return;
+      }
+    }
+
+    // too far, keep it in the last slot of the top level, it will be placed
+    // again when cascaded
+    int l = LEVELS - 1;
+    n = ticks + (1L << (bits * LEVELS)) - 1;
+    wheels[l][(int) ((n >>> (bits * l)) & mask)].add(t);
+  }
+
+  /**
+   * move the timers of the upper slot to the lower levels, when the lower
+   * level starts a new round.
+   */
+  private void _cascade() {
+    for (int l = 1; l < LEVELS; l++) {
+      if ((ticks & ((1L << (bits * l)) - 1)) != 0) {
+        return;
+      }
+
+      List<Timer> slot = wheels[l][(int) ((ticks >>> (bits * l)) & mask)];
+      if (!slot.isEmpty()) {
+        List<Timer> l1 = new ArrayList<Timer>(slot);
+        slot.clear();
+        for (Timer t : l1) {
+          if (t.state.get() == Timer.WAITING) {
+            _place(t);
+          }
+        }
+      }
+    }
+  }
+
+  private void _expire(List<Timer> slot) {
+    Iterator<Timer> it = slot.iterator();
+    while (it.hasNext()) {
+      Timer t = it.next();
+      it.remove();
+      if (t.state.compareAndSet(Timer.WAITING, Timer.EXPIRED)) {
+        try {
+          executor.execute(t.r);
+        } catch (Throwable e) {
+          log.error(e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * the handle of the scheduled runnable
+   *
+   * @author joe
+   *
+   */
+  static class Timer {
+
+    static final int    WAITING   = 0;
+    static final int    CANCELLED = 1;
+    static final int    EXPIRED   = 2;
+
+    final Runnable      r;
+    final long          deadline;
+    final AtomicInteger state     = new AtomicInteger(WAITING);
+
+    Timer(Runnable r, long deadline) {
+      this.r = r;
+      this.deadline = deadline;
+    }
+
+    /**
+     * cancel the timer.
+     *
+     * @return true, if cancelled before expired
+     */
+    boolean cancel() {
+      return state.compareAndSet(WAITING, CANCELLED);
+    }
+
+    /**
+     * get the remaining delay in milliseconds.
+     *
+     * @return the delay
+     */
+    long getDelay() {
+      return deadline - System.currentTimeMillis();
+    }
+  }
+
+}
@@ -0,0 +1,839 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.vengine;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.bean.X;
+
+/**
+ * The {@code Expression} Class is the compiled expression of the velocity
+ * syntax, it's parsed once to the tree and evaluated by the data model without
+ * velocity, supports:
+ *
+ * <pre>
+ * variable: {age}, {me.name}, $age, $!age, ${age}, $me.hasAccess('access.config.admin')
+ * literal: 10, 1.5, 'abc', "abc", true, false
+ * operator: ( ), !, not, *, /, %, +, -, &lt;, &lt;=, &gt;, &gt;=, ==, !=, &amp;&amp;, ||,
+ *           lt, le, gt, ge, eq, ne, and, or
+ * </pre>
+ *
+ * the result is same as velocity, the number is compared by value, the
+ * different type is compared by the string, the compile fails on the other
+ * syntax, e.g. the string with "$", and the caller should evaluate it by
+ * velocity.
+ *
+ * @author joe
+ *
+ */
+public final class Expression {
+
+  static Log                         log     = LogFactory.getLog(Expression.class);
+
+  /**
+   * the getter or method of the class, keyed by class, name and arguments
+   */
+  private static Map<String, Object> methods = new ConcurrentHashMap<String, Object>();
+
+  private static final Object        NONE    = new Object();
+
+  private final String               expr;
+  private final Node                 root;
+
+  private Expression(String expr, Node root) {
+    this.expr = expr;
+    this.root = root;
+  }
+
+  /**
+   * compile the expression.
+   *
+   * @param s
+   *          the expression, e.g. {age}&gt;10
+   * @return the Expression
+   * @throws Exception
+   *           if the syntax is not supported
+   */
+  public static Expression compile(String s) throws Exception {
+    Parser p = new Parser(s);
+    Node n = p.or();
+    p.skip();
+    if (p.pos < s.length()) {
+      throw p.error();
+    }
+    return new Expression(s, n);
+  }
+
+  /**
+   * evaluate the expression by the data model.
+   *
+   * @param m
+   *          the data model
+   * @return the value, or null
+   */
+  public Object eval(Map<String, Object> m) {
+    return root.value(m);
+  }
+
+  /**
+   * test the expression is true or not, the non-boolean value is true if not
+   * empty.
+   *
+   * @param m
+   *          the data model
+   * @return boolean
+   */
+  public boolean test(Map<String, Object> m) {
+    Object o = root.value(m);
+    if (o instanceof Boolean) {
+      return (Boolean) o;
+    }
+    return !X.isEmpty(o);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return expr;
+  }
+
+  /**
+   * the recursive descent parser.
+   */
+  private static class Parser {
+
+    String s;
+    int    pos;
+
+    Parser(String s) {
+      this.s = s;
+    }
+
+    Exception error() {
+      return new Exception("unsupported expression at " + pos + ", " + s);
+    }
+
+    void skip() {
+      while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    boolean eat(String op) {
+      skip();
+      if (s.startsWith(op, pos)) {
+        pos += op.length();
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * eat the operator which is not the prefix of the other, e.g. "!" of "!="
+     */
+    boolean eat(String op, char not) {
+      skip();
+      if (s.startsWith(op, pos) && (pos + op.length() >= s.length() || s.charAt(pos + op.length()) != not)) {
+        pos += op.length();
+        return true;
+      }
+      return false;
+    }
+
+    boolean word(String w) {
+      skip();
+      int e = pos + w.length();
+      if (s.startsWith(w, pos) && (e >= s.length() || !Character.isJavaIdentifierPart(s.charAt(e)))) {
+        pos = e;
+        return true;
+      }
+      return false;
+    }
+
+    String ident() throws Exception {
+      int i = pos;
+      if (pos < s.length() && Character.isJavaIdentifierStart(s.charAt(pos)) && s.charAt(pos) != '$') {
+        pos++;
+        while (pos < s.length() && (Character.isJavaIdentifierPart(s.charAt(pos)) || s.charAt(pos) == '-')
+            && s.charAt(pos) != '$') {
+          pos++;
+        }
+        return s.substring(i, pos);
+      }
+      throw error();
+    }
+
+    Node or() throws Exception {
+      Node n = and();
+      while (eat("||") || word("or")) {
+        n = new Or(n, and());
+      }
+      return n;
+    }
+
+    Node and() throws Exception {
+      Node n = eq();
+      while (eat("&&") || word("and")) {
+        n = new And(n, eq());
+      }
+      return n;
+    }
+
+    Node eq() throws Exception {
+      Node n = rel();
+      while (true) {
+        if (eat("==") || word("eq")) {
+          n = new Eq(n, rel(), false);
+        } else if (eat("!=") || word("ne")) {
+          n = new Eq(n, rel(), true);
+        } else {
+          return n;
+        }
+      }
+    }
+
+    Node rel() throws Exception {
+      Node n = add();
+      while (true) {
+        if (eat("<=") || word("le")) {
+          n = new Rel(n, add(), Rel.LE);
+        } else if (eat(">=") || word("ge")) {
+          n = new Rel(n, add(), Rel.GE);
+        } else if (eat("<") || word("lt")) {
+          n = new Rel(n, add(), Rel.LT);
+        } else if (eat(">") || word("gt")) {
+          n = new Rel(n, add(), Rel.GT);
+        } else {
+          return n;
+        }
+      }
+    }
+
+    Node add() throws Exception {
+      Node n = mul();
+      while (true) {
+        if (eat("+")) {
+          n = new Arith(n, mul(), '+');
+        } else if (eat("-")) {
+          n = new Arith(n, mul(), '-');
+        } else {
+          return n;
+        }
+      }
+    }
+
+    Node mul() throws Exception {
+      Node n = unary();
+      while (true) {
+        if (eat("*")) {
+          n = new Arith(n, unary(), '*');
+        } else if (eat("/")) {
+          n = new Arith(n, unary(), '/');
+        } else if (eat("%")) {
+          n = new Arith(n, unary(), '%');
+        } else {
+          return n;
+        }
+      }
+    }
+
+    Node unary() throws Exception {
+      if (eat("!", '=') || word("not")) {
+        return new Not(unary());
+      } else if (eat("-")) {
+        return new Arith(new Const(0), unary(), '-');
+      }
+      return primary();
+    }
+
+    Node primary() throws Exception {
+      skip();
+      if (pos >= s.length()) {
+        throw error();
+      }
+
+      char c = s.charAt(pos);
+      if (c == '(') {
+        pos++;
+        Node n = or();
+        if (!eat(")")) {
+          throw error();
+        }
+        return n;
+      } else if (c == '{') {
+        // the short of ${...}
+        pos++;
+        Node n = ref();
+        if (!eat("}")) {
+          throw error();
+        }
+        return n;
+      } else if (c == '$') {
+        pos++;
+        if (pos < s.length() && s.charAt(pos) == '!') {
+          pos++;
+        }
+        if (pos < s.length() && s.charAt(pos) == '{') {
+          pos++;
+          Node n = ref();
+          if (!eat("}")) {
+            throw error();
+          }
+          return n;
+        }
+        return ref();
+      } else if (Character.isDigit(c)) {
+        return number();
+      } else if (c == '\'' || c == '"') {
+        int i = s.indexOf(c, pos + 1);
+        if (i < 0) {
+          throw error();
+        }
+        String v = s.substring(pos + 1, i);
+        if (c == '"' && (v.indexOf('$') > -1 || v.indexOf('#') > -1)) {
+          // the interpolated string
+          throw error();
+        }
+        pos = i + 1;
+        return new Const(v);
+      } else if (word("true")) {
+        return new Const(Boolean.TRUE);
+      } else if (word("false")) {
+        return new Const(Boolean.FALSE);
+      }
+      throw error();
+    }
+
+    /**
+     * the reference, name[.name|.name(args)]*, no whitespace in it.
+     */
+    Node ref() throws Exception {
+      skip();
+      Node n = new Var(ident());
+      while (pos < s.length() && s.charAt(pos) == '.') {
+        pos++;
+        String name = ident();
+        if (pos < s.length() && s.charAt(pos) == '(') {
+          pos++;
+          List<Node> args = new ArrayList<Node>();
+          if (!eat(")")) {
+            do {
+              args.add(or());
+            } while (eat(","));
+            if (!eat(")")) {
+              throw error();
+            }
+          }
+          n = new Call(n, name, args.toArray(new Node[args.size()]));
+        } else {
+          n = new Prop(n, name);
+        }
+      }
+      return n;
+    }
+
+    Node number() throws Exception {
+      int i = pos;
+      while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+        pos++;
+      }
+      if (pos + 1 < s.length() && s.charAt(pos) == '.' && Character.isDigit(s.charAt(pos + 1))) {
+        pos++;
+        while (pos < s.length() && Character.isDigit(s.charAt(pos))) {
+          pos++;
+        }
+        return new Const(Double.parseDouble(s.substring(i, pos)));
+      }
+      long l = Long.parseLong(s.substring(i, pos));
+      if (l <= Integer.MAX_VALUE) {
+        return new Const((int) l);
+      }
+      return new Const(l);
+    }
+
+  }
+
+  /**
+   * the node of the tree.
+   */
+  private static abstract class Node {
+
+    abstract Object value(Map<String, Object> m);
+
+  }
+
+  private static class Const extends Node {
+
+    Object v;
+
+    Const(Object v) {
+      this.v = v;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      return v;
+    }
+  }
+
+  private static class Var extends Node {
+
+    String name;
+
+    Var(String name) {
+      this.name = name;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      return m == null ? null : m.get(name);
+    }
+  }
+
+  private static class Prop extends Node {
+
+    Node   target;
+    String name;
+
+    Prop(Node target, String name) {
+      this.target = target;
+      this.name = name;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      return _get(target.value(m), name);
+    }
+  }
+
+  private static class Call extends Node {
+
+    Node   target;
+    String name;
+    Node[] args;
+
+    Call(Node target, String name, Node[] args) {
+      this.target = target;
+      this.name = name;
+      this.args = args;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      Object o = target.value(m);
+      if (o == null) {
+        return null;
+      }
+      Object[] aa = new Object[args.length];
+      for (int i = 0; i < aa.length; i++) {
+        aa[i] = args[i].value(m);
+      }
+      return _call(o, name, aa);
+    }
+  }
+
+  private static class Not extends Node {
+
+    Node n;
+
+    Not(Node n) {
+      this.n = n;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      return !_truth(n.value(m));
+    }
+  }
+
+  private static class And extends Node {
+
+    Node l, r;
+
+    And(Node l, Node r) {
+      this.l = l;
+      this.r = r;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      return _truth(l.value(m)) && _truth(r.value(m));
+    }
+  }
+
+  private static class Or extends Node {
+
+    Node l, r;
+
+    Or(Node l, Node r) {
+      this.l = l;
+      this.r = r;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      return _truth(l.value(m)) || _truth(r.value(m));
+    }
+  }
+
+  private static class Eq extends Node {
+
+    Node    l, r;
+    boolean not;
+
+    Eq(Node l, Node r, boolean not) {
+      this.l = l;
+      this.r = r;
+      this.not = not;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      Object a = l.value(m);
+      Object b = r.value(m);
+
+      boolean eq;
+      if (a == null || b == null) {
+        eq = a == b;
+      } else if (a instanceof Number && b instanceof Number) {
+        eq = _compare((Number) a, (Number) b) == 0;
+      } else if (a.getClass().isAssignableFrom(b.getClass()) || b.getClass().isAssignableFrom(a.getClass())) {
+        eq = a.equals(b);
+      } else {
+        eq = a.toString().equals(b.toString());
+      }
+      return eq != not;
+    }
+  }
+
+  private static class Rel extends Node {
+
+    static final int LT = 0;
+    static final int LE = 1;
+    static final int GT = 2;
+    static final int GE = 3;
+
+    Node             l, r;
+    int              op;
+
+    Rel(Node l, Node r, int op) {
+      this.l = l;
+      this.r = r;
+      this.op = op;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      Object a = l.value(m);
+      Object b = r.value(m);
+      if (!(a instanceof Number) || !(b instanceof Number)) {
+        // velocity compares the numbers only
+        return false;
+      }
+
+      int c = _compare((Number) a, (Number) b);
+      switch (op) {
+        case LT:
+          return c < 0;
+        case LE:
+          return c <= 0;
+        case GT:
+          return c > 0;
+        default:
+          return c >= 0;
+      }
+    }
+  }
+
+  private static class Arith extends Node {
+
+    Node l, r;
+    char op;
+
+    Arith(Node l, Node r, char op) {
+      this.l = l;
+      this.r = r;
+      this.op = op;
+    }
+
+    @Override
+    Object value(Map<String, Object> m) {
+      Object a = l.value(m);
+      Object b = r.value(m);
+      if (a == null || b == null) {
+        return null;
+      }
+
+      if (!(a instanceof Number) || !(b instanceof Number)) {
+        if (op == '+' && (a instanceof String || b instanceof String)) {
+          return a.toString() + b.toString();
+        }
+        return null;
+      }
+
+      Number x = (Number) a;
+      Number y = (Number) b;
+      if (_integral(x) && _integral(y)) {
+        long i = x.longValue();
+        long j = y.longValue();
+        long k;
+        switch (op) {
+          case '+':
+            k = i + j;
+            break;
+          case '-':
+            k = i - j;
+            break;
+          case '*':
+            k = i * j;
+            break;
+          case '/':
+            if (j == 0) {
+              return null;
+            }
+            k = i / j;
+            break;
+          default:
+            if (j == 0) {
+              return null;
+            }
+            k = i % j;
+        }
+        if (k >= Integer.MIN_VALUE && k <= Integer.MAX_VALUE) {
+          return (int) k;
+        }
+        return k;
+      }
+
+      double i = x.doubleValue();
+      double j = y.doubleValue();
+      switch (op) {
+        case '+':
+          return i + j;
+        case '-':
+          return i - j;
+        case '*':
+          return i * j;
+        case '/':
+          return j == 0 ? null : i / j;
+        default:
+          return j == 0 ? null : i % j;
+      }
+    }
+  }
+
+  private static boolean _truth(Object o) {
+    if (o == null) {
+      return false;
+    }
+    if (o instanceof Boolean) {
+      return (Boolean) o;
+    }
+    return true;
+  }
+
+  private static boolean _integral(Number n) {
+    return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+  }
+
+  private static int _compare(Number a, Number b) {
+    if (_integral(a) && _integral(b)) {
+      return Long.compare(a.longValue(), b.longValue());
+    }
+    return Double.compare(a.doubleValue(), b.doubleValue());
+  }
+
+  /**
+   * get the property as velocity, the get(name) of the map, or getName(),
+   * get(String), isName() of the object.
+   */
+  private static Object _get(Object o, String name) {
+    if (o == null) {
+      return null;
+    }
+    if (o instanceof Map) {
+      return ((Map<?, ?>) o).get(name);
+    }
+
+    Class<?> c = o.getClass();
+    String key = c.getName() + "." + name;
+    Object m = methods.get(key);
+    if (m == null) {
+      String cap = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+      m = _method(c, "get" + cap, 0);
+      if (m == null) {
+        m = _method(c, "get" + name, 0);
+      }
+      if (m == null) {
+        Method m1 = _method(c, "get", 1);
+        if (m1 != null && m1.getParameterTypes()[0].isAssignableFrom(String.class)) {
+          m = m1;
+        }
+      }
+      if (m == null) {
+        Method m1 = _method(c, "is" + cap, 0);
+        if (m1 != null && (m1.getReturnType() == boolean.class || m1.getReturnType() == Boolean.class)) {
+          m = m1;
+        }
+      }
+      if (m == null) {
+        m = NONE;
+      }
+      methods.put(key, m);
+    }
+
+    if (m == NONE) {
+      return null;
+    }
+
+    Method m1 = (Method) m;
+    try {
+      return m1.getParameterTypes().length == 0 ? m1.invoke(o) : m1.invoke(o, name);
+    } catch (Exception e) {
+      log.warn(key + ", " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * call the public method which accepts the arguments.
+   */
+  private static Object _call(Object o, String name, Object[] args) {
+    Class<?> c = o.getClass();
+    String key = c.getName() + "#" + name + "/" + args.length;
+    Method[] mm = (Method[]) methods.get(key);
+    if (mm == null) {
+      List<Method> l1 = new ArrayList<Method>();
+      for (Method m : c.getMethods()) {
+        if (m.getName().equals(name) && m.getParameterTypes().length == args.length) {
+          l1.add(m);
+        }
+      }
+      mm = l1.toArray(new Method[l1.size()]);
+      methods.put(key, mm);
+    }
+
+    for (Method m : mm) {
+      if (_accept(m.getParameterTypes(), args)) {
+        try {
+          return _accessible(m).invoke(o, _convert(m.getParameterTypes(), args));
+        } catch (Exception e) {
+          log.warn(o.getClass().getName() + "." + name + ", " + e.getMessage());
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static Method _method(Class<?> c, String name, int args) {
+    for (Method m : c.getMethods()) {
+      if (m.getName().equals(name) && m.getParameterTypes().length == args) {
+        return _accessible(m);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * the public method of the non-public class is invoked by the interface or
+   * super class.
+   */
+  private static Method _accessible(Method m) {
+    if (Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
+      return m;
+    }
+    for (Class<?> c : m.getDeclaringClass().getInterfaces()) {
+      try {
+        return c.getMethod(m.getName(), m.getParameterTypes());
+      } catch (Exception e) {
+        // not this one
+      }
+    }
+    m.setAccessible(true);
+    return m;
+  }
+
+  private static boolean _accept(Class<?>[] types, Object[] args) {
+    if (types.length != args.length) {
+      return false;
+    }
+    for (int i = 0; i < types.length; i++) {
+      Class<?> t = types[i];
+      Object a = args[i];
+      if (a == null) {
+        if (t.isPrimitive()) {
+          return false;
+        }
+      } else if (t.isPrimitive()) {
+        if (t == boolean.class) {
+          if (!(a instanceof Boolean)) {
+            return false;
+          }
+        } else if (t == char.class) {
+          if (!(a instanceof Character)) {
+            return false;
+          }
+        } else if (!(a instanceof Number)) {
+          return false;
+        } else if ((t == int.class || t == long.class || t == short.class || t == byte.class)
+            && !_integral((Number) a)) {
+          return false;
+        }
+      } else if (!t.isInstance(a)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Object[] _convert(Class<?>[] types, Object[] args) {
+    Object[] aa = new Object[args.length];
+    for (int i = 0; i < args.length; i++) {
+      Class<?> t = types[i];
+      Object a = args[i];
+      if (t.isPrimitive() && a instanceof Number) {
+        Number n = (Number) a;
+        if (t == int.class) {
+          a = n.intValue();
+        } else if (t == long.class) {
+          a = n.longValue();
+        } else if (t == double.class) {
+          a = n.doubleValue();
+        } else if (t == float.class) {
+          a = n.floatValue();
+        } else if (t == short.class) {
+          a = n.shortValue();
+        } else if (t == byte.class) {
+          a = n.byteValue();
+        }
+      }
+      aa[i] = a;
+    }
+    return aa;
+  }
+
+}
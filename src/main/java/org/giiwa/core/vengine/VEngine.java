@@ -17,50 +17,42 @@ package org.giiwa.core.vengine;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
-import org.giiwa.core.bean.TimeStamp;
 import org.giiwa.core.bean.X;
 
-// TODO: Auto-generated Javadoc
 /**
+ * The {@code VEngine} Class used to test and parse the velocity sentence, the
+ * sentence is compiled to the Expression if supported, or evaluated by velocity.
+ * 
  * @author wujun
  *
  */
 public class VEngine {
 
-  static Log log = LogFactory.getLog(VEngine.class);
+  static Log                             log         = LogFactory.getLog(VEngine.class);
 
   /**
-   * The main method.
-   *
-   * @param args
-   *          the arguments
+   * the compiled expressions, keyed by the sentence
    */
-  public static void main(String[] args) {
-
-    String s = "{age}>10";
-
-    TimeStamp t = TimeStamp.create();
-    for (int i = 0; i < 100000; i++) {
-      Map<String, Object> m = new HashMap<String, Object>();
-      m.put("age", i);
-      try {
-        VEngine.test(s, m);
-      } catch (Exception e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
-      }
-      // System.out.println(i);
-    }
-    System.out.println(t.past() + "ms");
-  }
+  private static Map<String, Expression> compiled    = new ConcurrentHashMap<String, Expression>();
+
+  /**
+   * the sentences which can not be compiled, evaluated by velocity
+   */
+  private static Set<String>             unsupported = ConcurrentHashMap.newKeySet();
+
+  private static final int               MAX         = 10000;
 
   /**
-   * test the velocity sentence is true or false by the data model.
+   * test the velocity sentence is true or false by the data model, the
+   * sentence is compiled once and cached, the syntax which is not supported by
+   * the Expression is evaluated by velocity.
    * 
    * @param s
    *          the sentence of the velocity, e.g. $age &lt; 10
@@ -76,6 +68,47 @@ public class VEngine {
       return true;
     }
 
+    Expression e = _compile(s);
+    if (e != null) {
+      return e.test(m);
+    }
+
+    return _evaluate(s, m);
+  }
+
+  /**
+   * get the compiled expression from the cache, or compile it.
+   * 
+   * @param s
+   *          the sentence
+   * @return the Expression, or null if not supported
+   */
+  private static Expression _compile(String s) {
+    Expression e = compiled.get(s);
+    if (e != null || unsupported.contains(s)) {
+      return e;
+    }
+
+    try {
+      e = Expression.compile(s);
+      if (compiled.size() >= MAX) {
+        compiled.clear();
+      }
+      compiled.put(s, e);
+    } catch (Exception e1) {
+      log.debug(e1.getMessage());
+      if (unsupported.size() >= MAX) {
+        unsupported.clear();
+      }
+      unsupported.add(s);
+    }
+    return e;
+  }
+
+  /**
+   * test the sentence by velocity, it's the baseline of the Expression.
+   */
+  static boolean _evaluate(String s, Map<String, Object> m) throws Exception {
     s = M.replaceAll("sss", s).replaceAll("\\{", "\\$\\{");
 
     Map<String, Object> b = new HashMap<String, Object>();
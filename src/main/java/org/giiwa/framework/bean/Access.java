@@ -15,19 +15,23 @@
 package org.giiwa.framework.bean;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.giiwa.core.bean.*;
 import org.giiwa.core.bean.Helper.V;
 import org.giiwa.core.bean.Helper.W;
+import org.giiwa.core.task.Task;
 
 /**
  * access token class, it's Bean and mapping to "gi_access" table, it mapping
  * the "access" method in @Path interface. <br>
+ * each access name is interned to a dense integer id in the JVM, see id(), the
+ * roles of the user are compiled to a bitset of the ids. <br>
  * table="gi_access"
  * 
  * @author yjiang
@@ -82,6 +86,7 @@ public class Access extends Bean {
     } else {
       String[] ss = name.split("[\\|｜]");
       for (String s : ss) {
+        intern(s, false);
         if (!exists(s)) {
           Helper.insert(V.create(X.ID, s), Access.class);
         }
@@ -89,7 +94,67 @@ public class Access extends Bean {
     }
   }
 
-  static private Set<String> cache = new HashSet<String>();
+  static private Set<String>                       cache    = ConcurrentHashMap.newKeySet();
+
+  /**
+   * the interned access, name = {id, id of the group admin or -1}
+   */
+  static private ConcurrentHashMap<String, int[]> registry = new ConcurrentHashMap<String, int[]>();
+  static private AtomicInteger                    seq      = new AtomicInteger(0);
+
+  /**
+   * get the id of the access name, the new name is interned, and added in DB
+   * in background.
+   *
+   * @param name
+   *          the access name
+   * @return the id
+   */
+  public static int id(String name) {
+    return intern(name, true)[0];
+  }
+
+  /**
+   * intern the access name.
+   *
+   * @param name
+   *          the access name
+   * @param register
+   *          add the new name in DB
+   * @return {id, id of the group admin "access.[group].admin" or -1}
+   */
+  static int[] intern(final String name, boolean register) {
+    int[] e = registry.get(name);
+    if (e != null) {
+      return e;
+    }
+
+    synchronized (registry) {
+      e = registry.get(name);
+      if (e == null) {
+        e = new int[] { seq.getAndIncrement(), -1 };
+
+        int i = name.lastIndexOf(".");
+        if (i > 0) {
+          String s1 = name.substring(0, i) + ".admin";
+          e[1] = s1.equals(name) ? e[0] : intern(s1, false)[0];
+        }
+        registry.put(name, e);
+
+        if (register && name.startsWith("access.") && !cache.contains(name)) {
+          Task.create(new Runnable() {
+
+            @Override
+            public void run() {
+              set(name);
+            }
+
+          }).schedule(0);
+        }
+      }
+    }
+    return e;
+  }
 
   /**
    * check exists of the name
@@ -14,9 +14,13 @@
 */
 package org.giiwa.framework.bean;
 
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.giiwa.core.base.Digest;
 import org.giiwa.core.bean.Bean;
 import org.giiwa.core.bean.Beans;
 import org.giiwa.core.bean.Column;
@@ -26,10 +30,23 @@ import org.giiwa.core.bean.Helper.W;
 import org.giiwa.core.bean.Table;
 import org.giiwa.core.bean.UID;
 import org.giiwa.core.bean.X;
+import org.giiwa.core.conf.Config;
 import org.giiwa.core.conf.Global;
 
 /**
  * The AuthToken bean. <br>
+ * the token is self-describing and signed, "uid.expired.random.sign", the sign
+ * is HMAC of the sid and the token by "token.secret" in global, so the bad or
+ * expired token is rejected without any I/O, the valid token is cached by the
+ * hash, the cache is dropped when the token deleted, the unsigned token
+ * issued before is still loaded from the database until it expired, the
+ * configuration in giiwa.properties:
+ * 
+ * <pre>
+ * token.cache.ttl=60000, the milliseconds of the token cached
+ * token.cache.max=10000, the max tokens cached
+ * </pre>
+ * 
  * table="gi_authtoken"
  * 
  * @author wujun
@@ -58,6 +75,11 @@ public class AuthToken extends Bean {
   @Column(name = "sid")
   private String            sid;
 
+  private static ConcurrentHashMap<String, Cached> cache = new ConcurrentHashMap<String, Cached>();
+
+  private static volatile String                   secret;
+  private static volatile long                     secretExpired;
+
   /**
    * get the id
    * 
@@ -129,25 +151,33 @@ public class AuthToken extends Bean {
    * @return the auth token
    */
   public static AuthToken update(long uid, String sid, String ip) {
-    String token = UID.random(20);
     long expired = System.currentTimeMillis() + Global.getLong("token.expired", X.AWEEK);
+    String token = uid + "." + expired + "." + UID.random(20);
+    token += "." + _sign(sid, token);
     String id = UID.id(uid, sid, ip, token);
 
     V v = V.create("uid", uid).set("sid", sid).set("token", token).set("expired", expired).set("ip", ip);
 
     try {
-      if (Helper.exists(id, AuthToken.class)) {
-        // update
-        Helper.update(id, v, AuthToken.class);
-      } else {
-        // insert
-        Helper.insert(v.set(X.ID, id), AuthToken.class);
-      }
+      /**
+       * the token is new every time, insert it directly
+       */
+      Helper.insert(v.set(X.ID, id), AuthToken.class);
     } catch (Exception e1) {
       log.error(e1.getMessage(), e1);
+      return null;
     }
 
-    return load(id);
+    AuthToken t = new AuthToken();
+    t.id = id;
+    t.uid = uid;
+    t.sid = sid;
+    t.token = token;
+    t.expired = expired;
+    t.set("ip", ip);
+
+    _cache(sid, token, t);
+    return t;
   }
 
   /**
@@ -171,8 +201,133 @@ public class AuthToken extends Bean {
    * @return AuthToken
    */
   public static AuthToken load(String sid, String token) {
-    return Helper.load(W.create("sid", sid).and("token", token).and("expired", System.currentTimeMillis(), W.OP.gt),
+    if (X.isEmpty(sid) || X.isEmpty(token)) {
+      return null;
+    }
+
+    long now = System.currentTimeMillis();
+
+    /**
+     * verify the signed token without I/O, the unsigned token which was issued
+     * before is loaded from the database until it expired
+     */
+    String[] ss = X.split(token, "\\.");
+    boolean signed = ss.length == 4;
+    if (signed) {
+      if (X.toLong(ss[1], 0) <= now) {
+        return null;
+      }
+      String sign = _sign(sid, token.substring(0, token.lastIndexOf(".")));
+      if (sign == null || !MessageDigest.isEqual(sign.getBytes(), ss[3].getBytes())) {
+        return null;
+      }
+    }
+
+    String key = UID.id(sid, token);
+    Cached c = cache.get(key);
+    if (c != null && c.created > now - Config.getConf().getLong("token.cache.ttl", X.AMINUTE)
+        && X.isSame(token, c.token) && X.isSame(sid, c.sid)) {
+      return c.t == null || c.t.expired > now ? c.t : null;
+    }
+
+    AuthToken t = Helper.load(W.create("sid", sid).and("token", token).and("expired", now, W.OP.gt),
         AuthToken.class);
+
+    /**
+     * cache the revoked token also if it was signed by us
+     */
+    if (signed || t != null) {
+      _cache(sid, token, t);
+    }
+    return t;
+  }
+
+  private static void _cache(String sid, String token, AuthToken t) {
+    int max = Config.getConf().getInt("token.cache.max", 10000);
+    if (cache.size() >= max) {
+      long ttl = Config.getConf().getLong("token.cache.ttl", X.AMINUTE);
+      _evict(System.currentTimeMillis() - ttl);
+
+      Iterator<String> it = cache.keySet().iterator();
+      while (cache.size() >= max && it.hasNext()) {
+        it.next();
+        it.remove();
+      }
+    }
+
+    Cached c = new Cached();
+    c.sid = sid;
+    c.token = token;
+    c.t = t;
+    cache.put(UID.id(sid, token), c);
+  }
+
+  /**
+   * remove the cached token which created before the time
+   */
+  private static void _evict(long before) {
+    Iterator<Cached> it = cache.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().created < before) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * remove the cached token of the user, and the session if sid is not null
+   */
+  private static void _evict(long uid, String sid) {
+    Iterator<Cached> it = cache.values().iterator();
+    while (it.hasNext()) {
+      Cached c = it.next();
+      if (c.t != null && c.t.uid == uid && (sid == null || X.isSame(sid, c.sid))) {
+        it.remove();
+      }
+    }
+  }
+
+  private static String _sign(String sid, String token) {
+    long now = System.currentTimeMillis();
+    if (secret == null || secretExpired < now) {
+      String s = Global.getString("token.secret", null);
+      if (X.isEmpty(s)) {
+        s = _secret();
+      }
+      if (X.isEmpty(s)) {
+        return null;
+      }
+      secret = s;
+      secretExpired = now + X.AMINUTE;
+    }
+    return Digest.hmac(sid + "/" + token, secret);
+  }
+
+  /**
+   * create the secret if absent, the nodes may start together, so it's inserted
+   * once in "gi_config" and the stored one is always used.
+   */
+  private static String _secret() {
+    for (int i = 0; i < 3; i++) {
+      Global g = Helper.load("token.secret", Global.class);
+      if (g != null && !X.isEmpty(g.getString("s"))) {
+        return g.getString("s");
+      }
+
+      String s = UID.random(32);
+      try {
+        if (g == null) {
+          Helper.insert(V.create(X.ID, "token.secret").set("s", s), Global.class);
+        } else {
+          Helper.update(W.create(X.ID, "token.secret").and("s", g.getString("s")), V.create("s", s), Global.class);
+        }
+      } catch (Exception e) {
+        // created by other node
+      }
+    }
+
+    Global g = Helper.load("token.secret", Global.class);
+    return g == null ? null : g.getString("s");
   }
 
   /**
@@ -197,6 +352,7 @@ public class AuthToken extends Bean {
       bs = load(q, s, 10);
     }
     Helper.delete(W.create("uid", uid), AuthToken.class);
+    _evict(uid, null);
     return list;
   }
 
@@ -236,7 +392,8 @@ public class AuthToken extends Bean {
    *          the session id
    */
   public static void delete(long uid, String sid) {
-    delete(W.create("uid", uid).and("sid", sid));
+    Helper.delete(W.create("uid", uid).and("sid", sid), AuthToken.class);
+    _evict(uid, sid);
   }
 
   /**
@@ -247,6 +404,11 @@ public class AuthToken extends Bean {
    */
   public static void delete(W q) {
     Helper.delete(q, AuthToken.class);
+
+    /**
+     * not known which token deleted
+     */
+    cache.clear();
   }
 
   /**
@@ -254,6 +416,17 @@ public class AuthToken extends Bean {
    */
   public static void cleanup() {
     Helper.delete(W.create().and("expired", System.currentTimeMillis(), W.OP.lt), AuthToken.class);
+    _evict(System.currentTimeMillis() - Config.getConf().getLong("token.cache.ttl", X.AMINUTE));
+  }
+
+  /**
+   * the verified token in cache, the t is null if the token was revoked
+   */
+  private static class Cached {
+    String    sid;
+    String    token;
+    AuthToken t;
+    long      created = System.currentTimeMillis();
   }
 
 }
@@ -14,11 +14,15 @@
 */
 package org.giiwa.framework.bean;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.giiwa.core.bean.*;
 import org.giiwa.core.bean.Helper.V;
@@ -31,6 +35,9 @@ import org.giiwa.framework.web.Model;
 
 /**
  * Menu bean. <br>
+ * all the menus are kept in a immutable tree in memory, rebuilt when the menu
+ * changed (touch), or expired in a minute, the menus filtered by access are
+ * cached by the fingerprint of the roles, see load(User, long, String). <br>
  * table="gi_menu"
  * 
  * @author yjiang
@@ -44,6 +51,9 @@ public class Menu extends Bean {
   */
   private static final long serialVersionUID = 1L;
 
+  private static AtomicLong version          = new AtomicLong(0);
+  private static volatile Tree tree;
+
   // int id;
 
   /**
@@ -266,6 +276,7 @@ public class Menu extends Bean {
 
     long count = Helper.count(W.create("parent", parent), Menu.class);
     Helper.update(parent, V.create("childs", count), Menu.class);
+    touch();
 
     return Helper.load(q, Menu.class);
   }
@@ -319,6 +330,7 @@ public class Menu extends Bean {
    */
   public static void remove(long id) {
     Helper.delete(W.create(X.ID, id), Menu.class);
+    touch();
 
     /**
      * remove all the sub
@@ -347,9 +359,13 @@ public class Menu extends Bean {
       return null;
     }
 
-    /**
-     * filter according the access, and save seq
-     */
+    return _show(_access(list, me), me);
+  }
+
+  /**
+   * filter according the access, and sort by seq.
+   */
+  private static List<Menu> _access(List<Menu> list, User me) {
     Map<Integer, Menu> map = new TreeMap<Integer, Menu>();
 
     for (Menu m : list) {
@@ -360,26 +376,31 @@ public class Menu extends Bean {
       }
 
       if (!has && me != null) {
-        if (access.indexOf("|") > 0) {
-          String[] ss = access.split("\\|");
-          if (me.hasAccess(ss)) {
-            has = true;
-          }
-        } else if (access.indexOf("&") > 0) {
-          String[] ss = access.split("\\&");
-          for (String s : ss) {
-            if (!me.hasAccess(s)) {
-              has = false;
-              break;
-            }
-          }
-        } else if (me.hasAccess(access)) {
-          has = true;
-        }
+        has = me.can(access);
       }
 
+      if (has) {
+        int seq = m.getSeq();
+        while (map.containsKey(seq))
+          seq++;
+        map.put(seq, m);
+      }
+    }
+
+    return new ArrayList<Menu>(map.values());
+  }
+
+  /**
+   * filter according the "show" expression, it depends on the user and the
+   * context, so it's tested every time.
+   */
+  private static List<Menu> _show(List<Menu> list, User me) {
+    List<Menu> l1 = null;
+    for (int i = 0; i < list.size(); i++) {
+      Menu m = list.get(i);
       String s = m.getShow1();
-      if (has && !X.isEmpty(s)) {
+      boolean has = true;
+      if (!X.isEmpty(s)) {
         Map<String, Object> m1 = new HashMap<String, Object>();
         m1.put("me", me);
         m1.put("global", Global.getInstance());
@@ -391,15 +412,115 @@ public class Menu extends Bean {
         }
       }
 
-      if (has) {
-        int seq = m.getSeq();
-        while (map.containsKey(seq))
-          seq++;
-        map.put(seq, m);
+      if (!has && l1 == null) {
+        // copy on first removal
+        l1 = new ArrayList<Menu>(list.subList(0, i));
+      } else if (has && l1 != null) {
+        l1.add(m);
       }
     }
+    return l1 == null ? list : l1;
+  }
 
-    return map.values();
+  /**
+   * load the menus of the user from the tree in memory, the menus filtered by
+   * access are cached for the users with same roles.
+   * 
+   * @param me
+   *          the user, null for guest
+   * @param parent
+   *          the parent id
+   * @param name
+   *          the name of the menu under the parent, or null to load the
+   *          children of the parent
+   * @return the list of the menu, sorted by seq, null if not found
+   */
+  public static List<Menu> load(User me, long parent, String name) {
+    Tree t = _tree();
+
+    long id = parent;
+    if (!X.isEmpty(name)) {
+      Menu m = t.names.get(parent + "/" + name + "/" + Model.node());
+      if (m == null) {
+        return null;
+      }
+      id = m.getId();
+    }
+
+    List<Menu> list = t.childs.get(id);
+    if (list == null) {
+      return null;
+    }
+
+    String key = id + "/" + (me == null ? "-" : (me.getId() == 0L ? "0" : me.getRole().getFingerprint()));
+    List<Menu> l1 = t.filtered.get(key);
+    if (l1 == null) {
+      l1 = Collections.unmodifiableList(_access(list, me));
+      t.filtered.put(key, l1);
+    }
+
+    return _show(l1, me);
+  }
+
+  /**
+   * the menus changed, the tree will be rebuilt.
+   */
+  public static void touch() {
+    version.incrementAndGet();
+  }
+
+  private static Tree _tree() {
+    Tree t = tree;
+    long v = version.get();
+    if (t != null && t.version == v && System.currentTimeMillis() - t.created < X.AMINUTE) {
+      return t;
+    }
+
+    synchronized (Menu.class) {
+      t = tree;
+      if (t != null && t.version == v && System.currentTimeMillis() - t.created < X.AMINUTE) {
+        return t;
+      }
+
+      t = new Tree(v);
+      Beans<Menu> bs = Helper.load(W.create().sort("seq", -1), 0, -1, Menu.class);
+      if (bs != null && bs.getList() != null) {
+        for (Menu m : bs.getList()) {
+          long parent = m.getLong("parent");
+          List<Menu> l1 = t.childs.get(parent);
+          if (l1 == null) {
+            l1 = new ArrayList<Menu>();
+            t.childs.put(parent, l1);
+          }
+          l1.add(m);
+          t.names.put(parent + "/" + m.getName() + "/" + m.getString("node"), m);
+        }
+      }
+      tree = t;
+    }
+    return t;
+  }
+
+  /**
+   * the menus in memory, it's not changed after built
+   * 
+   * @author joe
+   *
+   */
+  private static class Tree {
+    final long                               version;
+    final long                               created  = System.currentTimeMillis();
+    final Map<Long, List<Menu>>              childs   = new HashMap<Long, List<Menu>>();
+    final Map<String, Menu>                  names    = new HashMap<String, Menu>();
+
+    /**
+     * the menus filtered by access, keyed by parent and the roles fingerprint
+     */
+    final ConcurrentHashMap<String, List<Menu>> filtered = new ConcurrentHashMap<String, List<Menu>>();
+
+    Tree(long version) {
+      this.version = version;
+    }
   }
 
   /**
@@ -411,6 +532,7 @@ public class Menu extends Bean {
   public static void remove(String tag) {
     String node = Model.node();
     Helper.delete(W.create("tag", tag).and("node", node), Menu.class);
+    touch();
   }
 
   /**
@@ -420,6 +542,7 @@ public class Menu extends Bean {
     String node = Model.node();
     // log.debug("node=" + node);
     Helper.update(W.create("node", node), V.create("seq", -1), Menu.class);
+    touch();
   }
 
   /**
@@ -428,6 +551,7 @@ public class Menu extends Bean {
   public static void cleanup() {
     String node = Model.node();
     Helper.delete(W.create("node", node).and("seq", 0, W.OP.lt), Menu.class);
+    touch();
   }
 
   public String getStyle() {
@@ -15,16 +15,36 @@
 package org.giiwa.framework.bean;
 
 import java.io.*;
-
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.logging.*;
+import org.giiwa.core.base.IOUtil;
 import org.giiwa.core.bean.*;
 import org.giiwa.core.bean.Helper.V;
 import org.giiwa.core.bean.Helper.W;
 
 /**
  * repository of file system bean. <br>
- * table="gi_repo"
+ * table="gi_repo" <br>
+ * the completed entities are indexed in a memory-mapped file, the entities not
+ * accessed for days are moved into the append-only pack, and the locations are
+ * kept in the ".idx" of the pack too, configuration in giiwa.properties
+ *
+ * <pre>
+ * repo.index=on
+ * repo.index.capacity=65536
+ * repo.archive.days=0
+ * repo.archive.packsize=1073741824
+ * </pre>
  * 
  * @author yjiang
  * 
@@ -41,6 +61,40 @@ public class Repo extends Bean {
 
   private static String     ROOT;
 
+  /**
+   * the flag of the entity which the content stored in a shared blob
+   */
+  public static final int   FLAG_BLOB        = 0x02;
+
+  /**
+   * store the content in content-addressed blob, the same content will be
+   * stored only once, configured in giiwa.properties "repo.dedup=on"
+   */
+  private static boolean    DEDUP            = false;
+
+  /**
+   * the locks of the blobs, avoid releasing a blob when storing same content
+   */
+  private static Object[]   locks            = new Object[64];
+
+  /**
+   * the days of not accessed, the entity will be moved into the pack, 0: never
+   */
+  private static int        ARCHIVE          = 0;
+
+  private static long       PACKSIZE         = 1024L * 1024 * 1024;
+
+  /**
+   * the current pack which the archived entities append to
+   */
+  private static int        pack             = -1;
+
+  static {
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
   /**
    * Initialize the Repo, this will be invoke when giiwa startup
    * 
@@ -49,6 +103,13 @@ public class Repo extends Bean {
    */
   public static void init(Configuration conf) {
     ROOT = conf.getString("repo.path", "/opt/repo");
+    DEDUP = X.isSame("on", conf.getString("repo.dedup", "off"));
+    ARCHIVE = conf.getInt("repo.archive.days", 0);
+    PACKSIZE = conf.getLong("repo.archive.packsize", 1024L * 1024 * 1024);
+
+    if (!X.isSame("off", conf.getString("repo.index", "on"))) {
+      RepoIndex.init(ROOT, conf.getInt("repo.index.capacity", 65536));
+    }
   }
 
   /**
@@ -198,6 +259,91 @@ public class Repo extends Bean {
     return e.store(tag, position, in, total, name, (byte) (share ? 0x01 : 0));
   }
 
+  /**
+   * store a chunk of the file, the chunks can be uploaded in parallel and out
+   * of order, the position MUST be the multiple of the chunk size, and only the
+   * last chunk can be smaller than the chunk size.
+   *
+   * @param folder
+   *          the folder
+   * @param id
+   *          the id
+   * @param name
+   *          the name
+   * @param tag
+   *          the tag
+   * @param position
+   *          the position of the chunk
+   * @param total
+   *          the total size of the file
+   * @param chunk
+   *          the chunk size
+   * @param in
+   *          the data of the chunk
+   * @param expired
+   *          the expired
+   * @param share
+   *          the share
+   * @param uid
+   *          the uid
+   * @return the size of the continuous received data from the beginning, it's
+   *         the total if all the chunks received
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static long store(String folder, String id, String name, String tag, long position, long total, int chunk,
+      InputStream in, long expired, boolean share, long uid) throws IOException {
+    Entity e = new Entity();
+    e.set("folder", folder);
+    e.set("name", name);
+    e.set(X.ID, id);
+    e.set("total", total);
+    e.set("expired", expired);
+    e.set("uid", uid);
+
+    return e.chunk(tag, position, total, chunk, in, name, (byte) (share ? 0x01 : 0));
+  }
+
+  /**
+   * get the missed chunks of the uploading file.
+   *
+   * @param folder
+   *          the folder
+   * @param id
+   *          the id
+   * @param total
+   *          the total size of the file
+   * @param chunk
+   *          the chunk size
+   * @return the BitSet of the received chunks, or null if nothing received
+   */
+  public static BitSet chunks(String folder, String id, long total, int chunk) {
+    File f = new File(path(folder, id));
+    if (!f.exists()) {
+      return null;
+    }
+
+    try {
+      Chunks c = Chunks.get(f, total, chunk);
+      synchronized (c) {
+        if (!c.inited) {
+          Entity e = Repo.load(folder, id, f);
+          if (e != null) {
+            e.close();
+            if (e.getTotal() == total && e.getPos() >= total) {
+              // completed
+              c.bits.set(0, c.count);
+            }
+          }
+        }
+        return (BitSet) c.bits.clone();
+      }
+    } catch (IOException e) {
+      log.error(e.getMessage(), e);
+    }
+    return null;
+  }
+
   /**
    * Gets the id.
    * 
@@ -273,7 +419,11 @@ public class Repo extends Bean {
           /**
            * will not close the inputstream
            */
-          return Entity.create(in);
+          Entity e1 = Entity.create(in);
+          if (!X.isEmpty(id) && e1.getPos() >= e1.getTotal()) {
+            RepoIndex.put(e1);
+          }
+          return e1;
 
         } catch (Exception e1) {
           log.error("load: id=" + id, e1);
@@ -315,6 +465,11 @@ public class Repo extends Bean {
    *          the id
    */
   public static void delete(String folder, String id) {
+    RepoIndex.remove(id);
+    if (packed != null) {
+      packed.remove(id);
+    }
+
     File f = new File(path(folder, id));
 
     if (f.exists()) {
@@ -333,7 +488,95 @@ public class Repo extends Bean {
    */
   public static Entity load(String folder, String id) {
     String path = path(folder, id);
-    return load(folder, id, new File(path));
+
+    /**
+     * the indexed entity, no need to query the database and read the head
+     */
+    Entity e = RepoIndex.get(id);
+    if (e != null) {
+      if (e.pack >= 0 || new File(path).exists()) {
+        e.set("folder", folder);
+        return e;
+      }
+      RepoIndex.remove(id);
+    }
+
+    File f = new File(path);
+    if (!f.exists()) {
+      e = _unpack(id);
+      if (e != null) {
+        e.set("folder", folder);
+        return e;
+      }
+    }
+
+    return load(folder, id, f);
+  }
+
+  /**
+   * load the archived entity from the pack by the ".idx" of the packs, it's
+   * used when the index lost the entity.
+   */
+  private static Entity _unpack(String id) {
+    long[] ll = _packed().get(id);
+    if (ll == null || !Helper.exists(id, Entity.class)) {
+      return null;
+    }
+
+    try {
+      int n = (int) ll[0];
+      InputStream in = new Part(pack(n), ll[1], ll[2]);
+
+      /**
+       * will not close the inputstream
+       */
+      Entity e = Entity.create(in);
+      e.pack = n;
+      e.offset = ll[1];
+      if (e.getPos() >= e.getTotal()) {
+        RepoIndex.put(e, n, ll[1]);
+      }
+      return e;
+    } catch (Exception e) {
+      log.error("unpack: id=" + id, e);
+    }
+    return null;
+  }
+
+  /**
+   * the location of the archived entities, [pack, offset, length], loaded from
+   * the ".idx" of the packs when first used.
+   */
+  private static Map<String, long[]> packed;
+
+  private static synchronized Map<String, long[]> _packed() {
+    if (packed == null) {
+      Map<String, long[]> m = new ConcurrentHashMap<String, long[]>();
+      for (int i = 0; pack(i).exists(); i++) {
+        File f = _idx(i);
+        if (!f.exists()) {
+          continue;
+        }
+        BufferedReader re = null;
+        try {
+          re = new BufferedReader(new FileReader(f));
+          String line = re.readLine();
+          while (line != null) {
+            String[] ss = X.split(line, ",");
+            if (ss.length == 3) {
+              m.put(ss[0], new long[] { i, X.toLong(ss[1]), X.toLong(ss[2]) });
+            }
+            line = re.readLine();
+          }
+        } catch (IOException e) {
+          log.error(f.getAbsolutePath(), e);
+        } finally {
+          X.close(re);
+        }
+      }
+      packed = m;
+    }
+    return packed;
   }
 
   /**
@@ -344,6 +587,8 @@ public class Repo extends Bean {
    * @return the int
    */
   public static int delete(String id) {
+    Entity e = Helper.load(id, Entity.class);
+
     /**
      * delete the file in the repo
      */
@@ -354,9 +599,38 @@ public class Repo extends Bean {
      */
     Helper.delete(id, Entity.class);
 
+    if (e != null && !X.isEmpty(e.getDigest())) {
+      release(e.getDigest());
+    }
+
     return 1;
   }
 
+  /**
+   * delete the blob if there is no entity refer to it.
+   *
+   * @param digest
+   *          the digest of the blob
+   */
+  private static void release(String digest) {
+    synchronized (lock(digest)) {
+      if (Helper.count(W.create("digest", digest), Entity.class) <= 0) {
+        File f = new File(blob(digest));
+        if (f.exists()) {
+          f.delete();
+        }
+      }
+    }
+  }
+
+  private static Object lock(String digest) {
+    return locks[Math.abs(digest.hashCode() % locks.length)];
+  }
+
+  static private String blob(String digest) {
+    return ROOT + "/blob/" + digest.substring(0, 2) + "/" + digest.substring(2, 4) + "/" + digest;
+  }
+
   /**
    * entity of repo
    * 
@@ -385,7 +659,19 @@ public class Repo extends Bean {
     // String memo;
 
     private transient InputStream in;
-    private transient int         headsize;
+    transient int                 headsize;
+    private transient boolean     plain;
+
+    /**
+     * loaded from the index, the head was not read
+     */
+    transient boolean             indexed;
+
+    /**
+     * the pack and the offset in the pack if archived
+     */
+    transient int                 pack             = -1;
+    transient long                offset;
 
     public String getMemo() {
       return getString("memo");
@@ -434,6 +720,19 @@ public class Repo extends Bean {
       return getString("name");
     }
 
+    /**
+     * get the digest of the content if it's stored in blob
+     * 
+     * @return the digest, or null if not
+     */
+    public String getDigest() {
+      return getString("digest");
+    }
+
+    public boolean isBlob() {
+      return (getFlag() & FLAG_BLOB) != 0;
+    }
+
     public long getCreated() {
       return getLong(X.CREATED);
     }
@@ -468,6 +767,8 @@ public class Repo extends Bean {
     @SuppressWarnings("resource")
     private long store(String tag, long position, InputStream in, long total, String name, int flag)
         throws IOException {
+      RepoIndex.remove(getId());
+
       File f = new File(path(getFolder(), getId()));
 
       if (f.exists()) {
@@ -494,6 +795,10 @@ public class Repo extends Bean {
         f.getParentFile().mkdirs();
       }
 
+      if (DEDUP && !plain && position == 0 && (!f.exists() || total != this.getTotal())) {
+        return _store(tag, in, total, name, flag, f);
+      }
+
       if (!f.exists() || total != this.getTotal()) {
         /**
          * initialize the storage, otherwise append
@@ -503,25 +808,10 @@ public class Repo extends Bean {
           out = new FileOutputStream(f);
           set("pos", in.available());
 
-          Response resp = new Response();
-          resp.writeLong(getPos());
-          resp.writeInt(flag);
-          resp.writeLong(getExpired());
-          resp.writeLong(total);
-          resp.writeInt((int) 0);
-          resp.writeString(getId());
-          resp.writeString(name);
-          byte[] bb = resp.getBytes();
-          resp = new Response();
-
-          resp.writeByte(getVersion());
-          resp.writeInt(bb.length);
-
-          resp.writeBytes(bb);
-          bb = resp.getBytes();
+          byte[] bb = _head(getPos(), flag, total, name, null);
           out.write(bb);
           long pos = 0;
-          bb = new byte[4 * 1024];
+          bb = new byte[16 * 1024];
 
           int len = in.read(bb);
           while (len > 0) {
@@ -530,13 +820,34 @@ public class Repo extends Bean {
             len = in.read(bb);
           }
 
+          if (pos != getPos()) {
+            /**
+             * the available() is not the length of the stream, write the real
+             * count in the head, it's same size
+             */
+            set("pos", pos);
+            if (total < pos) {
+              total = pos;
+            }
+            ((FileOutputStream) out).getChannel().write(ByteBuffer.wrap(_head(pos, flag, total, name, null)), 0);
+          }
+
           long pp = pos;
-          if (total > 0) {
-            while (pp < total) {
-              len = (int) Math.min(total - pp, bb.length);
-              out.write(bb, 0, len);
-              pp += len;
+          if (total > pp) {
+            /**
+             * reserve the space of the rest, the file is sparse, no need to
+             * write the zero
+             */
+            out.close();
+            out = null;
+
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+              raf.setLength(raf.length() + total - pp);
+            } finally {
+              raf.close();
             }
+            pp = total;
           }
 
           try {
@@ -582,6 +893,12 @@ public class Repo extends Bean {
           }
         }
 
+      } else if (isBlob()) {
+        /**
+         * the blob is completed and shared, can not append
+         */
+        in.close();
+        return getPos();
       } else {
         /**
          * append
@@ -591,7 +908,7 @@ public class Repo extends Bean {
          * load head, and skip
          */
         try {
-          raf = new RandomAccessFile(f, "rws");
+          raf = new RandomAccessFile(f, "rw");
           byte[] bb = new byte[17]; // version(1) + head.length(4) +
           // pos(8) + flag(4)
           raf.read(bb);
@@ -602,21 +919,20 @@ public class Repo extends Bean {
           set("pos", req.readLong());
 
           if (getPos() >= position) {
-            raf.seek(head + 5 + position);
-
-            bb = new byte[4 * 1024];
-            int len = in.read(bb);
-            while (len > 0) {
-              raf.write(bb, 0, len);
-              position += len;
-              len = in.read(bb);
-            }
+            FileChannel ch = raf.getChannel();
+            position += _write(ch, head + 5 + position, in);
 
             if (position > getPos()) {
+              if (position >= getTotal()) {
+                /**
+                 * completed, flush the data to disk once
+                 */
+                ch.force(true);
+              }
+
               Response resp = new Response();
               resp.writeLong(position);
-              raf.seek(5);
-              raf.write(resp.getBytes());
+              ch.write(ByteBuffer.wrap(resp.getBytes()), 5);
               set("pos", position);
             }
           }
@@ -642,6 +958,282 @@ public class Repo extends Bean {
 
     }
 
+    /**
+     * store the chunk at the position directly, the file is initialized with the
+     * head and the total space by the first arrived chunk.
+     */
+    private long chunk(String tag, long position, long total, int size, InputStream in, String name, int flag)
+        throws IOException {
+
+      try {
+        if (total <= 0 || size <= 0 || position < 0 || position >= total || position % size != 0) {
+          throw new IOException(
+              "bad chunk, id=" + getId() + ", position=" + position + ", total=" + total + ", chunk=" + size);
+        }
+
+        RepoIndex.remove(getId());
+
+        File f = new File(path(getFolder(), getId()));
+        f.getParentFile().mkdirs();
+
+        Chunks c = Chunks.get(f, total, size);
+        synchronized (c) {
+          if (!c.inited) {
+            if (!_resume(f, total)) {
+              _init(f, tag, total, name, flag);
+            } else if (getPos() >= total) {
+              // uploaded already
+              c.remove();
+              return total;
+            }
+            c.head = headsize + 5;
+            c.inited = true;
+          }
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+          FileChannel ch = raf.getChannel();
+
+          /**
+           * never write over the next chunk, the oversize body is rejected and
+           * the chunk is not marked as received
+           */
+          long limit = Math.min(size, total - position);
+          long len = _write(ch, c.head + position, in, limit);
+          if (len == limit && in.read() != -1) {
+            throw new IOException("oversize chunk, id=" + getId() + ", position=" + position + ", chunk=" + size);
+          }
+          if (len != limit) {
+            throw new IOException("incompleted chunk, id=" + getId() + ", position=" + position + ", len=" + len);
+          }
+
+          if (c.set((int) (position / size))) {
+            /**
+             * all chunks received, flush the data to disk once, and commit the
+             * pos in head
+             */
+            ch.force(true);
+
+            Response resp = new Response();
+            resp.writeLong(total);
+            ch.write(ByteBuffer.wrap(resp.getBytes()), 5);
+            set("pos", total);
+
+            c.remove();
+
+            log.debug("stored, id=" + this.getId() + ", chunks=" + c.count);
+            return total;
+          }
+
+          return c.pos();
+        } finally {
+          raf.close();
+        }
+      } finally {
+        try {
+          in.close();
+        } catch (IOException e) {
+          log.error(e);
+        }
+      }
+    }
+
+    /**
+     * check the existing file is the same uploading file.
+     */
+    private boolean _resume(File f, long total) {
+      if (!f.exists()) {
+        return false;
+      }
+
+      InputStream tmp = null;
+      try {
+        tmp = new FileInputStream(f);
+        return load(tmp) && !isBlob() && getTotal() == total;
+      } catch (IOException e) {
+        log.error(e.getMessage(), e);
+      } finally {
+        close();
+      }
+      return false;
+    }
+
+    private void _init(File f, String tag, long total, String name, int flag) throws IOException {
+      byte[] bb = _head(0, flag, total, name, null);
+      headsize = bb.length - 5;
+
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      try {
+        raf.setLength(0);
+        raf.write(bb);
+        raf.setLength(bb.length + total);
+      } finally {
+        raf.close();
+      }
+
+      try {
+        if (Helper.exists(getId(), Entity.class)) {
+          Helper.update(getId(), V.create("total", total).set("tag", tag).set("expired", getExpired()),
+              Entity.class);
+        } else {
+          Helper.insert(V.create(X.ID, getId()).set("uid", 0).set("total", total).set("tag", tag)
+              .set("expired", getExpired()).set(X.CREATED, System.currentTimeMillis()).set("flag", flag)
+              .set("name", name), Entity.class);
+        }
+      } catch (Exception e1) {
+        log.error(e1.getMessage(), e1);
+      }
+    }
+
+    /**
+     * write the inputstream to the channel at the position.
+     */
+    private long _write(FileChannel ch, long position, InputStream in) throws IOException {
+      return _write(ch, position, in, Long.MAX_VALUE);
+    }
+
+    /**
+     * write the inputstream to the channel at the position, at most limit bytes.
+     */
+    private long _write(FileChannel ch, long position, InputStream in, long limit) throws IOException {
+      long len = 0;
+      byte[] bb = new byte[16 * 1024];
+      int n = in.read(bb, 0, (int) Math.min(bb.length, limit));
+      while (n > 0) {
+        ByteBuffer b = ByteBuffer.wrap(bb, 0, n);
+        while (b.hasRemaining()) {
+          len += ch.write(b, position + len);
+        }
+        if (len >= limit) {
+          break;
+        }
+        n = in.read(bb, 0, (int) Math.min(bb.length, limit - len));
+      }
+      return len;
+    }
+
+    /**
+     * create the head of the entity file.
+     */
+    private byte[] _head(long pos, int flag, long total, String name, String digest) {
+      Response resp = new Response();
+      resp.writeLong(pos);
+      resp.writeInt(flag);
+      resp.writeLong(getExpired());
+      resp.writeLong(total);
+      resp.writeInt((int) 0);
+      resp.writeString(getId());
+      resp.writeString(name);
+      if (digest != null) {
+        resp.writeString(digest);
+      }
+      byte[] bb = resp.getBytes();
+      resp = new Response();
+
+      resp.writeByte(getVersion());
+      resp.writeInt(bb.length);
+      resp.writeBytes(bb);
+      return resp.getBytes();
+    }
+
+    /**
+     * store the content in the blob which named by the digest, and the file of
+     * the entity only keeps the head.
+     */
+    private long _store(String tag, InputStream in, long total, String name, int flag, File f) throws IOException {
+      File tmp = new File(ROOT + "/blob/tmp/" + getId() + "_" + System.nanoTime());
+      tmp.getParentFile().mkdirs();
+
+      long pos = 0;
+      MessageDigest md = null;
+      OutputStream out = null;
+      try {
+        md = MessageDigest.getInstance("SHA-256");
+        out = new FileOutputStream(tmp);
+
+        byte[] bb = new byte[16 * 1024];
+        int len = in.read(bb);
+        while (len > 0) {
+          md.update(bb, 0, len);
+          out.write(bb, 0, len);
+          pos += len;
+          len = in.read(bb);
+        }
+      } catch (IOException e) {
+        tmp.delete();
+        throw e;
+      } catch (Exception e) {
+        tmp.delete();
+        throw new IOException(e.getMessage(), e);
+      } finally {
+        if (out != null) {
+          out.close();
+        }
+        in.close();
+      }
+
+      if (total > 0 && pos < total) {
+        /**
+         * partial content, the rest will be appended, store it as normal
+         */
+        plain = true;
+        try {
+          return store(tag, 0, new FileInputStream(tmp), total, name, flag);
+        } finally {
+          plain = false;
+          tmp.delete();
+        }
+      }
+
+      String digest = new String(Hex.encodeHex(md.digest()));
+      File b = new File(blob(digest));
+
+      synchronized (lock(digest)) {
+        if (b.exists()) {
+          tmp.delete();
+        } else {
+          b.getParentFile().mkdirs();
+          if (!tmp.renameTo(b)) {
+            try {
+              IOUtil.copy(tmp, b);
+            } finally {
+              tmp.delete();
+            }
+          }
+        }
+
+        set("pos", pos);
+        set("digest", digest);
+        flag |= FLAG_BLOB;
+
+        out = new FileOutputStream(f);
+        try {
+          out.write(_head(pos, flag, pos, name, digest));
+        } finally {
+          out.close();
+        }
+
+        try {
+          if (Helper.exists(getId(), Entity.class)) {
+            Helper.update(getId(),
+                V.create("total", pos).set("tag", tag).set("expired", getExpired()).set("digest", digest)
+                    .set("flag", flag),
+                Entity.class);
+          } else {
+            Helper.insert(V.create(X.ID, getId()).set("uid", 0).set("total", pos).set("tag", tag)
+                .set("expired", getExpired()).set(X.CREATED, System.currentTimeMillis()).set("flag", flag)
+                .set("name", name).set("digest", digest), Entity.class);
+          }
+        } catch (Exception e1) {
+          log.error(e1.getMessage(), e1);
+        }
+      }
+
+      log.debug("stored in blob, id=" + this.getId() + ", digest=" + digest + ", pos=" + pos);
+      return pos;
+    }
+
     /**
      * get the inputstream of the repo Entity.
      * 
@@ -651,14 +1243,20 @@ public class Repo extends Bean {
      */
     public InputStream getInputStream() throws IOException {
       if (in == null) {
-        File f = new File(path(getFolder(), getId()));
+        if (indexed) {
+          in = _open();
+        } else {
+          File f = new File(path(getFolder(), getId()));
 
-        if (f.exists()) {
-          try {
-            in = new FileInputStream(f);
-            load(in);
-          } catch (Exception e) {
-            log.error(e.getMessage(), e);
+          if (f.exists()) {
+            try {
+              in = new FileInputStream(f);
+              if (load(in) && getPos() >= getTotal()) {
+                RepoIndex.put(this);
+              }
+            } catch (Exception e) {
+              log.error(e.getMessage(), e);
+            }
           }
         }
       }
@@ -666,6 +1264,28 @@ public class Repo extends Bean {
       return in;
     }
 
+    /**
+     * open the content by the location in the index.
+     */
+    private InputStream _open() throws IOException {
+      if (pack >= 0) {
+        return new Part(pack(pack), offset + 5 + headsize, getPos());
+      }
+
+      if (isBlob()) {
+        return new FileInputStream(blob(getDigest()));
+      }
+
+      File f = new File(path(getFolder(), getId()));
+      if (!f.exists()) {
+        RepoIndex.remove(getId());
+        return null;
+      }
+
+      // read to the end as the file
+      return new Part(f, 5 + headsize, Long.MAX_VALUE);
+    }
+
     private String getFolder() {
       return getString("folder");
     }
@@ -717,6 +1337,15 @@ public class Repo extends Bean {
         set("id", req.readString());
         set("name", req.readString());
 
+        if (isBlob()) {
+          /**
+           * the content is in the blob
+           */
+          set("digest", req.readString());
+          in.close();
+          in = new FileInputStream(blob(getDigest()));
+        }
+
         this.in = in;
 
         return true;
@@ -786,6 +1415,339 @@ public class Repo extends Bean {
     }
   }
 
+  /**
+   * the received chunks of the uploading file, it's persisted in
+   * "[file].chunks", so the upload can be resumed after restart
+   * 
+   * @author joe
+   *
+   */
+  static class Chunks {
+
+    private static Map<String, Chunks> uploads = new ConcurrentHashMap<String, Chunks>();
+
+    String                             key;
+    File                               file;
+    long                               total;
+    int                                size;
+    int                                count;
+    BitSet                             bits;
+
+    /**
+     * the offset of the data in the file
+     */
+    int                                head;
+    boolean                            inited;
+
+    static Chunks get(File f, long total, int size) throws IOException {
+      String key = f.getAbsolutePath();
+      synchronized (uploads) {
+        Chunks c = uploads.get(key);
+        if (c == null || c.total != total || c.size != size) {
+          c = new Chunks();
+          c.key = key;
+          c.file = new File(key + ".chunks");
+          c.total = total;
+          c.size = size;
+          c.count = (int) ((total + size - 1) / size);
+          c.bits = new BitSet(c.count);
+          c.load();
+          uploads.put(key, c);
+        }
+        return c;
+      }
+    }
+
+    private void load() throws IOException {
+      if (file.exists()) {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+          if (in.readLong() == total && in.readInt() == size) {
+            byte[] bb = new byte[in.readInt()];
+            in.readFully(bb);
+            bits = BitSet.valueOf(bb);
+          }
+        } finally {
+          in.close();
+        }
+      }
+    }
+
+    private void store() throws IOException {
+      byte[] bb = bits.toByteArray();
+      DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+      try {
+        out.writeLong(total);
+        out.writeInt(size);
+        out.writeInt(bb.length);
+        out.write(bb);
+      } finally {
+        out.close();
+      }
+    }
+
+    /**
+     * mark the chunk received.
+     *
+     * @param i
+     *          the index of the chunk
+     * @return true if all chunks received
+     * @throws IOException
+     *           Signals that an I/O exception has occurred.
+     */
+    synchronized boolean set(int i) throws IOException {
+      if (bits.get(i)) {
+        // duplicated
+        return false;
+      }
+      bits.set(i);
+      if (bits.cardinality() >= count) {
+        return true;
+      }
+      store();
+      return false;
+    }
+
+    /**
+     * the continuous received size from beginning.
+     */
+    synchronized long pos() {
+      return Math.min(total, (long) bits.nextClearBit(0) * size);
+    }
+
+    void remove() {
+      synchronized (uploads) {
+        uploads.remove(key);
+      }
+      file.delete();
+    }
+  }
+
+  /**
+   * the bounded inputstream of the content in the file
+   * 
+   * @author joe
+   *
+   */
+  private static class Part extends FilterInputStream {
+
+    private long remain;
+
+    Part(File f, long offset, long length) throws IOException {
+      super(new FileInputStream(f));
+      remain = length;
+
+      try {
+        while (offset > 0) {
+          long n = in.skip(offset);
+          if (n <= 0) {
+            throw new EOFException("offset=" + offset + ", file=" + f.getName());
+          }
+          offset -= n;
+        }
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remain <= 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b >= 0) {
+        remain--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remain <= 0) {
+        return -1;
+      }
+      int n = in.read(b, off, (int) Math.min(len, remain));
+      if (n > 0) {
+        remain -= n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long n1 = in.skip(Math.min(n, remain));
+      remain -= n1;
+      return n1;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(remain, in.available());
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+  }
+
+  static private File pack(int n) {
+    return new File(ROOT + "/archive/" + n + ".pack");
+  }
+
+  /**
+   * the locations of the entities in the pack, "id,offset,length" per line
+   */
+  static private File _idx(int n) {
+    return new File(ROOT + "/archive/" + n + ".idx");
+  }
+
+  /**
+   * move the entities which not accessed for days into the pack, the whole file
+   * (head and content) is appended, the pack is never rewritten.
+   */
+  private static synchronized void archive() {
+    if (ARCHIVE <= 0) {
+      return;
+    }
+
+    List<String> l1 = RepoIndex.cold(System.currentTimeMillis() - ARCHIVE * X.ADAY, 10000);
+    if (l1.isEmpty()) {
+      return;
+    }
+
+    if (pack < 0) {
+      pack = 0;
+      while (pack(pack + 1).exists()) {
+        pack++;
+      }
+    }
+
+    int n = 0;
+    FileOutputStream out = null;
+
+    /**
+     * the appended entities, [entity, file, offset, lastmodified, length], they
+     * are moved only after the pack synced to disk
+     */
+    List<Object[]> l2 = new ArrayList<Object[]>();
+    try {
+      for (String id : l1) {
+        File f = new File(path(null, id));
+        if (!f.exists()) {
+          RepoIndex.remove(id);
+          continue;
+        }
+
+        Entity e = RepoIndex.get(id);
+        if (e == null || e.isBlob()) {
+          continue;
+        }
+
+        File p = pack(pack);
+        if (p.exists() && p.length() + f.length() > PACKSIZE) {
+          if (out != null) {
+            n += _move(out, l2);
+            out.close();
+            out = null;
+          }
+          pack++;
+          p = pack(pack);
+        }
+
+        if (out == null) {
+          p.getParentFile().mkdirs();
+          out = new FileOutputStream(p, true);
+        }
+
+        long offset = out.getChannel().position();
+        long modified = f.lastModified();
+        long len = f.length();
+        InputStream in = new FileInputStream(f);
+        try {
+          IOUtil.copy(in, out, false);
+        } finally {
+          in.close();
+        }
+        l2.add(new Object[] { e, f, offset, modified, len });
+      }
+
+      if (out != null) {
+        n += _move(out, l2);
+      }
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          log.error(e);
+        }
+      }
+      RepoIndex.flush();
+    }
+
+    log.info("archived, entities=" + n + ", pack=" + pack);
+  }
+
+  /**
+   * sync the pack, record the locations in the ".idx" of the pack and the
+   * index, and delete the files only after all of them are on disk, the entity
+   * changed during archiving is kept in the file.
+   */
+  private static int _move(FileOutputStream out, List<Object[]> l2) throws IOException {
+    out.flush();
+    out.getFD().sync();
+
+    List<Object[]> l3 = new ArrayList<Object[]>();
+    StringBuilder sb = new StringBuilder();
+    for (Object[] o : l2) {
+      File f = (File) o[1];
+      if (f.lastModified() == (Long) o[3] && f.length() == (Long) o[4]) {
+        sb.append(((Entity) o[0]).getId()).append(",").append(o[2]).append(",").append(o[4]).append("\n");
+        l3.add(o);
+      }
+    }
+    l2.clear();
+
+    if (l3.isEmpty()) {
+      return 0;
+    }
+
+    FileOutputStream idx = new FileOutputStream(_idx(pack), true);
+    try {
+      idx.write(sb.toString().getBytes("UTF-8"));
+      idx.flush();
+      idx.getFD().sync();
+    } finally {
+      idx.close();
+    }
+
+    Map<String, long[]> m = packed;
+    for (Object[] o : l3) {
+      Entity e = (Entity) o[0];
+
+      /**
+       * the content is the rest of the file, the head may be wrong
+       */
+      e.set("pos", (Long) o[4] - 5 - e.headsize);
+      RepoIndex.put(e, pack, (Long) o[2]);
+      if (m != null) {
+        m.put(e.getId(), new long[] { pack, (Long) o[2], (Long) o[4] });
+      }
+    }
+    RepoIndex.flush();
+
+    for (Object[] o : l3) {
+      ((File) o[1]).delete();
+    }
+    return l3.size();
+  }
+
   static private String path(String folder, String path) {
     long id = Math.abs(UID.hash(path));
     char p1 = (char) (id % 23 + 'a');
@@ -813,15 +1775,41 @@ public class Repo extends Bean {
     File[] fs = f.listFiles();
     if (fs != null) {
       for (File f1 : fs) {
-        delete(f1);
+        if (X.isSame("blob", f1.getName())) {
+          // the blobs are released when the entity deleted, only clean the
+          // broken temporary files
+          _cleanup(new File(f1, "tmp"));
+        } else if (X.isSame("index", f1.getName()) || X.isSame("archive", f1.getName())) {
+          // not the entities
+          continue;
+        } else {
+          delete(f1);
+        }
       }
     }
 
+    archive();
+  }
+
+  private static void _cleanup(File tmp) {
+    File[] fs = tmp.listFiles();
+    if (fs != null) {
+      for (File f1 : fs) {
+        if (System.currentTimeMillis() - f1.lastModified() > X.ADAY) {
+          f1.delete();
+        }
+      }
+    }
   }
 
   private static void delete(File f) {
     if (f.isFile()) {
-      if (System.currentTimeMillis() - f.lastModified() > X.ADAY) {
+      if (f.getName().endsWith(".chunks")) {
+        // the uploading chunks, deleted with the broken file
+        if (System.currentTimeMillis() - f.lastModified() > X.ADAY) {
+          f.delete();
+        }
+      } else if (System.currentTimeMillis() - f.lastModified() > X.ADAY) {
         // check the file is fine?
         Entity e = Repo.load(null, null, f);
         if (e.getTotal() > e.getPos()) {
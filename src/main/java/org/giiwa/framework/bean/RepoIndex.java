@@ -0,0 +1,447 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.framework.bean;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.bean.UID;
+import org.giiwa.core.bean.X;
+import org.giiwa.framework.bean.Repo.Entity;
+
+/**
+ * The {@code RepoIndex} Class is the memory-mapped index of the repo, id =
+ * (location, size, flag, expired), it's a open-addressing hash table in file
+ * "{repo.path}/index/repo.idx", each record is 256 bytes.
+ *
+ * <pre>
+ * 0:   state(1), id length(1), id(30)
+ * 32:  flag(4), head size(4), pos(8), total(8), expired(8), created(8), accessed(8)
+ * 80:  pack(4), reserved(4), offset(8), uid(8)
+ * 104: name length(2), name(118), digest(32)
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+class RepoIndex {
+
+  static Log                   log      = LogFactory.getLog(RepoIndex.class);
+
+  private static final int     RECORD   = 256;
+  private static final int     ID       = 30;
+  private static final int     NAME     = 118;
+
+  private static final byte    EMPTY    = 0;
+  private static final byte    USED     = 1;
+  private static final byte    DELETED  = 2;
+
+  private static final int     MAX      = 1 << 23;
+
+  /**
+   * the accessed time is updated at most once in the interval
+   */
+  private static final long    TOUCH    = X.AHOUR;
+
+  private static ReadWriteLock lock     = new ReentrantReadWriteLock();
+
+  private static String        ROOT;
+  private static MappedByteBuffer buf;
+  private static int           capacity;
+  private static int           used;
+  private static int           deleted;
+
+  /**
+   * open or create the index file.
+   *
+   * @param root
+   *          the repo path
+   * @param initial
+   *          the initial capacity
+   */
+  static void init(String root, int initial) {
+    lock.writeLock().lock();
+    try {
+      ROOT = root;
+      File f = new File(ROOT + "/index/repo.idx");
+      if (f.exists()) {
+        capacity = (int) (f.length() / RECORD) - 1;
+      } else {
+        f.getParentFile().mkdirs();
+        capacity = Integer.highestOneBit(Math.max(1024, initial));
+      }
+
+      buf = _map(f, capacity);
+      used = 0;
+      deleted = 0;
+      for (int i = 0; i < capacity; i++) {
+        byte s = buf.get(_offset(i));
+        if (s == USED) {
+          used++;
+        } else if (s == DELETED) {
+          deleted++;
+        }
+      }
+
+      log.info("repo index loaded, capacity=" + capacity + ", used=" + used + ", deleted=" + deleted);
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+      buf = null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * get the entity from the index.
+   *
+   * @param id
+   *          the id
+   * @return the Entity, or null if not indexed
+   */
+  static Entity get(String id) {
+    if (buf == null || X.isEmpty(id)) {
+      return null;
+    }
+
+    lock.readLock().lock();
+    try {
+      int i = _find(id);
+      if (i < 0) {
+        return null;
+      }
+
+      int p = _offset(i);
+      Entity e = new Entity();
+      e.set(X.ID, id);
+      e.set("flag", buf.getInt(p + 32));
+      e.headsize = buf.getInt(p + 36);
+      e.set("pos", buf.getLong(p + 40));
+      e.set("total", buf.getLong(p + 48));
+      e.set("expired", buf.getLong(p + 56));
+      e.set(X.CREATED, buf.getLong(p + 64));
+      e.pack = buf.getInt(p + 80);
+      e.offset = buf.getLong(p + 88);
+      e.set("uid", buf.getLong(p + 96));
+      e.set("name", _string(p + 104, NAME));
+      if (e.isBlob()) {
+        byte[] bb = new byte[32];
+        for (int k = 0; k < bb.length; k++) {
+          bb[k] = buf.get(p + 224 + k);
+        }
+        e.set("digest", new String(Hex.encodeHex(bb)));
+      }
+      e.indexed = true;
+
+      long now = System.currentTimeMillis();
+      if (now - buf.getLong(p + 72) > TOUCH) {
+        buf.putLong(p + 72, now);
+      }
+
+      return e;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * put the entity in the index, the entity MUST loaded the head.
+   *
+   * @param e
+   *          the entity
+   */
+  static void put(Entity e) {
+    put(e, -1, 0);
+  }
+
+  /**
+   * put the entity in the index with the location in the pack.
+   *
+   * @param e
+   *          the entity
+   * @param pack
+   *          the pack number, -1 if not archived
+   * @param offset
+   *          the offset in the pack
+   */
+  static void put(Entity e, int pack, long offset) {
+    if (buf == null) {
+      return;
+    }
+
+    String id = e.getId();
+    byte[] name = _bytes(e.getName());
+    byte[] bid = _bytes(id);
+    if (bid.length > ID || name.length > NAME) {
+      // can not index it, load it from the database
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      if ((used + deleted + 1) * 4L > capacity * 3L) {
+        _grow();
+      }
+
+      int i = _find(id);
+      if (i < 0) {
+        i = _slot(id);
+        if (i < 0) {
+          return;
+        }
+        if (buf.get(_offset(i)) == DELETED) {
+          deleted--;
+        }
+        used++;
+      }
+
+      int p = _offset(i);
+      buf.put(p, USED);
+      buf.put(p + 1, (byte) bid.length);
+      _put(p + 2, bid, ID);
+      buf.putInt(p + 32, e.getFlag());
+      buf.putInt(p + 36, e.headsize);
+      buf.putLong(p + 40, e.getPos());
+      buf.putLong(p + 48, e.getTotal());
+      buf.putLong(p + 56, e.getExpired());
+      buf.putLong(p + 64, e.getCreated());
+      buf.putLong(p + 72, System.currentTimeMillis());
+      buf.putInt(p + 80, pack);
+      buf.putLong(p + 88, offset);
+      buf.putLong(p + 96, e.getLong("uid"));
+      buf.putShort(p + 104, (short) name.length);
+      _put(p + 106, name, NAME);
+      if (e.isBlob() && e.getDigest() != null) {
+        try {
+          _put(p + 224, Hex.decodeHex(e.getDigest().toCharArray()), 32);
+        } catch (Exception e1) {
+          log.error(e1.getMessage(), e1);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * remove the entity from the index.
+   *
+   * @param id
+   *          the id
+   */
+  static void remove(String id) {
+    if (buf == null || X.isEmpty(id)) {
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      int i = _find(id);
+      if (i >= 0) {
+        buf.put(_offset(i), DELETED);
+        used--;
+        deleted++;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * get the ids which are not accessed since the time, and not archived, the
+   * blob is shared by entities, it's not archived.
+   *
+   * @param before
+   *          the time
+   * @param max
+   *          the max number
+   * @return the list of id
+   */
+  static List<String> cold(long before, int max) {
+    List<String> l1 = new ArrayList<String>();
+    if (buf == null) {
+      return l1;
+    }
+
+    lock.readLock().lock();
+    try {
+      for (int i = 0; i < capacity && l1.size() < max; i++) {
+        int p = _offset(i);
+        if (buf.get(p) == USED && buf.getInt(p + 80) < 0 && (buf.getInt(p + 32) & Repo.FLAG_BLOB) == 0
+            && buf.getLong(p + 72) < before) {
+          l1.add(_id(p));
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return l1;
+  }
+
+  /**
+   * flush the index to disk.
+   */
+  static void flush() {
+    if (buf != null) {
+      buf.force();
+    }
+  }
+
+  private static int _find(String id) {
+    int mask = capacity - 1;
+    int i = (int) (UID.hash(id) & mask);
+    for (int n = 0; n < capacity; n++) {
+      int p = _offset(i);
+      byte s = buf.get(p);
+      if (s == EMPTY) {
+        return -1;
+      }
+      if (s == USED && X.isSame(id, _id(p))) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  private static int _slot(String id) {
+    int mask = capacity - 1;
+    int i = (int) (UID.hash(id) & mask);
+    for (int n = 0; n < capacity; n++) {
+      if (buf.get(_offset(i)) != USED) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * double the capacity, the deleted records are dropped.
+   */
+  private static void _grow() throws IOException {
+    int n = deleted * 2 > used ? capacity : capacity * 2;
+    if (n > MAX) {
+      return;
+    }
+
+    File f1 = new File(ROOT + "/index/repo.idx");
+    File f2 = new File(ROOT + "/index/repo.idx.tmp");
+    f2.delete();
+
+    MappedByteBuffer old = buf;
+    int oldcapacity = capacity;
+
+    buf = _map(f2, n);
+    capacity = n;
+    used = 0;
+    deleted = 0;
+
+    byte[] bb = new byte[RECORD];
+    for (int i = 0; i < oldcapacity; i++) {
+      int p = _offset(i);
+      if (old.get(p) == USED) {
+        for (int k = 0; k < RECORD; k++) {
+          bb[k] = old.get(p + k);
+        }
+        String id = new String(bb, 2, bb[1], "UTF-8");
+        int j = _slot(id);
+        int p1 = _offset(j);
+        for (int k = 0; k < RECORD; k++) {
+          buf.put(p1 + k, bb[k]);
+        }
+        used++;
+      }
+    }
+
+    buf.force();
+    if (!f1.delete() || !f2.renameTo(f1)) {
+      log.error("rename repo index failed, " + f2.getAbsolutePath());
+    }
+
+    log.info("repo index grown, capacity=" + capacity + ", used=" + used);
+  }
+
+  private static MappedByteBuffer _map(File f, int capacity) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    try {
+      long size = (long) (capacity + 1) * RECORD;
+      if (raf.length() < size) {
+        raf.setLength(size);
+      }
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static int _offset(int i) {
+    return (i + 1) * RECORD;
+  }
+
+  private static String _id(int p) {
+    int len = buf.get(p + 1);
+    byte[] bb = new byte[len];
+    for (int k = 0; k < len; k++) {
+      bb[k] = buf.get(p + 2 + k);
+    }
+    try {
+      return new String(bb, "UTF-8");
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static String _string(int p, int max) {
+    int len = Math.min(max, buf.getShort(p));
+    byte[] bb = new byte[len];
+    for (int k = 0; k < len; k++) {
+      bb[k] = buf.get(p + 2 + k);
+    }
+    try {
+      return new String(bb, "UTF-8");
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static byte[] _bytes(String s) {
+    if (s == null) {
+      return new byte[0];
+    }
+    try {
+      return s.getBytes("UTF-8");
+    } catch (Exception e) {
+      return new byte[0];
+    }
+  }
+
+  private static void _put(int p, byte[] bb, int max) {
+    for (int k = 0; k < max; k++) {
+      buf.put(p + k, k < bb.length ? bb[k] : 0);
+    }
+  }
+
+}
@@ -125,6 +125,7 @@ public class Role extends Bean {
       if (!Helper.exists(W.create("rid", rid).and("name", name), RoleAccess.class)) {
         Helper.insert(V.create("rid", rid).set("name", name).set(X.ID, UID.id(rid, name)), RoleAccess.class);
         Helper.update(W.create(X.ID, rid), V.create(X.UPDATED, System.currentTimeMillis()), Role.class);
+        _touch(rid);
       }
     } catch (Exception e1) {
       log.error(e1.getMessage(), e1);
@@ -144,9 +145,19 @@ public class Role extends Bean {
     Helper.delete(W.create("rid", rid).and("name", name), RoleAccess.class);
 
     Helper.update(W.create(X.ID, rid), V.create(X.UPDATED, System.currentTimeMillis()), Role.class);
+    _touch(rid);
 
   }
 
+  /**
+   * the accesses of the role changed, drop the cached role and the compiled
+   * Roles.
+   */
+  private static void _touch(long rid) {
+    Cache.remove("role://" + rid);
+    Roles.touch();
+  }
+
   /**
    * Load all.
    * 
@@ -260,6 +271,7 @@ public class Role extends Bean {
         Helper.insert(V.create("rid", this.getId()).set("name", a).set(X.ID, UID.id(this.getId(), a)),
             RoleAccess.class);
       }
+      _touch(this.getId());
     }
   }
 
@@ -271,7 +283,9 @@ public class Role extends Bean {
    * @return the int
    */
   public static int delete(long id) {
-    return Helper.delete(id, Role.class);
+    int n = Helper.delete(id, Role.class);
+    _touch(id);
+    return n;
   }
 
   @Table(name = "gi_roleaccess")
@@ -15,11 +15,19 @@
 package org.giiwa.framework.bean;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.giiwa.core.bean.*;
+import org.giiwa.core.bean.Helper.W;
+import org.giiwa.framework.bean.User.UserRole;
 
 /**
- * group roles.
+ * group roles, the accesses of the roles are compiled to a immutable bitset of
+ * the access id (see Access.id), the check is bit test without lock and
+ * database. <br>
+ * the Roles of the user is cached, and rebuilt when any role changed (touch),
+ * or expired in a minute, the change on other node.
  * 
  * @author yjiang
  * 
@@ -29,11 +37,20 @@ public class Roles extends Bean {
   /**
   * 
   */
-  private static final long serialVersionUID = 1L;
+  private static final long                         serialVersionUID = 1L;
 
-  private Set<String>       access;
+  private static AtomicLong                         version          = new AtomicLong(0);
+  private static ConcurrentHashMap<Long, Roles>     cache            = new ConcurrentHashMap<Long, Roles>();
+  private static ConcurrentHashMap<String, int[][]> exprs            = new ConcurrentHashMap<String, int[][]>();
 
-  List<Role>                list;
+  private Set<String>                               access;
+
+  List<Role>                                        list;
+
+  private final BitSet                              bits             = new BitSet();
+  private long                                      ver;
+  private long                                      created          = System.currentTimeMillis();
+  private String                                    fingerprint;
 
   public List<Role> getList() {
     return list;
@@ -60,7 +77,60 @@ public class Roles extends Bean {
           access.addAll(names);
         }
       }
+
+      for (String s : access) {
+        bits.set(Access.id(s));
+      }
+    }
+  }
+
+  /**
+   * get the roles of the user, cached.
+   * 
+   * @param uid
+   *          the user id
+   * @return the Roles
+   */
+  public static Roles get(long uid) {
+    long v = version.get();
+    Roles r = cache.get(uid);
+    if (r != null && r.ver == v && System.currentTimeMillis() - r.created < X.AMINUTE) {
+      return r;
+    }
+
+    List<Long> roles = new ArrayList<Long>();
+    Beans<UserRole> bs = Helper.load(W.create("uid", uid), 0, 100, UserRole.class);
+    if (bs != null && bs.getList() != null) {
+      for (UserRole r1 : bs.getList()) {
+        roles.add(r1.getLong("rid"));
+      }
     }
+
+    r = new Roles(roles);
+    r.ver = v;
+    cache.put(uid, r);
+    return r;
+  }
+
+  /**
+   * get the fingerprint of the accesses, the roles with same accesses have same
+   * fingerprint.
+   * 
+   * @return the String
+   */
+  public String getFingerprint() {
+    if (fingerprint == null) {
+      fingerprint = Arrays.toString(bits.toLongArray());
+    }
+    return fingerprint;
+  }
+
+  /**
+   * the roles or the user roles changed, the cached Roles will be rebuilt.
+   */
+  public static void touch() {
+    version.incrementAndGet();
+    cache.clear();
   }
 
   /**
@@ -75,34 +145,76 @@ public class Roles extends Bean {
       return true;
     }
 
-    if (access != null && access.size() > 0) {
+    if (!bits.isEmpty()) {
       for (String s : name) {
-        if (access.contains(s)) {
+        if (!X.isEmpty(s) && _has(Access.intern(s, true))) {
           return true;
         }
+      }
 
-        /**
-         * test the name exists in while access? if not then add it in DB
-         */
-        if (!X.isEmpty(s)) {
-          Access.set(s);
-        }
+      return bits.get(Access.id("access.config.admin"));
+    }
+    return false;
+  }
 
-        /**
-         * check if has admin ?
-         */
-        int i = s.lastIndexOf(".");
-        if (i > 0) {
-          String s1 = s.substring(0, i) + ".admin";
-          if (access.contains(s1)) {
-            return true;
-          }
-        }
-      }
+  /**
+   * test the access expression, "a|b" has anyone, "a&b" has all of them, the
+   * expression is compiled once.
+   * 
+   * @param expr
+   *          the expression
+   * @return true, if successful
+   */
+  public boolean test(String expr) {
+    if (X.isEmpty(expr)) {
+      return true;
+    }
+    if (bits.isEmpty()) {
+      return false;
+    }
+
+    if (bits.get(Access.id("access.config.admin"))) {
+      return true;
+    }
 
-      return access.contains("access.config.admin");
+    int[][] e = exprs.get(expr);
+    if (e == null) {
+      e = _compile(expr);
+      exprs.put(expr, e);
+    }
+
+    for (int[] all : e) {
+      boolean has = true;
+      for (int i = 0; i < all.length && has; i += 2) {
+        has = bits.get(all[i]) || (all[i + 1] >= 0 && bits.get(all[i + 1]));
+      }
+      if (has) {
+        return true;
+      }
     }
     return false;
   }
 
+  /**
+   * compile to the alternatives, each is the pairs of {id, admin id}.
+   */
+  private static int[][] _compile(String expr) {
+    String[] ss = expr.split("\\|");
+    int[][] e = new int[ss.length][];
+    for (int i = 0; i < ss.length; i++) {
+      String[] s1 = ss[i].split("\\&");
+      e[i] = new int[s1.length * 2];
+      for (int j = 0; j < s1.length; j++) {
+        int[] a = Access.intern(s1[j].trim(), true);
+        e[i][j * 2] = a[0];
+        e[i][j * 2 + 1] = a[1];
+      }
+    }
+    return e;
+  }
+
+  private boolean _has(int[] a) {
+    return bits.get(a[0]) || (a[1] >= 0 && bits.get(a[1]));
+  }
+
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.framework.bean;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.base.GImage;
+import org.giiwa.core.base.MD5;
+import org.giiwa.core.bean.UID;
+import org.giiwa.core.bean.X;
+import org.giiwa.core.task.Group;
+import org.giiwa.core.task.Task;
+import org.giiwa.framework.bean.Repo.Entity;
+import org.giiwa.framework.web.Model;
+
+/**
+ * The {@code Thumbnail} Class used to create the thumbnail of the image in
+ * repo, the same thumbnail (id, size) is generated only once even requested
+ * concurrently, and the result is kept in a size-bounded LRU directory. <br>
+ * configuration in giiwa.properties
+ *
+ * <pre>
+ * thumbnail.path=/opt/thumbnail
+ * thumbnail.maxsize=1073741824
+ * thumbnail.threads=4
+ * thumbnail.queue=100
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+public class Thumbnail {
+
+  static Log                                   log     = LogFactory.getLog(Thumbnail.class);
+
+  /**
+   * scale the image to cover the size, and cut the middle
+   */
+  public static final String                   COVER   = "s";
+
+  /**
+   * scale the image to fit in the size
+   */
+  public static final String                   FIT     = "s1";
+
+  private static String                        ROOT;
+
+  private static long                          MAX_SIZE;
+
+  private static final long                    TIMEOUT = X.AMINUTE;
+
+  private static ThreadPoolExecutor            executor;
+
+  /**
+   * the generating thumbnails, used to de-duplicate the concurrent requests
+   */
+  private static Map<String, FutureTask<File>> pending = new ConcurrentHashMap<String, FutureTask<File>>();
+
+  /**
+   * the LRU index of the generated thumbnails, name=size
+   */
+  private static LinkedHashMap<String, Long>   index   = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+  private static long                          size    = 0;
+
+  /**
+   * Initialize the Thumbnail, this will be invoke when giiwa startup
+   *
+   * @param conf
+   *          the conf
+   */
+  public static void init(Configuration conf) {
+    /**
+     * not in the temp.path, the temp files are deleted by the cleanup task
+     */
+    ROOT = conf.getString("thumbnail.path", Model.GIIWA_HOME + "/thumbnail");
+    MAX_SIZE = conf.getLong("thumbnail.maxsize", 1024L * 1024 * 1024);
+
+    int n = conf.getInt("thumbnail.threads", Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    executor = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(conf.getInt("thumbnail.queue", 100)), new ThreadFactory() {
+
+          AtomicInteger i = new AtomicInteger(1);
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread th = new Thread(r);
+            th.setName("thumbnail-" + i.incrementAndGet());
+            th.setDaemon(true);
+            return th;
+          }
+
+        });
+    executor.allowCoreThreadTimeOut(true);
+
+    /**
+     * rebuild the index from the directory
+     */
+    new Task() {
+
+      @Override
+      public String getName() {
+        return "thumbnail.index";
+      }
+
+      @Override
+      public String getGroup() {
+        return Group.BACKGROUND;
+      }
+
+      @Override
+      public void onExecute() {
+        _index();
+      }
+
+    }.schedule(0);
+  }
+
+  /**
+   * get the thumbnail of the repo entity, generate it if not exists.
+   *
+   * @param id
+   *          the id of repo entity
+   * @param mode
+   *          the mode, COVER or FIT
+   * @param w
+   *          the width
+   * @param h
+   *          the height
+   * @return the File of thumbnail, or null if failed
+   */
+  public static File get(final String id, final String mode, final int w, final int h) {
+    if (executor == null || w <= 0 || h <= 0) {
+      return null;
+    }
+
+    final String name = MD5.md5(id) + "_" + mode + "_" + w + "x" + h + ".png";
+    final File f = file(name);
+
+    synchronized (index) {
+      if (index.get(name) != null) {
+        if (f.exists()) {
+          return f;
+        }
+        size -= index.remove(name);
+      }
+    }
+
+    if (f.exists()) {
+      // generated before, but not indexed yet
+      _add(name, f.length());
+      return f;
+    }
+
+    FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+
+      @Override
+      public File call() throws Exception {
+        try {
+          return _create(id, mode, w, h, f, name);
+        } finally {
+          pending.remove(name);
+        }
+      }
+
+    });
+
+    FutureTask<File> old = pending.putIfAbsent(name, task);
+
+    if (old == null) {
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        pending.remove(name);
+        log.warn("too many thumbnails in queue, ignore: " + name);
+        return null;
+      }
+      old = task;
+    }
+
+    try {
+      return old.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      log.error(name, e);
+    }
+    return null;
+  }
+
+  private static File _create(String id, String mode, int w, int h, File f, String name) throws Exception {
+
+    Entity e = Repo.load(id);
+    if (e == null) {
+      return null;
+    }
+
+    try {
+      InputStream in = e.getInputStream();
+      if (in == null) {
+        return null;
+      }
+
+      BufferedImage img = GImage.read(in, w, h);
+      if (img == null) {
+        return null;
+      }
+
+      BufferedImage out = X.isSame(FIT, mode) ? GImage.fit(img, w, h) : GImage.cover(img, w, h);
+      if (out == null) {
+        return null;
+      }
+
+      f.getParentFile().mkdirs();
+      File tmp = new File(f.getAbsolutePath() + ".tmp");
+      ImageIO.write(out, "png", tmp);
+      if (!tmp.renameTo(f)) {
+        tmp.delete();
+        return null;
+      }
+
+      _add(name, f.length());
+
+      return f;
+    } finally {
+      e.close();
+    }
+  }
+
+  private static void _add(String name, long len) {
+    synchronized (index) {
+      Long old = index.put(name, len);
+      size += len - (old == null ? 0 : old);
+
+      /**
+       * evict the least recently used
+       */
+      Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+      while (size > MAX_SIZE && it.hasNext()) {
+        Map.Entry<String, Long> e = it.next();
+        if (X.isSame(name, e.getKey())) {
+          continue;
+        }
+        file(e.getKey()).delete();
+        size -= e.getValue();
+        it.remove();
+      }
+    }
+  }
+
+  private static void _index() {
+    List<File> l1 = new ArrayList<File>();
+    _scan(new File(ROOT), l1);
+
+    Collections.sort(l1, new Comparator<File>() {
+
+      @Override
+      public int compare(File o1, File o2) {
+        long t1 = o1.lastModified();
+        long t2 = o2.lastModified();
+        return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+      }
+
+    });
+
+    for (File f : l1) {
+      if (f.getName().endsWith(".tmp")) {
+        f.delete();
+      } else {
+        _add(f.getName(), f.length());
+      }
+    }
+
+    log.info("thumbnail indexed, files=" + l1.size() + ", size=" + size);
+  }
+
+  private static void _scan(File f, List<File> l1) {
+    if (f.isFile()) {
+      l1.add(f);
+    } else if (f.isDirectory()) {
+      File[] fs = f.listFiles();
+      if (fs != null) {
+        for (File f1 : fs) {
+          _scan(f1, l1);
+        }
+      }
+    }
+  }
+
+  private static File file(String name) {
+    long id = Math.abs(UID.hash(name));
+    char p1 = (char) (id % 23 + 'a');
+    char p2 = (char) (id % 19 + 'A');
+
+    return new File(ROOT + "/" + p1 + "/" + p2 + "/" + name);
+  }
+
+}
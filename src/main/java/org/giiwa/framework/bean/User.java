@@ -360,32 +360,30 @@ public class User extends Bean {
     }
 
     // log.debug("uid=" + this.getId() + ", access=" + Helper.toString(name));
-    if (role == null) {
-      getRole();
-    }
-
-    return role.hasAccess(name);
+    return getRole().hasAccess(name);
   }
 
-  transient Roles role = null;
+  /**
+   * Checks the access expression, "a|b" has anyone, "a&b" has all of them.
+   * 
+   * @param expr
+   *          the access expression
+   * @return true, if has
+   */
+  public boolean can(String expr) {
+    if (this.getId() == 0L) {
+      return X.isEmpty(expr) || hasAccess(expr.split("[\\|\\&]"));
+    }
+    return getRole().test(expr);
+  }
 
   /**
-   * get the roles for the user
+   * get the roles for the user, it's cached and shared by the user objects
    * 
    * @return Roles
    */
   public Roles getRole() {
-    if (role == null) {
-      Beans<UserRole> bs = Helper.load(W.create("uid", this.getId()), 0, 100, UserRole.class);
-      if (bs != null && bs.getList() != null) {
-        List<Long> roles = new ArrayList<Long>();
-        for (UserRole r : bs.getList()) {
-          roles.add(r.getLong("rid"));
-        }
-        role = new Roles(roles);
-      }
-    }
-    return role;
+    return Roles.get(this.getId());
   }
 
   /**
@@ -398,6 +396,7 @@ public class User extends Bean {
     try {
       if (!Helper.exists(W.create("uid", this.getId()).and("rid", rid), UserRole.class)) {
         Helper.insert(V.create("uid", this.getId()).set("rid", rid), UserRole.class);
+        Roles.touch();
       }
     } catch (Exception e) {
       log.error(e.getMessage(), e);
@@ -412,6 +411,7 @@ public class User extends Bean {
    */
   public void removeRole(long rid) {
     Helper.delete(W.create("uid", this.getId()).and("rid", rid), UserRole.class);
+    Roles.touch();
   }
 
   /**
@@ -419,6 +419,7 @@ public class User extends Bean {
    */
   public void removeAllRoles() {
     Helper.delete(W.create("uid", this.getId()), UserRole.class);
+    Roles.touch();
 
   }
 
@@ -19,6 +19,7 @@ import java.io.*;
 import org.giiwa.core.bean.X;
 import org.giiwa.core.conf.Global;
 import org.giiwa.core.conf.Local;
+import org.giiwa.framework.web.view.AssetCache;
 
 /**
  * default model for which model has not found
@@ -70,7 +71,10 @@ public class DefaultModel extends Model {
 
   private boolean _onPost(String uri) {
     uri = uri.replaceAll("//", "/");
-    File f = Module.home.getFile(uri);
+    File f = AssetCache.file(uri);
+    if (f == null) {
+      f = Module.home.getFile(uri);
+    }
     if (f != null && f.exists() && f.isFile()) {
       this.set(this.getJSON());
 
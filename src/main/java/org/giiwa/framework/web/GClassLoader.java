@@ -23,25 +23,45 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
 import java.util.zip.ZipEntry;
 
 // TODO: Auto-generated Javadoc
 /**
  * the {@code GClassLoader} Class lets loading modules/[module]/model/[*.jars]
+ * <br>
+ * the entries of the jars are indexed when the jar added, the class or
+ * resource is found by the index without searching all the jars, it's
+ * parallel capable, the classes are locked by name.
  * 
  * @author yjiang
  *
  */
 public class GClassLoader extends ClassLoader {
 
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
     private static final int BUFFER_SIZE = 8192;
 
-    ArrayList<JarFile> jarFiles = new ArrayList<JarFile>();
+    List<JarFile> jarFiles = new CopyOnWriteArrayList<JarFile>();
 
     HashMap<String, Object> resources = new HashMap<String, Object>();
 
+    /**
+     * the entry name -> the first jar which has it
+     */
+    ConcurrentHashMap<String, JarFile> index = new ConcurrentHashMap<String, JarFile>();
+
     private ClassLoader parent;
 
     /**
@@ -63,14 +83,12 @@ public class GClassLoader extends ClassLoader {
     public URL getResource(String name) {
 
         log("getResource:" + name);
-        for (JarFile j : jarFiles) {
-            ZipEntry z = j.getEntry(name);
-            if (z != null) {
-                try {
-                    return new URL("file://" + j.getName() + "!/" + name);
-                } catch (MalformedURLException e) {
-                    e.printStackTrace();
-                }
+        JarFile j = _find(name);
+        if (j != null) {
+            try {
+                return new URL("file://" + j.getName() + "!/" + name);
+            } catch (MalformedURLException e) {
+                e.printStackTrace();
             }
         }
 
@@ -87,14 +105,12 @@ public class GClassLoader extends ClassLoader {
 
         log("getResourceAsStream:" + name);
 
-        for (JarFile j : jarFiles) {
-            ZipEntry z = j.getEntry(name);
-            if (z != null) {
-                try {
-                    return j.getInputStream(z);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+        JarFile j = _find(name);
+        if (j != null) {
+            try {
+                return j.getInputStream(j.getEntry(name));
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 
@@ -145,25 +161,76 @@ public class GClassLoader extends ClassLoader {
      *            the name
      */
     public void addJar(String name) {
+        List<String> l1 = new ArrayList<String>();
+        l1.add(name);
+        addJars(l1);
+    }
+
+    /**
+     * Adds the jars, the jars are opened and indexed in parallel, and added in
+     * the order of the list, the first jar wins if the entry duplicated.
+     * 
+     * @param names
+     *            the jar files
+     */
+    public void addJars(List<String> names) {
+        int n = Math.max(1, Math.min(names.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(n);
         try {
-            if (name.endsWith(".jar")) {
-                // log(name);
-                JarFile f = new JarFile(name);
-                jarFiles.add(f);
+            List<Future<Object[]>> l1 = new ArrayList<Future<Object[]>>();
+            for (final String name : names) {
+                if (name.endsWith(".jar")) {
+                    l1.add(pool.submit(new Callable<Object[]>() {
+
+                        @Override
+                        public Object[] call() throws Exception {
+                            JarFile f = new JarFile(name);
+                            List<String> entries = new ArrayList<String>();
+                            Enumeration<? extends ZipEntry> e = f.entries();
+                            while (e.hasMoreElements()) {
+                                String s = e.nextElement().getName();
+                                entries.add(s);
+                                if (s.endsWith("/")) {
+                                    // getEntry("a/b") finds the "a/b/" also
+                                    entries.add(s.substring(0, s.length() - 1));
+                                }
+                            }
+                            return new Object[] { f, entries };
+                        }
+
+                    }));
+                }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+
+            for (Future<Object[]> f1 : l1) {
+                try {
+                    Object[] oo = f1.get();
+                    JarFile f = (JarFile) oo[0];
+                    @SuppressWarnings("unchecked")
+                    List<String> entries = (List<String>) oo[1];
+                    for (String s : entries) {
+                        index.putIfAbsent(s, f);
+                    }
+                    jarFiles.add(f);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            pool.shutdown();
         }
     }
 
+    private JarFile _find(String name) {
+        return name == null ? null : index.get(name);
+    }
+
     private InputStream getInputStream(String name) throws IOException {
         log("getInputStream:" + name);
 
-        for (JarFile f : jarFiles) {
-            ZipEntry z = f.getEntry(name);
-            if (z != null) {
-                return f.getInputStream(z);
-            }
+        JarFile f = _find(name);
+        if (f != null) {
+            return f.getInputStream(f.getEntry(name));
         }
 
         log("getInputStream:" + name + ": NULL");
@@ -175,7 +242,13 @@ public class GClassLoader extends ClassLoader {
      * 
      * @see java.lang.ClassLoader#loadClass(java.lang.String, boolean)
      */
-    protected synchronized Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+    protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(className)) {
+            return _loadClass(className, resolve);
+        }
+    }
+
+    private Class<?> _loadClass(String className, boolean resolve) throws ClassNotFoundException {
 
         log("loadClass:" + className);
 
@@ -15,6 +15,7 @@
 package org.giiwa.framework.web;
 
 import java.io.File;
+import java.util.Iterator;
 
 import javax.servlet.*;
 
@@ -26,9 +27,11 @@ import org.giiwa.core.bean.X;
 import org.giiwa.core.bean.helper.RDB;
 import org.giiwa.core.cache.Cache;
 import org.giiwa.core.conf.Config;
+import org.giiwa.core.task.Group;
 import org.giiwa.core.task.Task;
 import org.giiwa.framework.bean.Repo;
 import org.giiwa.framework.bean.Temp;
+import org.giiwa.framework.bean.Thumbnail;
 
 // TODO: Auto-generated Javadoc
 /**
@@ -117,7 +120,18 @@ public class GiiwaContextListener implements ServletContextListener {
        */
       Helper.init(conf);
 
-      Task.init(conf.getInt("thread.number", 20));
+      Task.init(conf.getInt("thread.number", 20), conf.getString("task.io", "off"), conf.getInt("task.io.max", 256));
+
+      /**
+       * the task groups, task.group.[name]=weight,max,queue
+       */
+      Iterator<String> it = conf.getKeys("task.group");
+      while (it.hasNext()) {
+        String key = it.next();
+        String[] ss = conf.getStringArray(key);
+        Group.create(key.substring("task.group.".length()), X.toInt(ss.length > 0 ? ss[0] : null, 1),
+            X.toInt(ss.length > 1 ? ss[1] : null, 0), X.toInt(ss.length > 2 ? ss[2] : null, 0));
+      }
 
       /**
        * initialize the controller, this MUST place in the end !:-)
@@ -134,6 +148,11 @@ public class GiiwaContextListener implements ServletContextListener {
        */
       Temp.init(conf);
 
+      /**
+       * initialize the thumbnail
+       */
+      Thumbnail.init(conf);
+
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -38,6 +38,8 @@ import org.giiwa.core.conf.Global;
 import org.giiwa.core.conf.Local;
 import org.giiwa.core.json.JSON;
 import org.giiwa.framework.bean.*;
+import org.giiwa.framework.web.view.AssetCache;
+import org.giiwa.framework.web.view.TemplateCache;
 import org.giiwa.framework.web.view.View;
 
 /**
@@ -165,9 +167,23 @@ public class Model {
    *           occur error when get the outputstream from the reqponse.
    */
   final public OutputStream getOutputStream() throws IOException {
+    /**
+     * finish the writer first, keep the order of the content
+     */
+    Output.finish(req);
     return resp.getOutputStream();
   }
 
+  /**
+   * get the response as writer, the content is buffered, and compressed if the
+   * client accepted, it's finished at the end of the dispatch.
+   * 
+   * @return Writer
+   */
+  final public Writer getWriter() {
+    return Output.get(req, resp);
+  }
+
   /**
    * the response status
    */
@@ -562,6 +578,8 @@ public class Model {
       _currentmodule.remove();
 
       Module.home.after(this);
+
+      Output.finish(req);
     }
     return null;
   }
@@ -1780,7 +1798,12 @@ public class Model {
     if (jo == null) {
       responseJson("{}");
     } else {
-      responseJson(jo.toString());
+      this.setContentType(Model.MIME_JSON);
+      try {
+        jo.toJson(getWriter());
+      } catch (Exception e) {
+        log.error(e.getMessage(), e);
+      }
     }
   }
 
@@ -1809,7 +1832,25 @@ public class Model {
     if (arr == null) {
       responseJson("[]");
     } else {
-      responseJson(arr.toString());
+      this.setContentType(Model.MIME_JSON);
+      try {
+        Writer out = getWriter();
+        out.write("[");
+        for (int i = 0; i < arr.size(); i++) {
+          if (i > 0) {
+            out.write(", ");
+          }
+          JSON jo = arr.get(i);
+          if (jo == null) {
+            out.write("null");
+          } else {
+            jo.toJson(out);
+          }
+        }
+        out.write("]");
+      } catch (Exception e) {
+        log.error(e.getMessage(), e);
+      }
     }
   }
 
@@ -1839,8 +1880,11 @@ public class Model {
       this.set("query", this.query);
 
       // TimeStamp t1 = TimeStamp.create();
-      File file = Module.home.getFile(viewname);
-      if (file != null && file.exists()) {
+      File file = AssetCache.file(viewname);
+      if (file == null) {
+        file = TemplateCache.file(viewname);
+      }
+      if (file != null) {
         View.merge(file, this, viewname);
 
         // if (log.isDebugEnabled())
@@ -2176,10 +2220,7 @@ public class Model {
    */
   final public void print(Object o) {
     try {
-      BufferedWriter writer = new BufferedWriter(resp.getWriter());
-
-      writer.write(o.toString());
-      writer.flush();
+      getWriter().write(String.valueOf(o));
     } catch (Exception e) {
       if (log.isErrorEnabled())
         log.error(o, e);
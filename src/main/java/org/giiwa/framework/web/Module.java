@@ -18,6 +18,10 @@ import java.io.*;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.zip.*;
 
@@ -32,7 +36,6 @@ import org.dom4j.io.XMLWriter;
 import org.giiwa.app.web.DefaultListener;
 import org.giiwa.core.base.FileVersion;
 import org.giiwa.core.base.IOUtil;
-import org.giiwa.core.bean.Beans;
 import org.giiwa.core.bean.Helper.W;
 import org.giiwa.core.bean.X;
 import org.giiwa.core.conf.Global;
@@ -42,6 +45,8 @@ import org.giiwa.framework.bean.Menu;
 import org.giiwa.framework.bean.Repo.Entity;
 import org.giiwa.framework.bean.User;
 import org.giiwa.framework.web.Model.PathMapping;
+import org.giiwa.framework.web.view.AssetCache;
+import org.giiwa.framework.web.view.TemplateCache;
 
 /**
  * module includes: a module.xml, a group of model/view/images/css/js/language,
@@ -356,6 +361,8 @@ public class Module {
    */
   public static void reset() {
     modelMap.clear();
+    AssetCache.clean();
+    TemplateCache.clean();
   }
 
   /**
@@ -380,6 +387,8 @@ public class Module {
   public static void clean() {
     home = null;
     modules.clear();
+    AssetCache.clean();
+    TemplateCache.clean();
   }
 
   /**
@@ -581,6 +590,14 @@ public class Module {
    * loading all jar files in /model
    */
   private void initModels() {
+    classLoader.addJars(_jars());
+  }
+
+  /**
+   * get all jar files in /model
+   */
+  private List<String> _jars() {
+    List<String> l1 = new ArrayList<String>();
     File root = new File(path + "/model");
     // log.debug("looking for: " + root.getAbsolutePath());
 
@@ -588,12 +605,46 @@ public class Module {
     if (list != null) {
       for (File f : list) {
         if (f.getName().endsWith(".jar")) {
-          classLoader.addJar(f.getAbsolutePath());
+          l1.add(f.getAbsolutePath());
           log.debug("loading: " + f.getAbsolutePath());
         }
       }
     }
+    return l1;
+  }
+
+  /**
+   * load the modules in parallel, the result is in the order of the names.
+   */
+  private static List<Module> _loadAll(List<String> names) {
+    List<Module> l1 = new ArrayList<Module>();
+    int n = Math.max(1, Math.min(names.size(), Runtime.getRuntime().availableProcessors()));
+    ExecutorService pool = Executors.newFixedThreadPool(n);
+    try {
+      List<Future<Module>> l2 = new ArrayList<Future<Module>>();
+      for (final String name : names) {
+        l2.add(pool.submit(new Callable<Module>() {
+
+          @Override
+          public Module call() throws Exception {
+            return load(name);
+          }
+
+        }));
+      }
 
+      for (Future<Module> f : l2) {
+        try {
+          l1.add(f.get());
+        } catch (Exception e) {
+          log.error(e.getMessage(), e);
+          l1.add(null);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return l1;
   }
 
   /**
@@ -726,6 +777,15 @@ public class Module {
     return path;
   }
 
+  /**
+   * get the canonical path of the "view" of the module
+   * 
+   * @return String
+   */
+  public String getViewroot() {
+    return viewroot;
+  }
+
   public int getId() {
     return id;
   }
@@ -792,43 +852,53 @@ public class Module {
       if (f.exists()) {
         File[] list = f.listFiles();
         if (list != null) {
+          /**
+           * parse the module.xml in parallel
+           */
+          List<String> l1 = new ArrayList<String>();
           for (File f1 : list) {
             if (f1.isDirectory()) {
-              Module m = load(f1.getName());
-
-              if (m == null) {
-                /**
-                 * the module is invalid
-                 */
-                log.info("[" + f1.getName() + "] is not a valid module");
-
-              } else if (!m.enabled) {
-                /**
-                 * the module was disabled
-                 */
-                log.info("[" + f1.getName() + "] is disabled");
-
-              } else if (modules.containsKey(m.id)) {
-                /**
-                 * the module was duplicated, ignore this
-                 */
-                log.error("the [id] duplicated, [" + m.name + ", " + modules.get(m.id).name + "], ignore the [" + m.name
-                    + "]");
-                m.error = Language.getLanguage().get("module.error.duplicatedid");
-
-              } else if (!X.isSame(m.name, f1.getName())) {
-                /**
-                 * the module name was invalid
-                 */
-                log.error("the [name] is invlaid, folder=" + f1.getName() + ", module=" + m.name);
-                m.error = Language.getLanguage().get("module.error.name");
-
-              } else {
-                /**
-                 * cache the module
-                 */
-                modules.put(m.id, m);
-              }
+              l1.add(f1.getName());
+            }
+          }
+          List<Module> l2 = _loadAll(l1);
+
+          for (int i = 0; i < l1.size(); i++) {
+            File f1 = new File(f, l1.get(i));
+            Module m = l2.get(i);
+
+            if (m == null) {
+              /**
+               * the module is invalid
+               */
+              log.info("[" + f1.getName() + "] is not a valid module");
+
+            } else if (!m.enabled) {
+              /**
+               * the module was disabled
+               */
+              log.info("[" + f1.getName() + "] is disabled");
+
+            } else if (modules.containsKey(m.id)) {
+              /**
+               * the module was duplicated, ignore this
+               */
+              log.error("the [id] duplicated, [" + m.name + ", " + modules.get(m.id).name + "], ignore the [" + m.name
+                  + "]");
+              m.error = Language.getLanguage().get("module.error.duplicatedid");
+
+            } else if (!X.isSame(m.name, f1.getName())) {
+              /**
+               * the module name was invalid
+               */
+              log.error("the [name] is invlaid, folder=" + f1.getName() + ", module=" + m.name);
+              m.error = Language.getLanguage().get("module.error.name");
+
+            } else {
+              /**
+               * cache the module
+               */
+              modules.put(m.id, m);
             }
           }
         }
@@ -842,16 +912,20 @@ public class Module {
 
       log.debug("modules=" + modules);
 
+      /**
+       * loading the models of all modules, the jars are indexed in parallel
+       */
+      List<String> jars = new ArrayList<String>();
+      for (Module m : modules.values()) {
+        jars.addAll(m._jars());
+      }
+      classLoader.addJars(jars);
+
       log.debug("init menu ...");
       Menu.reset();
       // log.debug("1 ...");
 
       for (Module m : modules.values()) {
-        /**
-         * loading the models
-         */
-        m.initModels();
-
         // log.debug("2 ...");
         /**
          * initialize the life listener
@@ -865,6 +939,11 @@ public class Module {
       // log.debug("3 ...");
       Menu.cleanup();
 
+      /**
+       * prepare the models and beans used before restart
+       */
+      Snapshot.load(new ArrayList<Module>(modules.values()));
+
       // log.debug("4 ...");
       // the the default locale
       String locale = null;
@@ -1216,54 +1295,13 @@ public class Module {
    *          the uri
    * @return the model
    */
-  @SuppressWarnings("unchecked")
   public Model getModel(int method, String uri) {
 
     try {
 
       // log.debug("looking for model for <" + method + "|" + uri + ">");
 
-      CachedModel c = null;
-      synchronized (modelMap) {
-        c = modelMap.get(method + "|" + uri);
-        // log.debug("uri=" + (method + "|" + uri));
-        if (c == null) {
-          /**
-           * looking for the model class
-           */
-          String name = (pack + "." + uri).replace("/", ".").replace("..", ".");
-
-          Class<Model> c1 = (Class<Model>) Class.forName(name, false, classLoader);
-
-          /**
-           * cache it and cache all the path
-           */
-          Map<Integer, Map<String, Model.PathMapping>> path = _loadPath(c1);
-          if (path != null && path.size() > 0) {
-            String u = uri;
-            // if (!u.endsWith("/")) {
-            // u += "/";
-            // }
-            for (int m1 : path.keySet()) {
-              Map<String, Model.PathMapping> p = path.get(m1);
-              for (String s : p.keySet()) {
-                c = CachedModel.create(c1, path, this);
-                _cache(m1 + "|" + u + "/" + s, c);
-                // log.debug("uri=" + (m1 + "|" + u + "/" + s));
-              }
-              // c = CachedModel.create(c1, path, this);
-              // _cache(m1 + "|" + u, c);
-              // log.debug("uri=" + (m1 + "|" + u));
-
-            }
-          } else {
-            c = CachedModel.create(c1, path, this);
-            _cache(method + "|" + uri, c);
-
-            // log.debug("uri=" + (method + "|" + uri));
-          }
-        }
-      }
+      CachedModel c = _lookup(method, uri);
 
       if (c != null) {
         Model m = c.create(uri);
@@ -1287,6 +1325,68 @@ public class Module {
     return null;
   }
 
+  /**
+   * looking for the model class of the uri in this module, and cache it.
+   * 
+   * @param method
+   *          the method
+   * @param uri
+   *          the uri
+   * @return the CachedModel
+   * @throws Exception
+   *           not found, or is not a model
+   */
+  @SuppressWarnings("unchecked")
+  CachedModel _lookup(int method, String uri) throws Exception {
+    CachedModel c = null;
+    synchronized (modelMap) {
+      c = modelMap.get(method + "|" + uri);
+      // log.debug("uri=" + (method + "|" + uri));
+      if (c == null) {
+        /**
+         * looking for the model class
+         */
+        String name = (pack + "." + uri).replace("/", ".").replace("..", ".");
+
+        Class<Model> c1 = (Class<Model>) Class.forName(name, false, classLoader);
+
+        /**
+         * remember it for the next boot
+         */
+        Snapshot.route(this, method, uri);
+
+        /**
+         * cache it and cache all the path
+         */
+        Map<Integer, Map<String, Model.PathMapping>> path = _loadPath(c1);
+        if (path != null && path.size() > 0) {
+          String u = uri;
+          // if (!u.endsWith("/")) {
+          // u += "/";
+          // }
+          for (int m1 : path.keySet()) {
+            Map<String, Model.PathMapping> p = path.get(m1);
+            for (String s : p.keySet()) {
+              c = CachedModel.create(c1, path, this);
+              _cache(m1 + "|" + u + "/" + s, c);
+              // log.debug("uri=" + (m1 + "|" + u + "/" + s));
+            }
+            // c = CachedModel.create(c1, path, this);
+            // _cache(m1 + "|" + u, c);
+            // log.debug("uri=" + (m1 + "|" + u));
+
+          }
+        } else {
+          c = CachedModel.create(c1, path, this);
+          _cache(method + "|" + uri, c);
+
+          // log.debug("uri=" + (method + "|" + uri));
+        }
+      }
+    }
+    return c;
+  }
+
   public Model getModel(int method, Class<? extends Model> clazz) {
 
     try {
@@ -1917,36 +2017,7 @@ public class Module {
    * @return the list
    */
   public List<Menu> loadMenu(User me, int id, String name) {
-    Beans<Menu> bs = null;
-    Menu m = null;
-    if (name != null) {
-      /**
-       * load the menu by id and name
-       */
-      m = Menu.load(id, name);
-
-      if (m != null) {
-
-        /**
-         * load the submenu of the menu
-         */
-        bs = m.submenu();
-      }
-    } else {
-      /**
-       * load the submenu by id
-       */
-      bs = Menu.submenu(id);
-
-    }
-    List<Menu> list = bs == null ? null : bs.getList();
-
-    /**
-     * filter out the item which no access
-     */
-    Menu.filterAccess(list, me);
-
-    return list;
+    return Menu.load(me, id, name);
   }
 
   static class CachedModel {
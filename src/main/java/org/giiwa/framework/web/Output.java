@@ -0,0 +1,380 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.framework.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.bean.X;
+import org.giiwa.core.conf.Config;
+
+/**
+ * The {@code Output} Class is the writer of the response, one per request, the
+ * views and the json are rendered into the pooled char buffer, and encoded in
+ * UTF-8 into the pooled byte buffer, then written to the servlet outputstream
+ * directly, <br>
+ * the response is compressed by gzip or deflate which the client accepted,
+ * if the content is text and not less than the threshold, the small response
+ * is sent in identity with the "Content-Length", configuration in
+ * giiwa.properties
+ *
+ * <pre>
+ * web.gzip=on
+ * web.gzip.min=1024, the min size to compress
+ * web.output.buffer=8192, the chars of the buffer
+ * web.output.pool=64, the max buffers in the pool
+ * </pre>
+ *
+ * the output is finished at the end of the dispatch.
+ *
+ * @author joe
+ *
+ */
+public class Output extends Writer {
+
+  static Log                           log     = LogFactory.getLog(Output.class);
+
+  private static final String          NAME    = "giiwa.output";
+
+  private static boolean               inited  = false;
+  private static boolean               enabled = true;
+  private static int                   min     = 1024;
+  private static int                   size    = 8192;
+  private static BlockingQueue<Buffer> pool;
+
+  private HttpServletRequest           req;
+  private HttpServletResponse          resp;
+
+  private Buffer                       buf;
+  private int                          count;
+  private long                         total;
+
+  private boolean                      decided;
+  private boolean                      finished;
+  private OutputStream                 out;
+  private DeflaterOutputStream         zip;
+  private Deflater                     deflater;
+
+  private static synchronized void init() {
+    if (!inited) {
+      enabled = !X.isSame("off", Config.getConf().getString("web.gzip", "on"));
+      min = Config.getConf().getInt("web.gzip.min", 1024);
+      size = Math.max(1024, Config.getConf().getInt("web.output.buffer", 8192));
+      pool = new ArrayBlockingQueue<Buffer>(Math.max(1, Config.getConf().getInt("web.output.pool", 64)));
+      inited = true;
+    }
+  }
+
+  /**
+   * get the output of the request, create it if not exists.
+   *
+   * @param req
+   *          the request
+   * @param resp
+   *          the response
+   * @return the Output
+   */
+  public static Output get(HttpServletRequest req, HttpServletResponse resp) {
+    Output o = (Output) req.getAttribute(NAME);
+    if (o == null) {
+      if (!inited) {
+        init();
+      }
+      o = new Output();
+      o.req = req;
+      o.resp = resp;
+      req.setAttribute(NAME, o);
+    }
+    return o;
+  }
+
+  /**
+   * finish the output of the request if exists, write all the rest and the
+   * trailer of the compression, and release the buffer.
+   *
+   * @param req
+   *          the request
+   */
+  public static void finish(HttpServletRequest req) {
+    Output o = (Output) req.getAttribute(NAME);
+    if (o != null) {
+      req.removeAttribute(NAME);
+      try {
+        o.close();
+      } catch (IOException e) {
+        // the client gone
+        log.debug(e.getMessage(), e);
+      }
+    }
+  }
+
+  private Output() {
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.io.Writer#write(char[], int, int)
+   */
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    _check();
+    while (len > 0) {
+      int n = Math.min(len, buf.chars.length - count);
+      System.arraycopy(cbuf, off, buf.chars, count, n);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == buf.chars.length) {
+        _flush(false);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.io.Writer#write(java.lang.String, int, int)
+   */
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    _check();
+    while (len > 0) {
+      int n = Math.min(len, buf.chars.length - count);
+      str.getChars(off, off + n, buf.chars, count);
+      count += n;
+      off += n;
+      len -= n;
+      if (count == buf.chars.length) {
+        _flush(false);
+      }
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.io.Writer#write(int)
+   */
+  @Override
+  public void write(int c) throws IOException {
+    _check();
+    buf.chars[count++] = (char) c;
+    if (count == buf.chars.length) {
+      _flush(false);
+    }
+  }
+
+  /**
+   * send the buffered content, it keeps the content in buffer if not decided
+   * to compress or not, until the buffer is full or finished.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (decided && !finished && buf != null) {
+      _flush(false);
+      out.flush();
+    }
+  }
+
+  /**
+   * finish the output, the underlying outputstream is not closed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (finished) {
+      return;
+    }
+
+    try {
+      if (buf != null) {
+        _flush(true);
+      }
+      if (zip != null) {
+        zip.finish();
+      }
+      if (out != null) {
+        out.flush();
+      }
+    } finally {
+      finished = true;
+      if (zip instanceof GZip) {
+        ((GZip) zip).end();
+      } else if (deflater != null) {
+        deflater.end();
+      }
+      zip = null;
+      deflater = null;
+      if (buf != null) {
+        buf.encoder.reset();
+        buf.bytes.clear();
+        pool.offer(buf);
+        buf = null;
+      }
+    }
+  }
+
+  private void _check() throws IOException {
+    if (finished) {
+      throw new IOException("output finished");
+    }
+    if (buf == null) {
+      buf = pool.poll();
+      if (buf == null) {
+        buf = new Buffer(size);
+      }
+    }
+  }
+
+  /**
+   * encode the chars in buffer and write to the stream.
+   */
+  private void _flush(boolean end) throws IOException {
+    total += count;
+    if (!decided) {
+      _decide(end);
+    }
+
+    CharBuffer in = CharBuffer.wrap(buf.chars, 0, count);
+    ByteBuffer bb = buf.bytes;
+    while (true) {
+      CoderResult r = buf.encoder.encode(in, bb, end);
+      if (r.isOverflow()) {
+        _write(bb, false);
+      } else {
+        break;
+      }
+    }
+    if (end) {
+      while (buf.encoder.flush(bb).isOverflow()) {
+        _write(bb, false);
+      }
+    }
+    _write(bb, end);
+
+    /**
+     * keep the half of the surrogate pair for the next
+     */
+    int n = in.remaining();
+    if (n > 0) {
+      System.arraycopy(buf.chars, in.position(), buf.chars, 0, n);
+    }
+    total -= n;
+    count = n;
+  }
+
+  private void _write(ByteBuffer bb, boolean end) throws IOException {
+    bb.flip();
+    if (bb.hasRemaining()) {
+      if (zip == null && end && total == count && !resp.isCommitted()) {
+        // all the content in one buffer
+        resp.setContentLength(bb.remaining());
+      }
+      (zip == null ? out : zip).write(bb.array(), bb.position(), bb.remaining());
+    }
+    bb.clear();
+  }
+
+  /**
+   * compress if the client accepted, the content is text and not small.
+   */
+  private void _decide(boolean end) throws IOException {
+    decided = true;
+
+    if (!resp.isCommitted()) {
+      resp.setCharacterEncoding(Model.ENCODING);
+    }
+    out = resp.getOutputStream();
+
+    if (!enabled || (end && total < min) || resp.isCommitted() || !_compressible(resp.getContentType())) {
+      return;
+    }
+
+    String accept = req.getHeader("Accept-Encoding");
+    if (X.isEmpty(accept)) {
+      return;
+    }
+
+    if (accept.indexOf("gzip") > -1) {
+      resp.setHeader("Content-Encoding", "gzip");
+      resp.addHeader("Vary", "Accept-Encoding");
+      zip = new GZip(out, size);
+    } else if (accept.indexOf("deflate") > -1) {
+      resp.setHeader("Content-Encoding", "deflate");
+      resp.addHeader("Vary", "Accept-Encoding");
+      deflater = new Deflater();
+      zip = new DeflaterOutputStream(out, deflater, size);
+    }
+  }
+
+  private static boolean _compressible(String contentType) {
+    if (contentType == null) {
+      // the default is html
+      return true;
+    }
+    return contentType.startsWith("text/") || contentType.indexOf("javascript") > -1
+        || contentType.indexOf("json") > -1 || contentType.indexOf("xml") > -1;
+  }
+
+  /**
+   * the pooled buffers and encoder.
+   */
+  private static class Buffer {
+
+    char[]         chars;
+    ByteBuffer     bytes;
+    CharsetEncoder encoder;
+
+    Buffer(int size) {
+      chars = new char[size];
+      // at most 3 bytes per char in UTF-8
+      bytes = ByteBuffer.allocate(size * 3);
+      encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+  }
+
+  /**
+   * the gzip stream which releases the native deflater when finished.
+   */
+  private static class GZip extends GZIPOutputStream {
+
+    GZip(OutputStream out, int size) throws IOException {
+      super(out, size);
+    }
+
+    void end() {
+      def.end();
+    }
+  }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.framework.web;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.bean.Bean;
+import org.giiwa.core.bean.UID;
+import org.giiwa.core.bean.X;
+import org.giiwa.core.conf.Config;
+import org.giiwa.core.task.Task;
+
+/**
+ * The {@code Snapshot} Class keeps the routes and the bean classes which were
+ * used in the file "GIIWA_HOME/snapshot", and loads them at the next boot, the
+ * model classes, the path mappings and the column maps are prepared before
+ * serving, so it does not warm up under the live traffic, <br>
+ * the snapshot is dropped if any module version or jar changed, it's enabled
+ * by default, disabled by "web.snapshot=off" in giiwa.properties, the file:
+ *
+ * <pre>
+ * v=[fingerprint of the modules]
+ * r=[module id]|[method]|[uri]
+ * b=[bean class]
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+class Snapshot {
+
+  private static Log             log    = LogFactory.getLog(Snapshot.class);
+
+  private static Set<String>     routes = ConcurrentHashMap.newKeySet();
+  private static volatile int    stored = -1;
+  private static volatile String fingerprint;
+
+  private static boolean enabled() {
+    return !X.isSame("off", Config.getConf().getString("web.snapshot", "on"));
+  }
+
+  private static File _file() {
+    return new File(Model.GIIWA_HOME + File.separator + "snapshot");
+  }
+
+  /**
+   * the model class of the uri was found in the module.
+   */
+  static void route(Module m, int method, String uri) {
+    routes.add("r=" + m.getId() + "|" + method + "|" + uri);
+  }
+
+  /**
+   * the fingerprint of the modules, the id, name, version, build and the jars.
+   */
+  private static String _fingerprint(List<Module> modules) {
+    StringBuilder sb = new StringBuilder();
+    for (Module m : modules) {
+      sb.append(m.getId()).append(":").append(m.getName()).append(":").append(m.getVersion()).append(".")
+          .append(m.getBuild());
+      File[] ff = new File(m.getPath() + File.separator + "model").listFiles();
+      if (ff != null) {
+        for (File f : ff) {
+          if (f.getName().endsWith(".jar")) {
+            sb.append(":").append(f.getName()).append("@").append(f.lastModified());
+          }
+        }
+      }
+      sb.append(";");
+    }
+    return UID.id(sb.toString());
+  }
+
+  /**
+   * load the snapshot, prepare the routes and the beans, and start the task to
+   * store it.
+   *
+   * @param modules
+   *          the enabled modules
+   */
+  static void load(List<Module> modules) {
+    if (!enabled()) {
+      return;
+    }
+
+    fingerprint = _fingerprint(modules);
+
+    File f = _file();
+    if (f.exists()) {
+      long t = System.currentTimeMillis();
+      int n = 0;
+      try {
+        List<String> lines = Files.readAllLines(f.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !X.isSame("v=" + fingerprint, lines.get(0))) {
+          log.info("the modules changed, drop the snapshot");
+        } else {
+          for (int i = 1; i < lines.size(); i++) {
+            String s = lines.get(i);
+            try {
+              if (s.startsWith("r=")) {
+                String[] ss = s.substring(2).split("\\|", 3);
+                Module m = Module.load(X.toInt(ss[0]));
+                if (m != null) {
+                  m._lookup(X.toInt(ss[1]), ss[2]);
+                  n++;
+                }
+              } else if (s.startsWith("b=")) {
+                Class<?> c = Class.forName(s.substring(2), true, Module.classLoader);
+                Bean.getFields(c.asSubclass(Bean.class));
+                n++;
+              }
+            } catch (Throwable e) {
+              // the class removed, ignore it
+              log.warn("snapshot, ignore [" + s + "], " + e.getMessage());
+            }
+          }
+        }
+      } catch (Exception e) {
+        log.error(f.getAbsolutePath(), e);
+      }
+      log.info("snapshot loaded, prepared=" + n + ", cost=" + (System.currentTimeMillis() - t) + "ms");
+    }
+
+    new Store().schedule(X.AMINUTE);
+  }
+
+  /**
+   * store the snapshot if changed
+   */
+  private static void _store() {
+    List<String> lines = new ArrayList<String>();
+    lines.add("v=" + fingerprint);
+    lines.addAll(routes);
+    for (Class<? extends Bean> c : Bean.getBeans()) {
+      lines.add("b=" + c.getName());
+    }
+
+    if (lines.size() == stored) {
+      return;
+    }
+
+    File f = _file();
+    File tmp = new File(f.getAbsolutePath() + ".tmp");
+    try {
+      Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+      Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      stored = lines.size();
+    } catch (Exception e) {
+      log.error(f.getAbsolutePath(), e);
+    }
+  }
+
+  private static class Store extends Task {
+
+    @Override
+    public String getName() {
+      return "web.snapshot";
+    }
+
+    @Override
+    public void onExecute() {
+      _store();
+    }
+
+    @Override
+    public void onFinish() {
+      this.schedule(X.AMINUTE * 10);
+    }
+
+  }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.framework.web.view;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.base.IOUtil;
+import org.giiwa.core.base.Zip;
+import org.giiwa.core.bean.X;
+import org.giiwa.core.conf.Config;
+import org.giiwa.framework.web.Language;
+import org.giiwa.framework.web.Model;
+
+/**
+ * The {@code AssetCache} Class used to keep the hot static files (css, js,
+ * images) of the module "view/" in memory, keyed by the view path, the bytes
+ * are read from the copy in {giiwa}/html/ as the FileView does. <br>
+ * the entry is validated by the lastModified of the module file, and checked at
+ * most once per interval, the least recently used entries are evicted when the
+ * maxsize reached, configuration in giiwa.properties
+ *
+ * <pre>
+ * web.asset.cache=on
+ * web.asset.check=2000
+ * web.asset.maxfile=524288
+ * web.asset.maxsize=67108864
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+public class AssetCache {
+
+  static Log                        log      = LogFactory.getLog(AssetCache.class);
+
+  /**
+   * the min size of the file to compress, too small file does not worth it
+   */
+  private static final int          MIN_ZIP  = 512;
+
+  private static Map<String, Entry> cached   = new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * the total bytes of the cached entries
+   */
+  private static AtomicLong         size     = new AtomicLong(0);
+
+  private static boolean            inited   = false;
+  private static boolean            enabled  = true;
+  private static long               interval = 2000;
+  private static long               maxfile  = 512 * 1024;
+  private static long               maxsize  = 64 * 1024 * 1024;
+
+  private static void init() {
+    if (!inited) {
+      enabled = !X.isSame("off", Config.getConf().getString("web.asset.cache", "on"));
+      interval = Config.getConf().getLong("web.asset.check", 2000);
+      maxfile = Config.getConf().getLong("web.asset.maxfile", 512 * 1024);
+      maxsize = Config.getConf().getLong("web.asset.maxsize", 64 * 1024 * 1024);
+      inited = true;
+    }
+  }
+
+  /**
+   * get the resolved file of the view if it's cached and still valid, it avoid
+   * the lookup in the modules.
+   *
+   * @param viewname
+   *          the view path
+   * @return the File, or null if not cached
+   */
+  public static File file(String viewname) {
+    Entry e = cached.get(viewname);
+    if (e != null && e.valid()) {
+      e.accessed = System.currentTimeMillis();
+      return e.file;
+    }
+    return null;
+  }
+
+  /**
+   * get the cached entry of the file, load it if not cached or changed.
+   *
+   * @param file
+   *          the file
+   * @param viewname
+   *          the view path
+   * @return the Entry, or null if the file should not be cached
+   */
+  public static Entry get(File file, String viewname) {
+    init();
+    if (!enabled) {
+      return null;
+    }
+
+    Entry e = cached.get(viewname);
+    if (e != null && e.file.equals(file) && e.valid()) {
+      e.accessed = System.currentTimeMillis();
+      return e;
+    }
+
+    if (e != null) {
+      remove(viewname);
+    }
+
+    try {
+      /**
+       * serve the same bytes as the FileView, the copy in {giiwa}/html/, it's
+       * copied again if the module file changed
+       */
+      File src = FileView.html(file, viewname);
+
+      long len = src.length();
+      if (len > maxfile || len > maxsize) {
+        return null;
+      }
+
+      if (size.get() + len > maxsize) {
+        _evict(len);
+      }
+
+      e = Entry.load(file, src);
+
+      Entry old = cached.put(viewname, e);
+      size.addAndGet(e.size());
+      if (old != null) {
+        size.addAndGet(-old.size());
+      }
+      return e;
+    } catch (Exception e1) {
+      log.error(file.getAbsolutePath(), e1);
+    }
+    return null;
+  }
+
+  /**
+   * evict the least recently used entries until there is room for the len.
+   */
+  private static synchronized void _evict(long len) {
+    if (size.get() + len <= maxsize) {
+      return;
+    }
+
+    List<Map.Entry<String, Entry>> l1 = new ArrayList<Map.Entry<String, Entry>>(cached.entrySet());
+    Collections.sort(l1, new Comparator<Map.Entry<String, Entry>>() {
+
+      @Override
+      public int compare(Map.Entry<String, Entry> o1, Map.Entry<String, Entry> o2) {
+        long t1 = o1.getValue().accessed;
+        long t2 = o2.getValue().accessed;
+        return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+      }
+
+    });
+
+    for (Map.Entry<String, Entry> e : l1) {
+      if (size.get() + len <= maxsize) {
+        break;
+      }
+      if (cached.remove(e.getKey(), e.getValue())) {
+        size.addAndGet(-e.getValue().size());
+      }
+    }
+  }
+
+  /**
+   * remove the cached entry.
+   *
+   * @param viewname
+   *          the view path
+   */
+  public static void remove(String viewname) {
+    Entry e = cached.remove(viewname);
+    if (e != null) {
+      size.addAndGet(-e.size());
+    }
+  }
+
+  /**
+   * clean all the cached entries, it's called when modules changed.
+   */
+  public static void clean() {
+    cached.clear();
+    size.set(0);
+    inited = false;
+  }
+
+  /**
+   * the cached file, includes the identity, gzip and deflate bytes and the
+   * pre-computed headers
+   *
+   * @author joe
+   *
+   */
+  public static class Entry {
+
+    File          file;
+    File          source;
+    long          lastmodified;
+    long          length;
+    String        contentType;
+    String        modified;
+    String        etag;
+
+    byte[]        data;
+    byte[]        gzip;
+    byte[]        deflate;
+
+    volatile long checked;
+    volatile long accessed;
+
+    /**
+     * check the module file and the copy were not changed, the file will be
+     * checked at most once in the interval.
+     *
+     * @return true, if the entry still valid
+     */
+    boolean valid() {
+      long now = System.currentTimeMillis();
+      if (now - checked < interval) {
+        return true;
+      }
+
+      if (file.lastModified() == lastmodified && file.length() == length && source.exists()) {
+        checked = now;
+        return true;
+      }
+      return false;
+    }
+
+    long size() {
+      return data.length + (gzip == null ? 0 : gzip.length) + (deflate == null ? 0 : deflate.length);
+    }
+
+    /**
+     * get the compressed bytes which the client accepted.
+     *
+     * @param accept
+     *          the "Accept-Encoding" of the request
+     * @return the Object[]{encoding, bytes}, or null if not acceptable
+     */
+    Object[] encoded(String accept) {
+      if (X.isEmpty(accept)) {
+        return null;
+      }
+      if (gzip != null && accept.indexOf("gzip") > -1) {
+        return new Object[] { "gzip", gzip };
+      }
+      if (deflate != null && accept.indexOf("deflate") > -1) {
+        return new Object[] { "deflate", deflate };
+      }
+      return null;
+    }
+
+    static Entry load(File file, File source) throws Exception {
+      Entry e = new Entry();
+      e.file = file;
+      e.source = source;
+      e.lastmodified = file.lastModified();
+      e.length = file.length();
+      e.checked = System.currentTimeMillis();
+      e.accessed = e.checked;
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream((int) source.length());
+      IOUtil.copy(new FileInputStream(source), out, true);
+      e.data = out.toByteArray();
+
+      e.contentType = Model.getMimeType(file.getName());
+      e.modified = Language.getLanguage().format(e.lastmodified, "yyyy-MM-dd HH:mm:ss z");
+      e.etag = "\"" + Long.toHexString(e.lastmodified) + "-" + Long.toHexString(e.data.length) + "\"";
+
+      if (e.data.length >= MIN_ZIP && _compressible(e.contentType)) {
+        byte[] b = Zip.gzip(e.data);
+        if (b.length < e.data.length) {
+          e.gzip = b;
+        }
+        b = Zip.zip(e.data);
+        if (b.length < e.data.length) {
+          e.deflate = b;
+        }
+      }
+
+      return e;
+    }
+
+    private static boolean _compressible(String contentType) {
+      if (contentType == null) {
+        return false;
+      }
+      return contentType.startsWith("text/") || contentType.indexOf("javascript") > -1
+          || contentType.indexOf("json") > -1 || contentType.indexOf("xml") > -1;
+    }
+  }
+
+}
@@ -36,18 +36,20 @@ public class FileView extends View {
   @Override
   public boolean parse(File file, Model m, String viewname) throws IOException {
 
+    /**
+     * serve the hot file from memory
+     */
+    AssetCache.Entry e = AssetCache.get(file, viewname);
+    if (e != null) {
+      return _parse(e, m);
+    }
+
     InputStream in = null;
     try {
-      in = new FileInputStream(file);
       /**
        * copy the local html first
        */
-      File f1 = new File(Model.GIIWA_HOME + "/html/" + viewname);
-      if (!f1.exists()) {
-        f1.getParentFile().mkdirs();
-        FileOutputStream out1 = new FileOutputStream(f1);
-        IOUtil.copy(in, out1);
-      }
+      File f1 = html(file, viewname);
 
       in = new FileInputStream(file);
       m.setContentType(Model.getMimeType(file.getName()));
@@ -102,11 +104,97 @@ public class FileView extends View {
       if (in != null) {
         try {
           in.close();
-        } catch (IOException e) {
-          log.error(e);
+        } catch (IOException e1) {
+          log.error(e1);
         }
       }
     }
   }
 
+  /**
+   * copy the file to {giiwa}/html/ if not exists or the file is newer
+   * 
+   * @param file
+   *          the file
+   * @param viewname
+   *          the template name
+   * @return the File in {giiwa}/html/
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  static File html(File file, String viewname) throws IOException {
+    File f1 = new File(Model.GIIWA_HOME + "/html/" + viewname);
+    if (!f1.exists() || f1.lastModified() < file.lastModified()) {
+      f1.getParentFile().mkdirs();
+      IOUtil.copy(new FileInputStream(file), new FileOutputStream(f1), true);
+    }
+    return f1;
+  }
+
+  private boolean _parse(AssetCache.Entry e, Model m) throws IOException {
+    m.setContentType(e.contentType);
+
+    String range = m.getHeader("Range");
+    if (X.isEmpty(range)) {
+      String date = m.getHeader("If-Modified-Since");
+      String etag = m.getHeader("If-None-Match");
+      if ((etag != null && etag.equals(e.etag)) || (etag == null && date != null && date.equals(e.modified))) {
+        m.resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+      }
+    }
+
+    m.setHeader("Last-Modified", e.modified);
+    m.setHeader("ETag", e.etag);
+
+    if (X.isEmpty(range)) {
+      m.setHeader("Accept-Ranges", "bytes");
+
+      Object[] zip = e.encoded(m.getHeader("Accept-Encoding"));
+      if (zip != null) {
+        byte[] b = (byte[]) zip[1];
+        m.setHeader("Vary", "Accept-Encoding");
+        m.setHeader("Content-Encoding", (String) zip[0]);
+        m.setHeader("Content-Length", Integer.toString(b.length));
+        _write(m, b, 0, b.length);
+      } else {
+        m.setHeader("Content-Length", Integer.toString(e.data.length));
+        _write(m, e.data, 0, e.data.length);
+      }
+      return true;
+    }
+
+    int total = e.data.length;
+    int start = 0;
+    int end = total;
+    String[] ss = X.split(range, "[=-]");
+    if (ss.length > 1) {
+      start = Math.min(total, X.toInt(ss[1]));
+    }
+    if (ss.length > 2) {
+      end = Math.min(total, X.toInt(ss[2]));
+      if (end < start) {
+        end = Math.min(total, start + 16 * 1024);
+      }
+    }
+
+    m.setHeader("Content-Length", Integer.toString(end - start));
+    m.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + total);
+    if (start == 0) {
+      m.setHeader("Accept-Ranges", "bytes");
+    }
+    if (end < total) {
+      m.setStatus(206);
+    }
+    _write(m, e.data, start, end);
+
+    return true;
+  }
+
+  private void _write(Model m, byte[] b, int start, int end) throws IOException {
+    OutputStream out = m.getOutputStream();
+    out.write(b, start, end - start);
+    out.flush();
+  }
+
 }
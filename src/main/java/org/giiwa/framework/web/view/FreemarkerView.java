@@ -16,11 +16,8 @@ package org.giiwa.framework.web.view;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.util.HashMap;
-import java.util.Map;
 
+import org.giiwa.core.conf.Config;
 import org.giiwa.framework.web.Model;
 
 import freemarker.template.Template;
@@ -36,9 +33,7 @@ public class FreemarkerView extends View {
       Template template = getTemplate(file);
       if (template != null) {
 
-        Writer out = new OutputStreamWriter(m.getOutputStream());
-        template.process(m.context, out);
-        out.flush();
+        template.process(m.context, m.getWriter());
 
         return true;
       }
@@ -48,36 +43,46 @@ public class FreemarkerView extends View {
     return false;
   }
 
-  Template getTemplate(File f) throws IOException {
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.giiwa.framework.web.view.View#prepare(java.io.File)
+   */
+  @Override
+  protected boolean prepare(File file) throws Exception {
+    return getTemplate(file) != null;
+  }
 
-    String fullname = f.getCanonicalPath();
-    T t = cache.get(fullname);
-    if (t == null || t.last != f.lastModified()) {
-      if (cache.size() == 0) {
-        cfg.setDirectoryForTemplateLoading(new File(Model.HOME));
-      }
+  Template getTemplate(File f) throws Exception {
+    return TemplateCache.get(f, loader);
+  }
 
-      Template t1 = cfg.getTemplate(f.getCanonicalPath().substring(Model.HOME.length()), "UTF-8");
-      t = T.create(t1, f.lastModified());
-      cache.put(fullname, t);
+  private static freemarker.template.Configuration cfg    = new freemarker.template.Configuration(
+      freemarker.template.Configuration.VERSION_2_3_24);
+
+  static {
+    try {
+      cfg.setDirectoryForTemplateLoading(new File(Model.HOME));
+      long interval = Config.getConf().getLong("web.template.check", 2000);
+      cfg.setTemplateUpdateDelayMilliseconds(interval < 0 ? Long.MAX_VALUE : interval);
+    } catch (IOException e) {
+      log.error(Model.HOME, e);
     }
-    return t == null ? null : t.template;
   }
 
-  private static class T {
-    Template template;
-    long     last;
+  /**
+   * get the template from freemarker, drop the one cached by freemarker since
+   * it's changed
+   */
+  private static TemplateCache.Loader                loader = new TemplateCache.Loader() {
 
-    static T create(Template t, long last) {
-      T t1 = new T();
-      t1.template = t;
-      t1.last = last;
-      return t1;
+    @Override
+    public Object load(File f) throws Exception {
+      String name = f.getCanonicalPath().substring(Model.HOME.length());
+      cfg.removeTemplateFromCache(name, cfg.getLocale(), "UTF-8", true);
+      return cfg.getTemplate(name, "UTF-8");
     }
-  }
 
-  private static Map<String, T>                    cache = new HashMap<String, T>();
-  private static freemarker.template.Configuration cfg   = new freemarker.template.Configuration(
-      freemarker.template.Configuration.VERSION_2_3_24);
+  };
 
 }
@@ -0,0 +1,342 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.framework.web.view;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.bean.X;
+import org.giiwa.core.conf.Config;
+import org.giiwa.framework.web.Module;
+
+/**
+ * The {@code TemplateCache} Class is the shared cache of the compiled
+ * templates for all the views, keyed by the path of the file, and the resolved
+ * template file of the view name. <br>
+ * the entry is validated by the lastModified of the file at most once per
+ * interval, or only after the WatchService reports the change in the "view"
+ * of the modules, so there is no file system call to render a page in steady
+ * state, all the templates are precompiled in parallel at startup,
+ * configuration in giiwa.properties
+ *
+ * <pre>
+ * web.template.check=2000, the interval in milliseconds, -1 never check
+ * web.template.watch=off, on: watch the changes instead of checking
+ * web.template.precompile=on
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+public class TemplateCache {
+
+  static Log                        log      = LogFactory.getLog(TemplateCache.class);
+
+  private static Map<String, Entry> cached   = new ConcurrentHashMap<String, Entry>();
+  private static Map<String, Entry> files    = new ConcurrentHashMap<String, Entry>();
+
+  private static boolean            inited   = false;
+  private static long               interval = 2000;
+  private static WatchService       watcher;
+
+  /**
+   * the version of the files, increased when the watcher reports any change
+   */
+  private static volatile long      version  = 0;
+
+  /**
+   * the loader of the template
+   *
+   * @author joe
+   *
+   */
+  public static abstract class Loader {
+
+    /**
+     * compile the template of the file.
+     *
+     * @param f
+     *          the file
+     * @return the template
+     * @throws Exception
+     *           if failed
+     */
+    public abstract Object load(File f) throws Exception;
+
+    /**
+     * the lastModified of the source which the template was compiled from, the
+     * engine may return the template cached by itself.
+     *
+     * @param t
+     *          the template
+     * @param lastmodified
+     *          the lastModified of the file before loading
+     * @return the lastModified
+     */
+    public long lastModified(Object t, long lastmodified) {
+      return lastmodified;
+    }
+
+  }
+
+  private static synchronized void init() {
+    if (!inited) {
+      interval = Config.getConf().getLong("web.template.check", 2000);
+      if (X.isSame("on", Config.getConf().getString("web.template.watch", "off"))) {
+        _watch();
+      }
+      inited = true;
+    }
+  }
+
+  /**
+   * get the template of the file, compile it by the loader if not cached or
+   * changed.
+   *
+   * @param f
+   *          the file
+   * @param loader
+   *          the loader
+   * @return the template
+   * @throws Exception
+   *           if failed to compile
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T get(File f, Loader loader) throws Exception {
+    if (!inited) {
+      init();
+    }
+
+    String name = f.getPath();
+    Entry e = cached.get(name);
+    if (e != null && e.valid()) {
+      return (T) e.value;
+    }
+
+    Entry e1 = new Entry();
+    e1.file = f;
+    e1.lastmodified = f.lastModified();
+    e1.value = loader.load(f);
+    e1.lastmodified = loader.lastModified(e1.value, e1.lastmodified);
+    cached.put(name, e1);
+    return (T) e1.value;
+  }
+
+  /**
+   * get the resolved template file of the view name, it avoid the lookup in
+   * the modules.
+   *
+   * @param viewname
+   *          the view name
+   * @return the File, or null if not found
+   */
+  public static File file(String viewname) {
+    if (!inited) {
+      init();
+    }
+
+    Entry e = files.get(viewname);
+    if (e != null && e.valid()) {
+      return e.file;
+    }
+
+    File f = Module.home.getFile(viewname);
+    if (f == null) {
+      files.remove(viewname);
+      return null;
+    }
+
+    e = new Entry();
+    e.file = f;
+    e.lastmodified = f.lastModified();
+    files.put(viewname, e);
+    return f;
+  }
+
+  /**
+   * clean all the cached entries, it's called when modules changed.
+   */
+  public static void clean() {
+    cached.clear();
+    files.clear();
+  }
+
+  /**
+   * compile the templates in the "view" of all modules in parallel.
+   */
+  public static void precompile() {
+    if (X.isSame("off", Config.getConf().getString("web.template.precompile", "on"))) {
+      return;
+    }
+
+    long t = System.currentTimeMillis();
+    final List<File> l1 = new ArrayList<File>();
+    for (Module m : Module.getAll(true)) {
+      if (m.getViewroot() != null) {
+        _list(new File(m.getViewroot()), l1);
+      }
+    }
+
+    int n = Math.max(1, Runtime.getRuntime().availableProcessors());
+    ExecutorService pool = Executors.newFixedThreadPool(n);
+    try {
+      List<Future<Boolean>> l2 = new ArrayList<Future<Boolean>>();
+      for (final File f : l1) {
+        l2.add(pool.submit(new Callable<Boolean>() {
+
+          @Override
+          public Boolean call() throws Exception {
+            try {
+              return View.get(f.getName()).prepare(f);
+            } catch (Exception e) {
+              // not a complete template, e.g. the fragment
+              log.debug(f.getAbsolutePath() + ", " + e.getMessage());
+              return false;
+            }
+          }
+
+        }));
+      }
+
+      int ok = 0;
+      for (Future<Boolean> f : l2) {
+        try {
+          if (f.get()) {
+            ok++;
+          }
+        } catch (Exception e) {
+          log.error(e.getMessage(), e);
+        }
+      }
+      log.info("templates precompiled, " + ok + "/" + l1.size() + ", cost=" + (System.currentTimeMillis() - t) + "ms");
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void _list(File f, List<File> l1) {
+    File[] ff = f.listFiles();
+    if (ff != null) {
+      for (File f1 : ff) {
+        if (f1.isDirectory()) {
+          _list(f1, l1);
+        } else if (View.get(f1.getName()) != null) {
+          l1.add(f1);
+        }
+      }
+    }
+  }
+
+  /**
+   * watch the "view" of all modules, and increase the version when changed.
+   */
+  private static void _watch() {
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+      for (Module m : Module.getAll(true)) {
+        if (m.getViewroot() != null) {
+          Files.walkFileTree(new File(m.getViewroot()).toPath(), new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+              dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                  StandardWatchEventKinds.ENTRY_MODIFY);
+              return FileVisitResult.CONTINUE;
+            }
+
+          });
+        }
+      }
+
+      Thread t = new Thread("template.watcher") {
+
+        @Override
+        public void run() {
+          while (true) {
+            try {
+              WatchKey k = watcher.take();
+              k.pollEvents();
+              k.reset();
+              version++;
+            } catch (InterruptedException e) {
+              return;
+            } catch (Exception e) {
+              log.error(e.getMessage(), e);
+            }
+          }
+        }
+
+      };
+      t.setDaemon(true);
+      t.start();
+    } catch (Exception e) {
+      log.error("failed to watch the views, check by interval", e);
+      watcher = null;
+    }
+  }
+
+  private static class Entry {
+
+    File          file;
+    Object        value;
+    long          lastmodified;
+    long          ver     = version;
+    volatile long checked = System.currentTimeMillis();
+
+    /**
+     * check the file was not changed.
+     */
+    boolean valid() {
+      if (watcher != null) {
+        if (ver == version) {
+          return true;
+        }
+      } else {
+        long now = System.currentTimeMillis();
+        if (interval < 0 || now - checked < interval) {
+          return true;
+        }
+      }
+
+      long v = version;
+      if (file.lastModified() == lastmodified) {
+        checked = System.currentTimeMillis();
+        ver = v;
+        return true;
+      }
+      return false;
+    }
+  }
+
+}
@@ -15,12 +15,11 @@
 package org.giiwa.framework.web.view;
 
 import java.io.File;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import org.giiwa.core.conf.Config;
 import org.giiwa.framework.web.Model;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.IContext;
@@ -28,7 +27,7 @@ import org.thymeleaf.templateresolver.FileTemplateResolver;
 
 public class ThymeleafView extends View {
 
-  private static TemplateEngine _engine;
+  private static volatile TemplateEngine _engine;
 
   @Override
   public boolean parse(File file, Model m, String viewname) {
@@ -36,17 +35,14 @@ public class ThymeleafView extends View {
     try {
 
       if (_engine == null) {
-        _engine = new TemplateEngine();
-        FileTemplateResolver tt = new FileTemplateResolver();
-        tt.setCharacterEncoding("UTF-8");
-        _engine.setTemplateResolver(tt);
+        _init();
       }
 
-      Writer out = new OutputStreamWriter(m.getOutputStream());
-
-      _engine.process(file.getCanonicalPath(), _parse(m.context), out);
-
-      out.flush();
+      /**
+       * the file has been checked by module, the absolute path does not touch
+       * the file system
+       */
+      _engine.process(file.getAbsolutePath(), _parse(m.context), m.getWriter());
 
       return true;
     } catch (Exception e) {
@@ -55,6 +51,23 @@ public class ThymeleafView extends View {
     return false;
   }
 
+  /**
+   * the templates are cached by thymeleaf, expired in the interval of
+   * "web.template.check", never if -1
+   */
+  private static synchronized void _init() {
+    if (_engine == null) {
+      TemplateEngine e = new TemplateEngine();
+      FileTemplateResolver tt = new FileTemplateResolver();
+      tt.setCharacterEncoding("UTF-8");
+      tt.setCacheable(true);
+      long interval = Config.getConf().getLong("web.template.check", 2000);
+      tt.setCacheTTLMs(interval < 0 ? null : interval);
+      e.setTemplateResolver(tt);
+      _engine = e;
+    }
+  }
+
   private IContext _parse(final Map<String, Object> m) {
     return new IContext() {
 
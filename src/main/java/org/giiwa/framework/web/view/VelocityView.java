@@ -16,32 +16,47 @@ package org.giiwa.framework.web.view;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.IOException;
 import java.io.StringWriter;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.Writer;
 import java.util.Properties;
 
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
+import org.giiwa.core.conf.Config;
 import org.giiwa.core.json.JSON;
 import org.giiwa.framework.web.Model;
 
 public class VelocityView extends View {
 
+  static {
+    /**
+     * initialize template loader for velocity
+     */
+    long interval = Config.getConf().getLong("web.template.check", 2000);
+
+    Properties p = new Properties();
+    p.setProperty("input.encoding", "utf-8");
+    p.setProperty("output.encoding", "utf-8");
+    p.setProperty("log4j.logger.org.apache.velocity", "ERROR");
+    p.setProperty("directive.set.null.allowed", "true");
+    p.setProperty("file.resource.loader.class", "org.giiwa.framework.web.view.VelocityTemplateLoader");
+    p.setProperty("file.resource.loader.modificationCheckInterval",
+        Long.toString(interval < 0 ? 0 : Math.max(1, interval / 1000)));
+    Velocity.init(p);
+  }
+
   @Override
-  public boolean parse(File file, Model m, String viewname) throws IOException {
+  public boolean parse(File file, Model m, String viewname) throws Exception {
     Template template = getTemplate(file);
 
     // System.out.println(viewname + "=>" + template);
     if (template != null) {
       m.resp.setContentType(m.getResponseContentType());
 
-      BufferedWriter writer = new BufferedWriter(m.resp.getWriter());
+      Writer writer = m.getWriter();
 
       template.merge(new VelocityContext(m.context), writer);
-      writer.flush();
 
       return true;
     }
@@ -78,65 +93,44 @@ public class VelocityView extends View {
     return null;
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.giiwa.framework.web.view.View#prepare(java.io.File)
+   */
+  @Override
+  protected boolean prepare(File file) throws Exception {
+    return getTemplate(file) != null;
+  }
+
   /**
-   * Gets the template by viewname, the viewname is relative path
+   * Gets the template of the file from the TemplateCache
    * 
-   * @param viewname
-   *          the relative view path name
-   * @param allowEmpty
-   *          if not presented, allow using a empty
+   * @param f
+   *          the file
    * @return Template
-   * @throws IOException
+   * @throws Exception
    */
-  private Template getTemplate(File f) throws IOException {
-
-    String fullname = f.getCanonicalPath();
-    T t = cache.get(fullname);
-
-    if (t == null || t.last != f.lastModified()) {
-
-      if (cache.size() == 0) {
-        /**
-         * initialize template loader for velocity
-         */
-        Properties p = new Properties();
-        p.setProperty("input.encoding", "utf-8");
-        p.setProperty("output.encoding", "utf-8");
-        p.setProperty("log4j.logger.org.apache.velocity", "ERROR");
-        p.setProperty("directive.set.null.allowed", "true");
-        p.setProperty("file.resource.loader.class", "org.giiwa.framework.web.view.VelocityTemplateLoader");
-        Velocity.init(p);
-      }
+  private Template getTemplate(File f) throws Exception {
+    return TemplateCache.get(f, loader);
+  }
 
-      /**
-       * get the template from the top
-       */
-      Template t1 = Velocity.getTemplate(fullname, "UTF-8");
-      t = T.create(t1, f.lastModified());
+  /**
+   * get the template from velocity, the velocity checks the modification by
+   * itself, the template may be the old one
+   */
+  private static TemplateCache.Loader loader = new TemplateCache.Loader() {
 
-      cache.put(fullname, t);
+    @Override
+    public Object load(File f) throws Exception {
+      return Velocity.getTemplate(f.getCanonicalPath(), "UTF-8");
     }
 
-    return t == null ? null : t.template;
-
-  }
-
-  private static class T {
-    Template template;
-    long     last;
-
-    static T create(Template t, long last) {
-      T t1 = new T();
-      t1.template = t;
-      t1.last = last;
-      return t1;
+    @Override
+    public long lastModified(Object t, long lastmodified) {
+      return ((Template) t).getLastModified();
     }
-  }
 
-  /**
-   * cache the template by viewname, the template will be override in child
-   * module
-   */
-  private static Map<String, T> cache = new HashMap<String, T>();
+  };
 
 }
@@ -41,6 +41,36 @@ public abstract class View {
    */
   protected abstract boolean parse(File file, Model m, String viewname) throws Exception;
 
+  /**
+   * compile the template of the file into the TemplateCache, the view which
+   * does not compile the template does nothing.
+   * 
+   * @param file
+   *          the file
+   * @return true if compiled
+   * @throws Exception
+   *           if occur error
+   */
+  protected boolean prepare(File file) throws Exception {
+    return false;
+  }
+
+  /**
+   * get the view of the file by the suffix.
+   * 
+   * @param filename
+   *          the file name
+   * @return the View, or null if not a template
+   */
+  static View get(String filename) {
+    for (String suffix : views.keySet()) {
+      if (filename.endsWith(suffix)) {
+        return views.get(suffix);
+      }
+    }
+    return null;
+  }
+
   /**
    * init the views by config
    * 
@@ -65,6 +95,8 @@ public abstract class View {
     for (String name : views.keySet()) {
       log.debug("\t" + name + "=" + views.get(name).getClass().getName());
     }
+
+    TemplateCache.precompile();
   }
 
   /**
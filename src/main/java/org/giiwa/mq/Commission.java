@@ -11,11 +11,13 @@ import org.apache.commons.logging.LogFactory;
 import org.giiwa.core.bean.X;
 import org.giiwa.core.conf.Global;
 import org.giiwa.core.json.JSON;
+import org.giiwa.core.task.Cluster;
+import org.giiwa.core.task.Group;
 import org.giiwa.core.task.Task;
 import org.giiwa.framework.web.Model;
 import org.giiwa.mq.MQ.Mode;
 
-public class Commission {
+public class Commission implements Cluster {
 
   private static Log                     log      = LogFactory.getLog(Commission.class);
 
@@ -214,6 +216,11 @@ public class Commission {
 
   static class HBTask extends Task {
 
+    @Override
+    public String getGroup() {
+      return Group.HEARTBEAT;
+    }
+
     @Override
     public void onExecute() {
       Commission[] cc = comms.values().toArray(new Commission[comms.size()]);
@@ -239,4 +246,39 @@ public class Commission {
     return leader;
   }
 
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.giiwa.core.task.Cluster#getMembers()
+   */
+  @Override
+  public List<String> getMembers() {
+    List<String> l1 = new ArrayList<String>();
+    long now = System.currentTimeMillis();
+    synchronized (members) {
+      for (Map.Entry<String, Long> e : members.entrySet()) {
+        if (now - e.getValue() <= 2 * TICKET) {
+          l1.add(e.getKey());
+        }
+      }
+    }
+
+    String node = node();
+    if (!l1.contains(node)) {
+      l1.add(node);
+    }
+    Collections.sort(l1);
+    return l1;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see org.giiwa.core.task.Cluster#node()
+   */
+  @Override
+  public String node() {
+    return Model.node();
+  }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.mq;
+
+
+import org.giiwa.core.conf.Global;
+
+/**
+ * The {@code Consumer} Class is the options of the stub consumer, used by
+ * MQ.bind, e.g.
+ * 
+ * <pre>
+ * stub.bind(Mode.QUEUE, Consumer.create().inflight(4).prefetch(20));
+ * </pre>
+ * 
+ * inflight: the max messages which are processing by the stub at the same
+ * time, the consumer stops reading from the broker when reached; <br>
+ * prefetch: the max messages which are delivered by the broker but not
+ * acknowledged; <br>
+ * ordered: the messages are processed one by one in the order of received.
+ * <br>
+ * the default values are configured in DB "mq.inflight", "mq.prefetch"
+ * 
+ * @author joe
+ *
+ */
+public class Consumer {
+
+  private int     inflight = Math.max(1, Global.getInt("mq.inflight", 16));
+  private int     prefetch = Math.max(1, Global.getInt("mq.prefetch", 100));
+  private boolean ordered  = false;
+
+  /**
+   * create the consumer options with the default values.
+   * 
+   * @return the Consumer
+   */
+  public static Consumer create() {
+    return new Consumer();
+  }
+
+  public Consumer inflight(int n) {
+    this.inflight = Math.max(1, n);
+    return this;
+  }
+
+  public Consumer prefetch(int n) {
+    this.prefetch = Math.max(1, n);
+    return this;
+  }
+
+  public Consumer ordered(boolean ordered) {
+    this.ordered = ordered;
+    return this;
+  }
+
+  /**
+   * the max in-flight messages, it's 1 if ordered.
+   * 
+   * @return the number
+   */
+  public int getInflight() {
+    return ordered ? 1 : inflight;
+  }
+
+  public int getPrefetch() {
+    return prefetch;
+  }
+
+  public boolean isOrdered() {
+    return ordered;
+  }
+
+  /*
+   * (non-Javadoc)
+   * 
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "{inflight=" + getInflight() + ", prefetch=" + prefetch + ", ordered=" + ordered + "}";
+  }
+
+}
@@ -61,6 +61,20 @@ public abstract class IStub {
     MQ.bind(name, this, m);
   }
 
+  /**
+   * Bind the stub on the MQ with the mode and the consumer options
+   *
+   * @param m
+   *          the mode
+   * @param c
+   *          the consumer options, max in-flight, prefetch, ordered
+   * @throws Exception
+   *           the exception
+   */
+  final public void bind(Mode m, Consumer c) throws Exception {
+    MQ.bind(name, this, m, c);
+  }
+
   /**
    * Send message to destination
    *
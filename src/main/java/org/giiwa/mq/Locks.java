@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.mq;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.conf.Lock;
+import org.giiwa.mq.MQ.Mode;
+
+/**
+ * The {@code Locks} Class notifies the waiters of the lock in all nodes by the
+ * topic "lock.released" when the lock is released, instead of polling the
+ * database.
+ *
+ * @author joe
+ *
+ */
+public class Locks extends IStub implements Lock.Notifier {
+
+  private static Log   log   = LogFactory.getLog(Locks.class);
+
+  private static Locks owner = new Locks();
+
+  private Locks() {
+    super("lock.released");
+  }
+
+  /**
+   * bind the topic and set as the notifier of the Lock.
+   *
+   * @throws Exception
+   *           the exception
+   */
+  public static void init() throws Exception {
+    owner.bind(Mode.TOPIC);
+    Lock.setNotifier(owner);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.giiwa.core.conf.Lock.Notifier#released(java.lang.String)
+   */
+  @Override
+  public void released(String name) {
+    try {
+      Request r = new Request();
+      r.data = name.getBytes("UTF-8");
+      topic(this.name, r);
+    } catch (Exception e) {
+      log.error(name, e);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.giiwa.mq.IStub#onRequest(long, org.giiwa.mq.Request)
+   */
+  @Override
+  public void onRequest(long seq, Request req) {
+    try {
+      Lock.wakeup(new String(req.data, "UTF-8"));
+    } catch (Exception e) {
+      log.error(e.getMessage(), e);
+    }
+  }
+
+}
@@ -8,6 +8,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.giiwa.core.bean.X;
 import org.giiwa.core.json.JSON;
+import org.giiwa.core.task.Group;
 import org.giiwa.core.task.Task;
 
 class Logger extends Task {
@@ -129,5 +130,10 @@ class Logger extends Task {
       return "logger.status";
     }
 
+    @Override
+    public String getGroup() {
+      return Group.HEARTBEAT;
+    }
+
   }
 }
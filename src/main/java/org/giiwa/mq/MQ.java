@@ -1,5 +1,10 @@
 package org.giiwa.mq;
 
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -11,7 +16,6 @@ import org.giiwa.core.bean.X;
 import org.giiwa.core.conf.Config;
 import org.giiwa.core.conf.Global;
 import org.giiwa.core.json.JSON;
-import org.giiwa.core.task.Task;
 import org.giiwa.framework.bean.OpLog;
 import org.giiwa.framework.web.Model;
 import org.giiwa.mq.impl.*;
@@ -20,6 +24,13 @@ import org.giiwa.mq.impl.*;
  * the distribute message system, <br>
  * the performance: sending 1w/300ms <br>
  * recving 1w/1500ms<br>
+ * the message is a frame of one record, or a frame of multiple records when
+ * batched by sendAsync:
+ * 
+ * <pre>
+ * record: seq(long) from(int+bytes) type(int) data(int+bytes)
+ * batch: BATCH(long) count(int) record...
+ * </pre>
  * 
  * @author joe
  *
@@ -43,6 +54,31 @@ public abstract class MQ {
     TOPIC, QUEUE
   };
 
+  /**
+   * the callback of the async sending
+   * 
+   * @author joe
+   *
+   */
+  public static interface Callback {
+
+    /**
+     * the message was sent or failed.
+     * 
+     * @param seq
+     *          the sequence of the message
+     * @param e
+     *          the exception, null if success
+     */
+    void onComplete(long seq, Exception e);
+
+  }
+
+  /**
+   * the mark of the batch frame, the seq of a record is never it
+   */
+  protected static final long BATCH = Long.MIN_VALUE;
+
   private static MQ mq = null;
 
   /**
@@ -58,6 +94,10 @@ public abstract class MQ {
         mq = ActiveMQ.create();
       } else if (X.isSame(type, "rabbitmq")) {
         mq = RabbitMQ.create();
+      } else if (X.isSame(type, "local")) {
+        mq = LocalMQ.create();
+      } else if (X.isSame(type, "shm")) {
+        mq = ShmMQ.create();
       }
     }
     return mq != null;
@@ -94,13 +134,31 @@ public abstract class MQ {
    *           the Exception
    */
   public static void bind(String name, IStub stub, Mode mode) throws Exception {
+    bind(name, stub, mode, Consumer.create());
+  }
+
+  /**
+   * listen on the name with the consumer options
+   * 
+   * @param name
+   *          the service name
+   * @param stub
+   *          the Stub object
+   * @param mode
+   *          the bind mode (topic, queue)
+   * @param c
+   *          the consumer options
+   * @throws Exception
+   *           the Exception
+   */
+  public static void bind(String name, IStub stub, Mode mode, Consumer c) throws Exception {
     if (mq == null) {
       OpLog.warn(org.giiwa.app.web.admin.mq.class, "bind",
           "failed bind, [" + name + "], stub=" + stub.getClass().toString() + ", mode=" + mode, null, null);
 
       throw new Exception("MQ not init yet");
     } else {
-      mq._bind(name, stub, mode);
+      mq._bind(name, stub, mode, c);
     }
   }
 
@@ -108,18 +166,70 @@ public abstract class MQ {
     bind(name, stub, Mode.QUEUE);
   }
 
-  protected abstract void _bind(String name, IStub stub, Mode mode) throws Exception;
+  protected abstract void _bind(String name, IStub stub, Mode mode, Consumer c) throws Exception;
 
   static AtomicInteger caller    = new AtomicInteger(0);
   static AtomicLong    totalSent = new AtomicLong(0);
   static AtomicLong    totalGot  = new AtomicLong(0);
 
-  protected static void process(final String stub, final org.giiwa.framework.bean.Request req, final IStub cb) {
+  /**
+   * process the message frame, the records are dispatched to the stub by the
+   * dispatcher, it blocks when the dispatcher is full, so the consumer stops
+   * reading from the broker.
+   * 
+   * @param stub
+   *          the stub name
+   * @param req
+   *          the frame
+   * @param cb
+   *          the stub
+   * @param d
+   *          the dispatcher of the stub
+   * @param ack
+   *          the acknowledgement when all the records are processed, can be
+   *          null
+   */
+  protected static void process(final String stub, final org.giiwa.framework.bean.Request req, final IStub cb,
+      Dispatcher d, Runnable ack) {
+
+    long seq = req.readLong();
+    if (seq == BATCH) {
+      int n = req.readInt();
+      AtomicInteger remain = new AtomicInteger(n);
+      for (int i = 0; i < n; i++) {
+        _process(stub, _read(req.readLong(), req), cb, d, remain, ack);
+      }
+    } else {
+      _process(stub, _read(seq, req), cb, d, new AtomicInteger(1), ack);
+    }
+
+  }
+
+  private static Request _read(long seq, org.giiwa.framework.bean.Request req) {
+    Request r1 = new Request();
+    r1.seq = seq;
+    int len = req.readInt();
+    r1.from = null;
+    if (len > 0) {
+      byte[] ff = req.readBytes(len);
+      r1.from = new String(ff);
+    }
+    r1.type = req.readInt();
+    len = req.readInt();
+    r1.data = null;
+    if (len > 0) {
+      r1.data = req.readBytes(len);
+    }
+    return r1;
+  }
+
+  private static void _process(final String stub, final Request r1, final IStub cb, Dispatcher d,
+      final AtomicInteger remain, final Runnable ack) {
 
     totalGot.incrementAndGet();
 
     caller.incrementAndGet();
-    Task.create(new Runnable() {
+    d.dispatch(new Runnable() {
 
       @Override
       public void run() {
@@ -127,22 +237,8 @@ public abstract class MQ {
         caller.decrementAndGet();
         try {
 
-          Request r1 = new Request();
-          r1.seq = req.readLong();
-          int len = req.readInt();
-          r1.from = null;
-          if (len > 0) {
-            byte[] ff = req.readBytes(len);
-            r1.from = new String(ff);
-          }
-          r1.type = req.readInt();
-          len = req.readInt();
-          r1.data = null;
-          if (len > 0) {
-            r1.data = req.readBytes(len);
-          }
           if (log.isDebugEnabled())
-            log.debug("got a message: from=" + r1.from + ", len=" + len);
+            log.debug("got a message: from=" + r1.from + ", len=" + (r1.data == null ? 0 : r1.data.length));
 
           if (r1.type > 0) {
             if (Logger.isEnabled())
@@ -157,11 +253,116 @@ public abstract class MQ {
           }
         } catch (Exception e) {
           log.error(e.getMessage(), e);
+        } finally {
+          if (remain.decrementAndGet() == 0 && ack != null) {
+            try {
+              ack.run();
+            } catch (Throwable e) {
+              log.error(e.getMessage(), e);
+            }
+          }
         }
 
       }
-    }).schedule(0);
+    });
+
+  }
+
+  /**
+   * The {@code Dispatcher} Class is the bounded executor of a stub, the threads
+   * are created on demand and die when idle, the dispatch blocks when there are
+   * max in-flight messages.
+   * 
+   * @author joe
+   *
+   */
+  protected static class Dispatcher {
+
+    private final Semaphore          permits;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Instantiates a new dispatcher.
+     * 
+     * @param name
+     *          the stub name
+     * @param c
+     *          the consumer options
+     */
+    public Dispatcher(final String name, Consumer c) {
+      int n = c.getInflight();
+      permits = new Semaphore(n);
+      executor = new ThreadPoolExecutor(n, n, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+
+            AtomicInteger seq = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread th = new Thread(r, "mq." + name + "." + seq.incrementAndGet());
+              th.setDaemon(true);
+              return th;
+            }
+
+          });
+      executor.allowCoreThreadTimeOut(true);
+    }
+
+    void dispatch(final Runnable r) {
+      permits.acquireUninterruptibly();
+      try {
+        executor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            try {
+              r.run();
+            } finally {
+              permits.release();
+            }
+          }
+
+        });
+      } catch (RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
 
+    /**
+     * the messages are processing.
+     * 
+     * @return the number
+     */
+    public int getInflight() {
+      return executor.getActiveCount();
+    }
+
+    public void close() {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * write the record in the frame.
+   * 
+   * @param out
+   *          the frame
+   * @param seq
+   *          the sequence
+   * @param r
+   *          the record
+   */
+  protected static void write(org.giiwa.framework.bean.Response out, long seq, Request r) {
+    out.writeLong(seq);
+    out.writeString(r.from);
+    out.writeInt(r.type);
+    if (r.data == null) {
+      out.writeInt(0);
+    } else {
+      out.writeInt(r.data.length);
+      out.writeBytes(r.data);
+    }
   }
 
   protected abstract long _topic(long seq, String to, Request req) throws Exception;
@@ -238,6 +439,73 @@ public abstract class MQ {
     return seq;
   }
 
+  /**
+   * send the message asynchronously, the messages to the same destination may
+   * be batched in one frame, the callback is invoked when sent.
+   * 
+   * @param to
+   *          the destination queue name
+   * @param req
+   *          the message
+   * @param cb
+   *          the callback, can be null
+   * @return the sequence of the message
+   * @throws Exception
+   *           the Exception
+   */
+  public static long sendAsync(String to, Request req, Callback cb) throws Exception {
+    if (mq == null) {
+      throw new Exception("MQ not init yet");
+    }
+
+    long s1 = req.seq;
+    if (s1 < 0) {
+      s1 = seq.incrementAndGet();
+      req.seq = s1;
+    }
+
+    totalSent.incrementAndGet();
+    if (Logger.isEnabled())
+      Logger.log(s1, "send", to, req);
+
+    mq._sendAsync(s1, to, req, cb);
+    return s1;
+  }
+
+  /**
+   * send the message asynchronously, the default is sending it at once and
+   * callback.
+   * 
+   * @param seq
+   *          the sequence
+   * @param to
+   *          the destination queue name
+   * @param req
+   *          the message
+   * @param cb
+   *          the callback, can be null
+   */
+  protected void _sendAsync(long seq, String to, Request req, Callback cb) {
+    Exception e1 = null;
+    try {
+      _send(seq, to, req);
+    } catch (Exception e) {
+      e1 = e;
+    }
+    if (cb != null) {
+      cb.onComplete(seq, e1);
+    }
+  }
+
+  /**
+   * get the next sequence of the message.
+   * 
+   * @return the sequence
+   */
+  public static long next() {
+    return seq.incrementAndGet();
+  }
+
   public static void log(JSON p) {
     try {
       Request r = new Request();
@@ -14,106 +14,301 @@
 */
 package org.giiwa.mq;
 
-import java.util.HashMap;
+
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.giiwa.core.bean.X;
-import org.giiwa.core.json.JSON;
+import org.giiwa.core.task.Group;
+import org.giiwa.core.task.Task;
 import org.giiwa.framework.web.Model;
 
 /**
- * The RPC Class, used to remote method call, and got result until finish
- * execution.
+ * The RPC Class, used to remote method call, the call is asynchronous, the
+ * pending calls are kept in a concurrent map by the sequence, and completed by
+ * the reply or the timeout sweeper, so no thread is blocked by the outstanding
+ * calls. <br>
+ * the server side extends RPC.Stub and bind it, e.g.
+ * 
+ * <pre>
+ * new RPC.Stub("echo") {
+ *   public byte[] onCall(Request req) throws Exception {
+ *     return req.data;
+ *   }
+ * }.bind();
+ * 
+ * RPC.callAsync("echo", req).thenAccept(...);
+ * </pre>
+ * 
+ * the reply is a request with type = state, 200 is ok, and the data is the
+ * result or the error message.
  * 
  * @author wujun
  *
  */
 public class RPC {
 
-  private static Log               log     = LogFactory.getLog(RPC.class);
+  private static Log             log     = LogFactory.getLog(RPC.class);
 
-  private static IStub             REPLY   = null;
-  public static long               TIMEOUT = X.AMINUTE;
-  private static Map<Long, Object> waits   = new HashMap<Long, Object>();
-  private static AtomicLong        seq     = new AtomicLong(0);
+  private static volatile IStub  REPLY   = null;
+  public static long             TIMEOUT = X.AMINUTE;
+  private static Map<Long, Call> waits   = new ConcurrentHashMap<Long, Call>();
 
   /**
-   * Client side api, Call the class.method(args), and got the result until
-   * finish execution.
+   * Client side api, Call the rpc service, and got the result until finish
+   * execution.
    *
    * @param rpcname
    *          the rpc service name
-   * @param method
-   *          the method
-   * @param args
-   *          the args object[]
-   * @return the object
+   * @param req
+   *          the request
+   * @return the response
    * @throws Exception
-   *           the exception
+   *           the exception, if timeout or failed
    */
   public static Response call(String rpcname, Request req) throws Exception {
+    Response resp = null;
+    CompletableFuture<Response> f = callAsync(rpcname, req);
+    try {
+      /**
+       * the sweeper may be late or not running, wait a bit more than the
+       * timeout
+       */
+      resp = f.get(TIMEOUT + 2000, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw _timeout(f);
+    } catch (ExecutionException e) {
+      Throwable e1 = e.getCause();
+      throw e1 instanceof Exception ? (Exception) e1 : e;
+    }
+
+    if (resp.state != 200) {
+      throw new Exception(resp.error);
+    }
+    return resp;
+  }
+
+  /**
+   * Client side api, Call the rpc service asynchronously, the future is
+   * completed when the reply arrives, or exceptionally with TimeoutException.
+   *
+   * @param rpcname
+   *          the rpc service name
+   * @param req
+   *          the request
+   * @return the future of the response
+   */
+  public static CompletableFuture<Response> callAsync(String rpcname, Request req) {
+    return callAsync(rpcname, req, TIMEOUT);
+  }
+
+  /**
+   * Client side api, Call the rpc service asynchronously with the timeout.
+   *
+   * @param rpcname
+   *          the rpc service name
+   * @param req
+   *          the request
+   * @param timeout
+   *          the timeout in milliseconds
+   * @return the future of the response
+   */
+  public static CompletableFuture<Response> callAsync(String rpcname, Request req, long timeout) {
+    CompletableFuture<Response> f = new CompletableFuture<Response>();
+
+    long s = -1;
+    try {
+      _init();
+
+      Request r = new Request();
+      r.from = REPLY.name;
+      r.type = req.type;
+      r.data = req.data == null ? new byte[0] : req.data;
+      r.ttl = (int) timeout;
+      s = MQ.next();
+      r.seq = s;
+
+      waits.put(s, new Call(f, System.currentTimeMillis() + timeout));
+
+      MQ.send(s, "rpc." + rpcname, r);
+
+    } catch (Exception e) {
+      if (s >= 0) {
+        waits.remove(s);
+      }
+      f.completeExceptionally(e);
+    }
+    return f;
+  }
+
+  /**
+   * remove the outstanding call of the future, and complete it with timeout as
+   * the sweeper does.
+   */
+  private static TimeoutException _timeout(CompletableFuture<Response> f) {
+    for (Map.Entry<Long, Call> e : waits.entrySet()) {
+      Call c = e.getValue();
+      if (c.future == f && waits.remove(e.getKey(), c)) {
+        TimeoutException e1 = new TimeoutException("timeout, seq=" + e.getKey());
+        f.completeExceptionally(e1);
+        return e1;
+      }
+    }
+    return new TimeoutException("timeout");
+  }
+
+  /**
+   * the count of the outstanding calls.
+   * 
+   * @return the number
+   */
+  public static int getPending() {
+    return waits.size();
+  }
+
+  private static synchronized void _init() throws Exception {
     if (REPLY == null) {
-      REPLY = new IStub(Model.node() + ".rpc") {
+      IStub r = new IStub(Model.node() + ".rpc") {
 
         @Override
         public void onRequest(long seq, Request req) {
-          Object o = waits.get(seq);
-          if (o != null) {
-            try {
-              JSON j = JSON.fromObject(req.data);
-              long s1 = j.getLong("seq");
-              synchronized (o) {
-                waits.put(s1, j.get("result"));
-                o.notifyAll();
-              }
-            } catch (Exception e) {
-              log.error(e.getMessage(), e);
+          Call c = waits.remove(seq);
+          if (c != null) {
+            Response resp = new Response();
+            resp.copy(req);
+            resp.state = req.type;
+            if (resp.state != 200) {
+              resp.error = req.data == null ? X.EMPTY : new String(req.data);
             }
+            c.future.complete(resp);
           }
         }
       };
-      REPLY.bind();
+      r.bind();
+      REPLY = r;
+
+      Sweeper.owner.schedule(1000);
     }
+  }
 
-    long s = seq.incrementAndGet();
-    Object lock = new Object();
-    try {
-      waits.put(s, lock);
+  /**
+   * the outstanding call
+   */
+  private static class Call {
+    CompletableFuture<Response> future;
+    long                        expired;
 
-      Request r = new Request();
-      r.from = REPLY.name;
-      r.type = 0;
-      s = MQ.send("rpc." + rpcname, r);
+    Call(CompletableFuture<Response> future, long expired) {
+      this.future = future;
+      this.expired = expired;
+    }
+  }
 
-      synchronized (lock) {
-        if (waits.get(s) == lock)
-          lock.wait(TIMEOUT);
-      }
-    } finally {
-      Response resp = new Response();
-      Object o = waits.remove(s);
-      if (o != lock) {
-        if (o instanceof Exception) {
-          resp.state = 500;
-          resp.error = ((Exception) o).getMessage();
-        } else if (o instanceof Request) {
-          Request r = (Request) o;
-          resp.copy(r);
-          resp.state = 200;
-          return resp;
-        } else {
-          resp.state = 500;
-          resp.error = "unknow object, o=" + o.getClass().getName();
+  /**
+   * sweep the expired calls
+   * 
+   * @author joe
+   *
+   */
+  private static class Sweeper extends Task {
+
+    static Sweeper owner = new Sweeper();
+
+    @Override
+    public String getName() {
+      return "rpc.sweeper";
+    }
+
+    @Override
+    public String getGroup() {
+      return Group.HEARTBEAT;
+    }
+
+    @Override
+    public void onExecute() {
+      long now = System.currentTimeMillis();
+      for (Map.Entry<Long, Call> e : waits.entrySet()) {
+        Call c = e.getValue();
+        if (c.expired < now && waits.remove(e.getKey(), c)) {
+          c.future.completeExceptionally(new TimeoutException("timeout, seq=" + e.getKey()));
         }
-      } else {
-        resp.state = 500;
-        resp.error = "timeout";
       }
     }
-    throw new Exception("timeout");
+
+    @Override
+    public void onFinish() {
+      this.schedule(1000);
+    }
+  }
+
+  /**
+   * The {@code Stub} Class is the server side of the rpc service, it binds on
+   * "rpc.[name]", and replies the result of onCall to the caller.
+   * 
+   * @author joe
+   *
+   */
+  public static abstract class Stub extends IStub {
+
+    /**
+     * Instantiates a new rpc stub.
+     *
+     * @param name
+     *          the rpc service name
+     */
+    public Stub(String name) {
+      super("rpc." + name);
+    }
+
+    /**
+     * process the call.
+     *
+     * @param req
+     *          the request
+     * @return the result
+     * @throws Exception
+     *           the exception, which is replied as error
+     */
+    public abstract byte[] onCall(Request req) throws Exception;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.giiwa.mq.IStub#onRequest(long, org.giiwa.mq.Request)
+     */
+    @Override
+    public void onRequest(long seq, Request req) {
+      if (X.isEmpty(req.from)) {
+        return;
+      }
+
+      Request r = new Request();
+      r.from = name;
+      try {
+        r.data = onCall(req);
+        r.type = 200;
+      } catch (Exception e) {
+        log.error(e.getMessage(), e);
+        r.type = 500;
+        r.data = (e.getMessage() == null ? e.getClass().getName() : e.getMessage()).getBytes();
+      }
+      if (r.data == null || r.data.length == 0) {
+        // the message can not be empty
+        r.data = X.EMPTY.getBytes();
+      }
+
+      try {
+        MQ.send(seq, req.from, r);
+      } catch (Exception e) {
+        log.error(e.getMessage(), e);
+      }
+    }
   }
 
 }
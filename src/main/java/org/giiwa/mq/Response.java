@@ -5,6 +5,19 @@ public class Response extends Request {
   int    state;
   String error;
 
+  /**
+   * the state of the call, 200 is ok.
+   * 
+   * @return the state
+   */
+  public int getState() {
+    return state;
+  }
+
+  public String getError() {
+    return error;
+  }
+
   public void copy(Request r) {
     seq = r.seq;
     type = r.type;
@@ -14,8 +14,18 @@
 */
 package org.giiwa.mq.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
@@ -30,6 +40,7 @@ import javax.jms.Session;
 
 import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQSession;
 import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.command.ActiveMQTopic;
 import org.apache.commons.logging.Log;
@@ -39,16 +50,47 @@ import org.giiwa.core.bean.X;
 import org.giiwa.core.conf.Global;
 import org.giiwa.framework.bean.OpLog;
 import org.giiwa.framework.bean.Request;
+import org.giiwa.framework.bean.Response;
+import org.giiwa.mq.Consumer;
 import org.giiwa.mq.IStub;
 import org.giiwa.mq.MQ;
 
-// TODO: Auto-generated Javadoc
+/**
+ * the ActiveMQ implementation, the messages are sent by a pool of sessions, the
+ * session is selected by the thread, so the sending scales with the threads,
+ * the async messages to same destination are batched in one frame, and flushed
+ * by the own scheduler, configuration in DB:
+ * 
+ * <pre>
+ * activemq.senders=[number of sending sessions], default is the cpu cores
+ * activemq.batch=[max records in a frame], default is 64, 1 is no batch
+ * activemq.linger=[max milliseconds a record waits in batch], default is 2
+ * </pre>
+ * 
+ * @author joe
+ *
+ */
 public final class ActiveMQ extends MQ {
 
-  private static Log log   = LogFactory.getLog(ActiveMQ.class);
+  private static Log         log     = LogFactory.getLog(ActiveMQ.class);
+
+  private String             group   = X.EMPTY;
+  private Connection         connection;
+  private Sender[]           senders;
 
-  private String     group = X.EMPTY;
-  private Session    session;
+  private int                batch;
+  private long               linger;
+
+  /**
+   * the pending batches, keyed by destination
+   */
+  private Map<String, Batch> batches = new ConcurrentHashMap<String, Batch>();
+
+  /**
+   * the scheduler of flushing the batches, not the Task pool which may drop the
+   * task when it's busy
+   */
+  private ScheduledExecutorService flusher;
 
   /**
    * Creates the.
@@ -73,7 +115,25 @@ public final class ActiveMQ extends MQ {
       Connection connection = factory.createConnection();
       connection.start();
 
-      m.session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+      m.connection = connection;
+
+      int n = Math.max(1, Global.getInt("activemq.senders", Runtime.getRuntime().availableProcessors()));
+      m.senders = new Sender[n];
+      for (int i = 0; i < n; i++) {
+        m.senders[i] = m.new Sender(connection.createSession(false, Session.AUTO_ACKNOWLEDGE));
+      }
+      m.batch = Math.max(1, Global.getInt("activemq.batch", 64));
+      m.linger = Math.max(0, Global.getInt("activemq.linger", 2));
+      m.flusher = Executors.newScheduledThreadPool(n, new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "mq.flush");
+          t.setDaemon(true);
+          return t;
+        }
+
+      });
 
       OpLog.info(org.giiwa.app.web.admin.mq.class, "startup", "connected ActiveMQ with [" + url + "]", null, null);
 
@@ -87,7 +147,9 @@ public final class ActiveMQ extends MQ {
   }
 
   /**
-   * QueueTask
+   * QueueTask, each stub has its session, the message is acknowledged
+   * individually after processed, so the broker stops delivering when there
+   * are "prefetch" messages not processed.
    * 
    * @author joe
    * 
@@ -95,7 +157,9 @@ public final class ActiveMQ extends MQ {
   public class R implements MessageListener {
     public String   name;
     IStub           cb;
+    Session         session;
     MessageConsumer consumer;
+    Dispatcher      dispatcher;
     TimeStamp       t     = TimeStamp.create();
     int             count = 0;
 
@@ -106,24 +170,31 @@ public final class ActiveMQ extends MQ {
       if (consumer != null) {
         try {
           consumer.close();
+          session.close();
         } catch (JMSException e) {
           log.error(e.getMessage(), e);
         }
       }
+      if (dispatcher != null) {
+        dispatcher.close();
+      }
     }
 
-    private R(String name, IStub cb, Mode mode) throws JMSException {
+    private R(String name, IStub cb, Mode mode, Consumer c) throws JMSException {
       this.name = name;
       this.cb = cb;
 
-      if (session != null) {
+      if (connection != null) {
+        String options = "?consumer.prefetchSize=" + c.getPrefetch();
         Destination dest = null;
         if (mode == Mode.QUEUE) {
-          dest = new ActiveMQQueue(group + name);
+          dest = new ActiveMQQueue(group + name + options);
         } else {
-          dest = new ActiveMQTopic(group + name);
+          dest = new ActiveMQTopic(group + name + options);
         }
 
+        dispatcher = new Dispatcher(name, c);
+        session = connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
         consumer = session.createConsumer(dest);
         consumer.setMessageListener(this);
 
@@ -139,7 +210,7 @@ public final class ActiveMQ extends MQ {
      * @see javax.jms.MessageListener#onMessage(javax.jms.Message)
      */
     @Override
-    public void onMessage(Message m) {
+    public void onMessage(final Message m) {
       try {
         // System.out.println("got a message.., " + t.reset() +
         // "ms");
@@ -151,9 +222,21 @@ public final class ActiveMQ extends MQ {
           byte[] bb = new byte[len];
           m1.readBytes(bb);
           Request r = new Request(bb, 0);
-          process(name, r, cb);
+          process(name, r, cb, dispatcher, new Runnable() {
+
+            @Override
+            public void run() {
+              try {
+                m.acknowledge();
+              } catch (JMSException e) {
+                log.error(e.getMessage(), e);
+              }
+            }
+
+          });
         } else {
           System.out.println(m);
+          m.acknowledge();
         }
 
         if (count % 10000 == 0) {
@@ -167,158 +250,245 @@ public final class ActiveMQ extends MQ {
   }
 
   @Override
-  protected void _bind(String name, IStub stub, Mode mode) throws Exception {
-    if (session == null)
+  protected void _bind(String name, IStub stub, Mode mode, Consumer c) throws Exception {
+    if (connection == null)
       throw new JMSException("MQ not init yet");
 
     OpLog.info(org.giiwa.app.web.admin.mq.class, "bind",
-        "[" + name + "], stub=" + stub.getClass().toString() + ", mode=" + mode, null, null);
+        "[" + name + "], stub=" + stub.getClass().toString() + ", mode=" + mode + ", consumer=" + c, null, null);
 
-    new R(name, stub, mode);
+    new R(name, stub, mode, c);
   }
 
   @Override
   protected long _topic(long seq, String to, org.giiwa.mq.Request r) throws Exception {
 
-    if (X.isEmpty(r.data))
-      throw new Exception("message can not be empty");
+    _check(r);
 
-    if (session == null) {
-      throw new Exception("MQ not init yet");
-    }
+    Response out = new Response();
+    write(out, seq, r);
+    _sender().send(to, true, out.getBytes(), r.persistent, r.priotiry, r.ttl);
 
-    /**
-     * get the message producer by destination name
-     */
-    MessageProducer p = getTopic(to);
-    if (p == null) {
-      throw new Exception("MQ not ready yet");
-    }
+    if (log.isDebugEnabled())
+      log.debug("Broadcasting: " + to + ", len=" + r.data.length);
+
+    return seq;
+  }
 
-    BytesMessage req = session.createBytesMessage();
+  @Override
+  protected long _send(long seq, String to, org.giiwa.mq.Request r) throws Exception {
 
-    req.writeLong(seq);
-    byte[] ff = r.from == null ? null : r.from.getBytes();
-    if (ff == null) {
-      req.writeInt(0);
-    } else {
-      req.writeInt(ff.length);
-      req.writeBytes(ff);
-    }
-    req.writeInt(r.type);
-    if (r.data == null) {
-      req.writeInt(0);
-    } else {
-      req.writeInt(r.data.length);
-      req.writeBytes(r.data);
-    }
+    _check(r);
 
-    p.send(req, r.persistent, r.priotiry, r.ttl);
+    Response out = new Response();
+    write(out, seq, r);
+    _sender().send(to, false, out.getBytes(), r.persistent, r.priotiry, r.ttl);
 
     if (log.isDebugEnabled())
-      log.debug("Broadcasting: " + to + ", len=" + r.data.length);
+      log.debug("Sending:" + to + ", len=" + (r.data == null ? 0 : r.data.length));
 
     return seq;
+
   }
 
   @Override
-  protected long _send(long seq, String to, org.giiwa.mq.Request r) throws Exception {
+  protected void _sendAsync(long seq, String to, org.giiwa.mq.Request r, Callback cb) {
+    try {
+      _check(r);
+    } catch (Exception e) {
+      if (cb != null) {
+        cb.onComplete(seq, e);
+      }
+      return;
+    }
+
+    Batch b = batches.get(to);
+    if (b == null) {
+      b = new Batch(to);
+      Batch b1 = batches.putIfAbsent(to, b);
+      if (b1 != null) {
+        b = b1;
+      }
+    }
+    b.add(new Record(seq, r, cb));
+  }
 
+  private void _check(org.giiwa.mq.Request r) throws Exception {
     if (X.isEmpty(r.data))
       throw new Exception("message can not be empty");
 
-    if (session == null) {
+    if (senders == null) {
       throw new Exception("MQ not init yet");
     }
+  }
 
-    /**
-     * get the message producer by destination name
-     */
-    MessageProducer p = getQueue(to);
-    if (p == null) {
-      throw new Exception("MQ not ready yet");
+  /**
+   * the sender of the current thread, the same thread always uses the same
+   * session, so the order of its messages is kept.
+   */
+  private Sender _sender() {
+    return senders[(int) (Thread.currentThread().getId() % senders.length)];
+  }
+
+  /**
+   * a sending session and its producers, the session is not thread-safe, it's
+   * used by one thread at a time.
+   * 
+   * @author joe
+   *
+   */
+  private class Sender {
+
+    Session                      session;
+    Map<String, MessageProducer> producers = new HashMap<String, MessageProducer>();
+
+    Sender(Session session) {
+      this.session = session;
     }
 
-    BytesMessage req = session.createBytesMessage();
+    synchronized void send(String name, boolean topic, byte[] bb, int persistent, int priority, long ttl)
+        throws JMSException {
+      String key = (topic ? "t:" : "q:") + name;
+      MessageProducer p = producers.get(key);
+      if (p == null) {
+        Destination dest = topic ? new ActiveMQTopic(group + name) : new ActiveMQQueue(group + name);
+        p = session.createProducer(dest);
+        p.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        producers.put(key, p);
+      }
 
-    req.writeLong(seq);
-    byte[] ff = r.from == null ? null : r.from.getBytes();
-    if (ff == null) {
-      req.writeInt(0);
-    } else {
-      req.writeInt(ff.length);
-      req.writeBytes(ff);
+      BytesMessage m = session.createBytesMessage();
+      m.writeBytes(bb);
+      p.send(m, persistent, priority, ttl);
     }
-    req.writeInt(r.type);
-    if (r.data == null) {
-      req.writeInt(0);
-    } else {
-      req.writeInt(r.data.length);
-      req.writeBytes(r.data);
+  }
+
+  /**
+   * the record waiting in batch
+   */
+  private static class Record {
+    long                  seq;
+    org.giiwa.mq.Request r;
+    Callback              cb;
+
+    Record(long seq, org.giiwa.mq.Request r, Callback cb) {
+      this.seq = seq;
+      this.r = r;
+      this.cb = cb;
     }
+  }
 
-    p.send(req, r.persistent, r.priotiry, r.ttl);
+  /**
+   * the batch of a destination, the records are sent in one frame when the
+   * batch is full or lingered, the frame takes the delivery options of the
+   * first record.
+   * 
+   * @author joe
+   *
+   */
+  private class Batch implements Runnable {
 
-    if (log.isDebugEnabled())
-      log.debug("Sending:" + to + ", len=" + (r.data == null ? 0 : r.data.length));
+    String                        to;
+    ConcurrentLinkedQueue<Record> queue     = new ConcurrentLinkedQueue<Record>();
+    AtomicInteger                 size      = new AtomicInteger(0);
+    AtomicBoolean                 scheduled = new AtomicBoolean(false);
+    AtomicBoolean                 running   = new AtomicBoolean(false);
 
-    return seq;
+    Batch(String to) {
+      this.to = to;
+    }
 
-  }
+    void add(Record e) {
+      queue.add(e);
+      int n = size.incrementAndGet();
+      if (n >= batch) {
+        // full, flush now even if the linger is pending
+        _schedule(0);
+      } else if (scheduled.compareAndSet(false, true)) {
+        _schedule(linger);
+      }
+    }
 
-  private MessageProducer getQueue(String name) {
-    synchronized (queues) {
-      if (session != null) {
-        if (queues.containsKey(name)) {
-          return queues.get(name);
-        }
+    private void _schedule(long delay) {
+      try {
+        flusher.schedule(this, delay, TimeUnit.MILLISECONDS);
+      } catch (Exception e) {
+        // the scheduler is gone, flush in the caller
+        log.warn(e.getMessage());
+        run();
+      }
+    }
 
-        try {
-          Destination dest = new ActiveMQQueue(group + name);
-          MessageProducer producer = session.createProducer(dest);
-          producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
-          queues.put(name, producer);
-
-          return producer;
-        } catch (Exception e) {
-          log.error(name, e);
+    @Override
+    public void run() {
+      if (!running.compareAndSet(false, true)) {
+        // the running one will check the queue when done
+        return;
+      }
+
+      try {
+        scheduled.set(false);
+
+        List<Record> l1 = new ArrayList<Record>(batch);
+        do {
+          l1.clear();
+          Record e = null;
+          while (l1.size() < batch && (e = queue.poll()) != null) {
+            l1.add(e);
+          }
+          if (!l1.isEmpty()) {
+            size.addAndGet(-l1.size());
+            _flush(l1);
+          }
+        } while (!l1.isEmpty());
+      } finally {
+        running.set(false);
+      }
+
+      if (!queue.isEmpty()) {
+        if (size.get() >= batch) {
+          _schedule(0);
+        } else if (scheduled.compareAndSet(false, true)) {
+          _schedule(linger);
         }
       }
     }
 
-    return null;
-  }
-
-  private MessageProducer getTopic(String name) {
-    synchronized (topics) {
-      if (session != null) {
-        if (topics.containsKey(name)) {
-          return topics.get(name);
+    private void _flush(List<Record> l1) {
+      Exception e1 = null;
+      try {
+        Response out = new Response();
+        if (l1.size() == 1) {
+          write(out, l1.get(0).seq, l1.get(0).r);
+        } else {
+          out.writeLong(BATCH);
+          out.writeInt(l1.size());
+          for (Record e : l1) {
+            write(out, e.seq, e.r);
+          }
         }
 
-        try {
-          Destination dest = new ActiveMQTopic(group + name);
-          MessageProducer producer = session.createProducer(dest);
-          producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
-          topics.put(name, producer);
-
-          return producer;
-        } catch (Exception e) {
-          log.error(name, e);
+        org.giiwa.mq.Request r = l1.get(0).r;
+        _sender().send(to, false, out.getBytes(), r.persistent, r.priotiry, r.ttl);
+
+        if (log.isDebugEnabled())
+          log.debug("Sending batch:" + to + ", records=" + l1.size());
+
+      } catch (Exception e) {
+        log.error(e.getMessage(), e);
+        e1 = e;
+      }
+
+      for (Record e : l1) {
+        if (e.cb != null) {
+          try {
+            e.cb.onComplete(e.seq, e1);
+          } catch (Throwable e2) {
+            log.error(e2.getMessage(), e2);
+          }
         }
       }
     }
-    return null;
   }
 
-  /**
-   * queue producer cache
-   */
-  private Map<String, MessageProducer> queues = new HashMap<String, MessageProducer>();
-
-  /**
-   * topic producer cache
-   */
-  private Map<String, MessageProducer> topics = new HashMap<String, MessageProducer>();
-
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.mq.impl;
+
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.bean.X;
+import org.giiwa.framework.bean.OpLog;
+import org.giiwa.framework.bean.Request;
+import org.giiwa.framework.bean.Response;
+import org.giiwa.mq.Consumer;
+import org.giiwa.mq.IStub;
+import org.giiwa.mq.MQ;
+
+/**
+ * the in-process MQ, "mq.type=local", the message is delivered to the stubs in
+ * the same JVM by lock-free queues, without broker, it's for the single node
+ * and the test. <br>
+ * QUEUE: the message is delivered to one of the stubs, round robin; <br>
+ * TOPIC: the message is delivered to all the stubs; <br>
+ * the message is dropped if no stub bound on the name.
+ * 
+ * @author joe
+ *
+ */
+public class LocalMQ extends MQ {
+
+  private static Log                 log    = LogFactory.getLog(LocalMQ.class);
+
+  private Map<String, Binding[]>     queues = new ConcurrentHashMap<String, Binding[]>();
+  private Map<String, Binding[]>     topics = new ConcurrentHashMap<String, Binding[]>();
+  private Map<String, AtomicInteger> rr     = new ConcurrentHashMap<String, AtomicInteger>();
+
+  /**
+   * Creates the.
+   *
+   * @return the mq
+   */
+  public static MQ create() {
+    OpLog.info(org.giiwa.app.web.admin.mq.class, "startup", "started local MQ", null, null);
+    return new LocalMQ();
+  }
+
+  @Override
+  protected synchronized void _bind(String name, IStub stub, Mode mode, Consumer c) throws Exception {
+    Map<String, Binding[]> m = mode == Mode.QUEUE ? queues : topics;
+
+    // copy on write, the delivery reads without lock
+    Binding[] bb = m.get(name);
+    Binding[] b1 = new Binding[bb == null ? 1 : bb.length + 1];
+    if (bb != null) {
+      System.arraycopy(bb, 0, b1, 0, bb.length);
+    }
+    b1[b1.length - 1] = new Binding(name, stub, c);
+    m.put(name, b1);
+
+    OpLog.info(org.giiwa.app.web.admin.mq.class, "bind",
+        "[" + name + "], stub=" + stub.getClass().toString() + ", mode=" + mode + ", consumer=" + c, null, null);
+  }
+
+  @Override
+  protected long _topic(long seq, String to, org.giiwa.mq.Request r) throws Exception {
+    deliver(to, Mode.TOPIC, frame(seq, r));
+    return seq;
+  }
+
+  @Override
+  protected long _send(long seq, String to, org.giiwa.mq.Request r) throws Exception {
+    deliver(to, Mode.QUEUE, frame(seq, r));
+    return seq;
+  }
+
+  /**
+   * encode the record in a frame, the receiver gets a copy as from the broker.
+   */
+  protected static byte[] frame(long seq, org.giiwa.mq.Request r) throws Exception {
+    if (X.isEmpty(r.data))
+      throw new Exception("message can not be empty");
+
+    Response out = new Response();
+    write(out, seq, r);
+    return out.getBytes();
+  }
+
+  /**
+   * is there any stub bound on the name in this JVM.
+   */
+  protected boolean bound(String name, Mode mode) {
+    return (mode == Mode.QUEUE ? queues : topics).containsKey(name);
+  }
+
+  /**
+   * deliver the frame to the stubs of this JVM.
+   * 
+   * @param to
+   *          the name
+   * @param mode
+   *          the mode
+   * @param frame
+   *          the frame
+   * @return false if no stub bound
+   */
+  protected boolean deliver(String to, Mode mode, byte[] frame) {
+    if (mode == Mode.QUEUE) {
+      Binding[] bb = queues.get(to);
+      if (bb == null) {
+        if (log.isDebugEnabled())
+          log.debug("no stub bound, dropped, to=" + to);
+        return false;
+      }
+
+      AtomicInteger i = rr.get(to);
+      if (i == null) {
+        i = new AtomicInteger(0);
+        AtomicInteger i1 = rr.putIfAbsent(to, i);
+        if (i1 != null) {
+          i = i1;
+        }
+      }
+      bb[(i.getAndIncrement() & 0x7fffffff) % bb.length].offer(frame);
+
+    } else {
+      Binding[] bb = topics.get(to);
+      if (bb == null) {
+        return false;
+      }
+
+      for (Binding b : bb) {
+        b.offer(frame);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * the stub and its mailbox, the sender never blocks, the pump thread moves
+   * the frames to the dispatcher of the stub, and waits when the dispatcher is
+   * full.
+   * 
+   * @author joe
+   *
+   */
+  private static class Binding implements Runnable {
+
+    String                        name;
+    IStub                         stub;
+    Dispatcher                    dispatcher;
+    ConcurrentLinkedQueue<byte[]> mailbox = new ConcurrentLinkedQueue<byte[]>();
+    Thread                        pump;
+
+    Binding(String name, IStub stub, Consumer c) {
+      this.name = name;
+      this.stub = stub;
+      this.dispatcher = new Dispatcher(name, c);
+
+      pump = new Thread(this, "mq.local." + name);
+      pump.setDaemon(true);
+      pump.start();
+    }
+
+    void offer(byte[] frame) {
+      mailbox.add(frame);
+      LockSupport.unpark(pump);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          byte[] bb = mailbox.poll();
+          if (bb == null) {
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+          } else {
+            process(name, new Request(bb, 0), stub, dispatcher, null);
+          }
+        } catch (Throwable e) {
+          log.error(e.getMessage(), e);
+        }
+      }
+    }
+  }
+
+}
@@ -14,9 +14,7 @@
 */
 package org.giiwa.mq.impl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -28,6 +26,7 @@ import org.giiwa.core.conf.Global;
 import org.giiwa.framework.bean.OpLog;
 import org.giiwa.framework.bean.Request;
 import org.giiwa.framework.bean.Response;
+import org.giiwa.mq.Consumer;
 import org.giiwa.mq.IStub;
 import org.giiwa.mq.MQ;
 
@@ -44,13 +43,13 @@ public class RabbitMQ extends MQ {
   private static Log log = LogFactory.getLog(RabbitMQ.class);
 
   @Override
-  protected void _bind(String name, IStub stub, Mode mode) throws Exception {
+  protected void _bind(String name, IStub stub, Mode mode, Consumer c) throws Exception {
     Channel ch = null;
     try {
       ch = connection.createChannel();
-      Receiver r = new Receiver(ch, name, stub, mode);
+      new Receiver(ch, name, stub, mode, c);
       OpLog.info(org.giiwa.app.web.admin.mq.class, "bind",
-          "[" + name + "], stub=" + stub.getClass().toString() + ", mode=" + mode, null, null);
+          "[" + name + "], stub=" + stub.getClass().toString() + ", mode=" + mode + ", consumer=" + c, null, null);
     } catch (Exception e) {
       log.error(e.getMessage(), e);
       OpLog.warn(org.giiwa.app.web.admin.mq.class, "bind",
@@ -89,20 +88,7 @@ public class RabbitMQ extends MQ {
        */
       if (channel != null) {
         Response resp = new Response();
-
-        // Response resp = new Response();
-        resp.writeLong(seq);
-        resp.writeString(to == null ? X.EMPTY : to);
-        resp.writeString(r.from == null ? X.EMPTY : r.from);
-        resp.writeInt(r.type);
-
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        ObjectOutputStream out = new ObjectOutputStream(os);
-        out.writeObject(r.data);
-        out.close();
-        byte[] ss = os.toByteArray();
-        resp.writeInt(ss.length);
-        resp.writeBytes(os.toByteArray());
+        write(resp, seq, r);
 
         channel.queueDeclare(to, false, false, false, null);
         channel.basicPublish("", to, null, resp.getBytes());
@@ -151,11 +137,19 @@ public class RabbitMQ extends MQ {
     return m;
   }
 
+  /**
+   * the receiver of a stub, the message is acknowledged after processed, and
+   * the channel has "prefetch" unacknowledged messages at most (basicQos).
+   * 
+   * @author joe
+   *
+   */
   public class Receiver extends DefaultConsumer {
-    String    name;
-    IStub     cb;
-    TimeStamp t     = TimeStamp.create();
-    int       count = 0;
+    String     name;
+    IStub      cb;
+    Dispatcher dispatcher;
+    TimeStamp  t     = TimeStamp.create();
+    int        count = 0;
 
     /**
      * Close.
@@ -166,18 +160,22 @@ public class RabbitMQ extends MQ {
       } catch (Exception e) {
         log.error(e.getMessage(), e);
       }
+      dispatcher.close();
     }
 
-    private Receiver(Channel ch, String name, IStub cb, Mode mode) {
+    private Receiver(Channel ch, String name, IStub cb, Mode mode, Consumer c) {
       super(ch);
 
+      this.name = name;
       this.cb = cb;
+      this.dispatcher = new Dispatcher(name, c);
 
       if (connection != null) {
         try {
 
+          ch.basicQos(c.getPrefetch());
           ch.queueDeclare(name, false, false, false, null);
-          ch.basicConsume(name, true, this);
+          ch.basicConsume(name, false, this);
 
         } catch (Exception e) {
           log.error(e.getMessage(), e);
@@ -196,14 +194,25 @@ public class RabbitMQ extends MQ {
      * byte[])
      */
     @Override
-    public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body)
-        throws IOException {
+    public void handleDelivery(String consumerTag, final Envelope envelope, AMQP.BasicProperties properties,
+        byte[] body) throws IOException {
 
       Request req = new Request(body, 0);
 
       count++;
 
-      process(name, req, cb);
+      process(name, req, cb, dispatcher, new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            getChannel().basicAck(envelope.getDeliveryTag(), false);
+          } catch (IOException e) {
+            log.error(e.getMessage(), e);
+          }
+        }
+
+      });
 
       if (count % 10000 == 0) {
         System.out.println("process the 10000 messages, cost " + t.reset() + "ms");
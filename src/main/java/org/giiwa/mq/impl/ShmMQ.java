@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.mq.impl;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.giiwa.core.conf.Global;
+import org.giiwa.framework.bean.OpLog;
+import org.giiwa.framework.web.Model;
+import org.giiwa.mq.MQ;
+
+/**
+ * the shared memory MQ between the JVMs on the same host, "mq.type=shm", the
+ * messages are appended to a ring in a memory-mapped file, each JVM reads all
+ * the messages from the ring and delivers to its stubs, the message of QUEUE is
+ * claimed by one JVM only, configuration in DB:
+ * 
+ * <pre>
+ * mq.shm.file=[the ring file], default is GIIWA_HOME/mq/[mq.group].shm
+ * mq.shm.size=[the ring size in MB], default is 64
+ * </pre>
+ * 
+ * the layout of the ring:
+ * 
+ * <pre>
+ * head(64 bytes): position(long), the total bytes written
+ * record: length(int) claimed(byte) mode(byte) to(short+bytes) frame(bytes)
+ * </pre>
+ * 
+ * the record never crosses the end of the ring, the length -1 means skip to the
+ * start, the writers are serialized by the file lock on the head, the reader
+ * which is slower than a whole ring loses the messages.
+ * 
+ * @author joe
+ *
+ */
+public class ShmMQ extends LocalMQ {
+
+  private static Log       log  = LogFactory.getLog(ShmMQ.class);
+
+  private static final int HEAD = 64;
+
+  private FileChannel      channel;
+  private MappedByteBuffer buf;
+  private int              capacity;
+
+  /**
+   * Creates the.
+   *
+   * @return the mq, or null if failed
+   */
+  public static MQ create() {
+    String group = Global.getString("mq.group", "giiwa");
+    String file = Global.getString("mq.shm.file", Model.GIIWA_HOME + "/mq/" + group + ".shm");
+    int size = Math.max(1, Global.getInt("mq.shm.size", 64));
+
+    try {
+      File f = new File(file);
+      f.getParentFile().mkdirs();
+
+      ShmMQ m = new ShmMQ();
+      m.capacity = size * 1024 * 1024;
+
+      @SuppressWarnings("resource")
+      RandomAccessFile raf = new RandomAccessFile(f, "rw");
+      if (raf.length() < HEAD + m.capacity) {
+        raf.setLength(HEAD + m.capacity);
+      }
+      m.channel = raf.getChannel();
+      m.buf = m.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEAD + m.capacity);
+
+      Thread th = new Thread(m.new Reader(m.buf.getLong(0)), "mq.shm");
+      th.setDaemon(true);
+      th.start();
+
+      OpLog.info(org.giiwa.app.web.admin.mq.class, "startup", "started shm MQ with [" + file + "]", null, null);
+      return m;
+
+    } catch (Throwable e) {
+      log.error(e.getMessage(), e);
+      OpLog.warn(org.giiwa.app.web.admin.mq.class, "startup", "failed shm MQ with [" + file + "]", null, null);
+    }
+    return null;
+  }
+
+  @Override
+  protected long _topic(long seq, String to, org.giiwa.mq.Request r) throws Exception {
+    _append(Mode.TOPIC, to, frame(seq, r));
+    return seq;
+  }
+
+  @Override
+  protected long _send(long seq, String to, org.giiwa.mq.Request r) throws Exception {
+    _append(Mode.QUEUE, to, frame(seq, r));
+    return seq;
+  }
+
+  private void _append(Mode mode, String to, byte[] frame) throws IOException {
+    byte[] tt = to.getBytes();
+    int len = 4 + 1 + 1 + 2 + tt.length + frame.length;
+    if (len > capacity / 4) {
+      throw new IOException("message too large, len=" + len);
+    }
+
+    synchronized (this) {
+      FileLock lock = channel.lock(0, HEAD, false);
+      try {
+        long pos = buf.getLong(0);
+        int off = (int) (pos % capacity);
+        if (off + len > capacity) {
+          // not enough at the end, skip to the start
+          if (capacity - off >= 4) {
+            buf.putInt(HEAD + off, -1);
+          }
+          pos += capacity - off;
+          off = 0;
+        }
+
+        ByteBuffer b = buf.duplicate();
+        b.position(HEAD + off);
+        b.putInt(len);
+        b.put((byte) 0);
+        b.put((byte) (mode == Mode.QUEUE ? 0 : 1));
+        b.putShort((short) tt.length);
+        b.put(tt);
+        b.put(frame);
+
+        // publish after the record written
+        buf.putLong(0, pos + len);
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  /**
+   * claim the QUEUE message, only one JVM gets it.
+   */
+  private boolean _claim(int index) throws IOException {
+    FileLock lock = channel.lock(index, 1, false);
+    try {
+      if (buf.get(index) != 0) {
+        return false;
+      }
+      buf.put(index, (byte) 1);
+      return true;
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * the reader of the ring, delivers the messages to the stubs of this JVM
+   * 
+   * @author joe
+   *
+   */
+  private class Reader implements Runnable {
+
+    long cursor;
+
+    Reader(long cursor) {
+      this.cursor = cursor;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          long pos = buf.getLong(0);
+          if (pos == cursor) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            continue;
+          }
+          if (pos - cursor > capacity) {
+            log.warn("too slow, lost messages, bytes=" + (pos - cursor - capacity));
+            cursor = pos;
+            continue;
+          }
+
+          int off = (int) (cursor % capacity);
+          if (capacity - off < 4 || buf.getInt(HEAD + off) == -1) {
+            cursor += capacity - off;
+            continue;
+          }
+
+          ByteBuffer b = buf.duplicate();
+          b.position(HEAD + off);
+          int len = b.getInt();
+          int claim = HEAD + off + 4;
+          b.get();
+          Mode mode = b.get() == 0 ? Mode.QUEUE : Mode.TOPIC;
+          byte[] tt = new byte[b.getShort()];
+          b.get(tt);
+          byte[] frame = new byte[len - 8 - tt.length];
+          b.get(frame);
+
+          long start = cursor;
+          cursor += len;
+          if (buf.getLong(0) - start > capacity) {
+            // overwritten while reading
+            continue;
+          }
+
+          String to = new String(tt);
+          if (mode == Mode.TOPIC) {
+            deliver(to, mode, frame);
+          } else if (bound(to, mode) && _claim(claim)) {
+            deliver(to, mode, frame);
+          }
+
+        } catch (Throwable e) {
+          log.error(e.getMessage(), e);
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException e1) {
+            // ignore
+          }
+        }
+      }
+    }
+  }
+
+}
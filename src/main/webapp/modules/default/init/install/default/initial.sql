@@ -125,6 +125,8 @@ create index gi_repo_index_name on gi_repo(name);
 create index gi_repo_index_folder on gi_repo(folder);
 create index gi_repo_index_tag on gi_repo(tag);
 create index gi_repo_index_expired on gi_repo(expired);
+alter table gi_repo add digest varchar(64);
+create index gi_repo_index_digest on gi_repo(digest);
 
 #drop table if exists gi_menu;
 create table gi_menu
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.vengine;
+
+import java.util.Map;
+
+import org.giiwa.core.bean.TimeStamp;
+import org.giiwa.core.bean.X;
+
+/**
+ * compare the compiled Expression with velocity, run by hand, e.g.
+ *
+ * <pre>
+ * java org.giiwa.core.vengine.VEngineBenchmark [times]
+ * </pre>
+ *
+ * @author joe
+ *
+ */
+public class VEngineBenchmark {
+
+  static final String[] SS = { "{age}>10", "{age} > 10 && {name} == 'joe'", "{me.age} * 2 >= {count} + 1.5" };
+
+  public static void main(String[] args) throws Exception {
+    int n = args.length > 0 ? X.toInt(args[0]) : 100000;
+    Map<String, Object> m = VEngineTest.model();
+
+    // warm up
+    _run(m, n / 10 + 1);
+
+    for (String s : SS) {
+      Expression e = Expression.compile(s);
+
+      TimeStamp t = TimeStamp.create();
+      for (int i = 0; i < n; i++) {
+        m.put("age", i);
+        e.test(m);
+      }
+      long t1 = t.pastms();
+
+      t.reset();
+      for (int i = 0; i < n; i++) {
+        m.put("age", i);
+        VEngine._evaluate(s, m);
+      }
+      long t2 = t.pastms();
+
+      System.out.println(s + ", times=" + n + ", compiled=" + t1 + "ms, velocity=" + t2 + "ms");
+    }
+  }
+
+  private static void _run(Map<String, Object> m, int n) throws Exception {
+    for (String s : SS) {
+      Expression e = Expression.compile(s);
+      for (int i = 0; i < n; i++) {
+        e.test(m);
+        VEngine._evaluate(s, m);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 JIHU, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+package org.giiwa.core.vengine;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * check the compiled Expression gives the same result as velocity.
+ *
+ * @author joe
+ *
+ */
+public class VEngineTest {
+
+  static Map<String, Object> model() {
+    Map<String, Object> me = new HashMap<String, Object>();
+    me.put("name", "joe");
+    me.put("age", 20);
+
+    Map<String, Object> m = new HashMap<String, Object>();
+    m.put("age", 20);
+    m.put("count", 5L);
+    m.put("price", 1.5);
+    m.put("name", "joe");
+    m.put("empty", "");
+    m.put("str", "20");
+    m.put("flag", true);
+    m.put("me", me);
+    return m;
+  }
+
+  private void _check(String... ss) throws Exception {
+    Map<String, Object> m = model();
+    for (String s : ss) {
+      assertEquals(s, VEngine._evaluate(s, m), Expression.compile(s).test(m));
+    }
+  }
+
+  @Test
+  public void testNull() throws Exception {
+    _check("{x} > 10", "{x} < 10", "{x} == 10", "{x} != 10", "{x} == {y}", "{x}", "{x} + 1 > 0", "{me.x} == 'joe'",
+        "{x} && {flag}", "{x} || {flag}");
+  }
+
+  @Test
+  public void testEquals() throws Exception {
+    _check("{age} == '20'", "{age} == {str}", "{str} == 20", "{age} == 20.0", "{count} == 5", "{count} == 5.0",
+        "{flag} == 'true'", "{age} != 'joe'", "{name} == 'joe'", "{me.name} == {name}", "{me.age} == {age}");
+  }
+
+  @Test
+  public void testNot() throws Exception {
+    _check("!{name}", "!{empty}", "!{age}", "!{flag}", "!!{name}", "!{me}", "!{x}", "!({age} > 10)");
+  }
+
+  @Test
+  public void testArith() throws Exception {
+    _check("{age} / 3 == 6", "{age} % 3 == 2", "{age} / 8 == 2.5", "{age} * 1.5 == 30", "{price} + 1 == 2.5",
+        "{price} * 2 > {age} - 18", "{age} - 25 < 0", "{count} * {age} == 100");
+  }
+
+  @Test
+  public void testLogic() throws Exception {
+    _check("{age} > 10 && {name} == 'joe'", "{age} < 10 || {flag}", "{age} >= 20 and {count} le 5",
+        "not {flag} or {age} gt 30");
+  }
+
+}